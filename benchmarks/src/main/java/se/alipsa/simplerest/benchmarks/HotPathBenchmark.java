@@ -0,0 +1,84 @@
+package se.alipsa.simplerest.benchmarks;
+
+import static se.alipsa.simplerest.CommonHeaders.CONTENT_LENGTH;
+import static se.alipsa.simplerest.CommonHeaders.CONTENT_TYPE;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import se.alipsa.simplerest.CommonHeaders;
+import se.alipsa.simplerest.Response;
+import se.alipsa.simplerest.UrlParameters;
+import test.alipsa.simplerest.model.Company;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the parts of the api that do not touch the network: json conversion in the Response,
+ * header lookup, url parameters and basic auth header creation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HotPathBenchmark {
+
+  private ObjectMapper mapper;
+  private String json;
+  private Map<String, List<String>> headers;
+
+  @Setup
+  public void setUp() throws Exception {
+    mapper = new ObjectMapper();
+    json = mapper.writeValueAsString(new Company("ABC", 123));
+    headers = new LinkedHashMap<>();
+    headers.put(null, List.of("HTTP/1.1 200 OK"));
+    headers.put("date", List.of("Sat, 17 Oct 2026 10:00:00 GMT"));
+    headers.put("content-type", List.of("application/json"));
+    headers.put("content-length", List.of("27"));
+    headers.put("server", List.of("Jetty(11.0.26)"));
+    headers.put("etag", List.of("\"abc123\""));
+  }
+
+  @Benchmark
+  public Company responseGetObject() throws Exception {
+    return new Response(json, 200, headers, mapper).getObject(Company.class);
+  }
+
+  @Benchmark
+  public void responseGetHeader(Blackhole bh) {
+    Response response = new Response(json, 200, headers, mapper);
+    bh.consume(response.getHeader(CONTENT_TYPE));
+    bh.consume(response.getHeader(CONTENT_LENGTH));
+    bh.consume(response.getHeader("ETag"));
+  }
+
+  @Benchmark
+  public String urlParameters() {
+    return UrlParameters.parameters("key", "theLongAPIkey", "q", "simple rest", "num", "9");
+  }
+
+  @Benchmark
+  public String basicAuth() {
+    return CommonHeaders.basicAuth("myUserName", "myPassword");
+  }
+
+  @Benchmark
+  public Map<String, String> basicAuthHeader() {
+    return CommonHeaders.basicAuthHeader("myUserName", "myPassword");
+  }
+}
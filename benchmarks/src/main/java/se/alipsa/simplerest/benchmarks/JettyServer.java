@@ -0,0 +1,76 @@
+package se.alipsa.simplerest.benchmarks;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import test.alipsa.simplerest.servlets.ComplexServlet;
+import test.alipsa.simplerest.servlets.SimpleServlet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * The embedded Jetty server the network benchmarks run against, serving the servlets used by the tests
+ * and a binary file of {@link #BINARY_SIZE} bytes at /artifact.bin
+ */
+public class JettyServer {
+
+  /** The size of the binary file served */
+  public static final int BINARY_SIZE = 1024 * 1024;
+
+  private final Server server;
+  private final Path docRoot;
+  private final String url;
+
+  /**
+   * Start the server on a random port.
+   *
+   * @throws Exception if the server fails to start
+   */
+  public JettyServer() throws Exception {
+    docRoot = Files.createTempDirectory("benchmark");
+    byte[] content = new byte[BINARY_SIZE];
+    new Random(42).nextBytes(content);
+    Files.write(docRoot.resolve("artifact.bin"), content);
+
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.setResourceBase(docRoot.toString());
+    context.addServlet(SimpleServlet.class, "/simple/*");
+    context.addServlet(ComplexServlet.class, "/complex/*");
+    context.addServlet(DefaultServlet.class, "/");
+    server.setHandler(context);
+    server.start();
+    url = String.format("http://localhost:%d/", connector.getLocalPort());
+  }
+
+  /**
+   * @return the base url of the server, ending with a slash
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * Stop the server and remove the served files.
+   *
+   * @throws Exception if the server fails to stop
+   */
+  public void stop() throws Exception {
+    server.stop();
+    try (Stream<Path> paths = Files.walk(docRoot)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    } catch (IOException e) {
+      // leftovers in the temp dir are harmless
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package se.alipsa.simplerest.benchmarks;
+
+import static se.alipsa.simplerest.CommonHeaders.CONTENT_LENGTH;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.alipsa.simplerest.HttpClientEngine;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.UrlConnectionEngine;
+import test.alipsa.simplerest.model.Company;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * End to end benchmarks of the RestClient verbs against an embedded Jetty server.
+ * SampleTime mode reports latency percentiles, run with <code>-prof gc</code> to get the allocation rate.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RestClientBenchmark {
+
+  /** The number of companies in the large json array */
+  private static final int LARGE_COUNT = 10_000;
+
+  @Param({"urlConnection", "urlConnectionKeepAlive", "httpClient"})
+  public String engine;
+
+  private JettyServer server;
+  private RestClient restClient;
+  private String simpleUrl;
+  private String largeUrl;
+  private String binaryUrl;
+  private Company company;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server = new JettyServer();
+    restClient = new RestClient();
+    switch (engine) {
+      case "urlConnectionKeepAlive" -> {
+        var urlConnectionEngine = new UrlConnectionEngine(restClient.getSslContext().getSocketFactory());
+        urlConnectionEngine.setKeepAlive(true);
+        restClient.setEngine(urlConnectionEngine);
+      }
+      case "httpClient" -> restClient.setEngine(new HttpClientEngine(restClient.getSslContext()));
+      default -> {
+        // the default UrlConnectionEngine
+      }
+    }
+    simpleUrl = server.getUrl() + "simple";
+    largeUrl = server.getUrl() + "simple/companies?count=" + LARGE_COUNT;
+    binaryUrl = server.getUrl() + "artifact.bin";
+    company = new Company("Creative Design", 0);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    server.stop();
+  }
+
+  @Benchmark
+  public Company smallJsonGet() throws Exception {
+    return restClient.get(simpleUrl).getObject(Company.class);
+  }
+
+  @Benchmark
+  public Company smallJsonGetTyped() throws Exception {
+    return restClient.get(simpleUrl, Company.class);
+  }
+
+  @Benchmark
+  public List<Company> largeJsonGet() throws Exception {
+    return restClient.get(largeUrl).getObjectList(Company.class);
+  }
+
+  @Benchmark
+  public long largeJsonStream() throws Exception {
+    try (Stream<Company> companies = restClient.getStream(largeUrl, Company.class)) {
+      return companies.count();
+    }
+  }
+
+  @Benchmark
+  public Company post() throws Exception {
+    return restClient.post(simpleUrl, company).getObject(Company.class);
+  }
+
+  @Benchmark
+  public byte[] binaryDownload() throws Exception {
+    return restClient.getContentAsBytes(binaryUrl);
+  }
+
+  @Benchmark
+  public String headHeaders() throws Exception {
+    return restClient.head(simpleUrl).getHeader(CONTENT_LENGTH);
+  }
+}
@@ -3,9 +3,11 @@ set -e
 if [[ -f ~/.sdkman/bin/sdkman-init.sh ]]; then
   # shellcheck source=/dev/null
   source ~/.sdkman/bin/sdkman-init.sh
-  if [[ -f ~/bin/jdk17 ]]; then
+  # java 21 builds the virtual thread layer of the multi-release jar,
+  # the base classes still target java 17 (maven.compiler.release)
+  if [[ -f ~/bin/jdk21 ]]; then
     # shellcheck source=/dev/null
-    source ~/bin/jdk17
+    source ~/bin/jdk21
   fi
 fi
 
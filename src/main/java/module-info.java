@@ -5,6 +5,7 @@ module se.alipsa.simplerest {
   requires com.fasterxml.jackson.core;
   requires com.fasterxml.jackson.databind;
   requires com.fasterxml.jackson.datatype.jsr310;
+  requires java.net.http;
   requires nl.altindag.ssl;
   exports se.alipsa.simplerest;
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package se.alipsa.simplerest;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the blocking rest calls of the async api on an executor, making sure that no more than
+ * maxInFlight calls are running at the same time. Calls exceeding the limit are queued (not blocking
+ * any thread) and started as soon as a running call completes.
+ */
+class AsyncDispatcher {
+
+  /** A call to the RestClient that may throw a RestException */
+  @FunctionalInterface
+  interface RestCall<T> {
+    T call() throws RestException;
+  }
+
+  private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private volatile Executor executor;
+  private volatile int maxInFlight = Integer.MAX_VALUE;
+
+  /** Lazily creates the executor shared by all clients that have not been given one */
+  private static final class DefaultExecutorHolder {
+    static final ExecutorService EXECUTOR = VirtualThreads.newExecutor();
+  }
+
+  static Executor defaultExecutor() {
+    return DefaultExecutorHolder.EXECUTOR;
+  }
+
+  Executor getExecutor() {
+    Executor current = executor;
+    return current == null ? defaultExecutor() : current;
+  }
+
+  void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  void setMaxInFlight(int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be at least 1 but was " + maxInFlight);
+    }
+    this.maxInFlight = maxInFlight;
+    dispatch();
+  }
+
+  int getInFlight() {
+    return inFlight.get();
+  }
+
+  <T> CompletableFuture<T> submit(RestCall<T> call) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    pending.add(() -> {
+      try {
+        future.complete(call.call());
+      } catch (RestException | RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    });
+    dispatch();
+    return future;
+  }
+
+  private void dispatch() {
+    while (true) {
+      int running = inFlight.get();
+      if (running >= maxInFlight) {
+        return;
+      }
+      if (!inFlight.compareAndSet(running, running + 1)) {
+        continue;
+      }
+      Runnable task = pending.poll();
+      if (task == null) {
+        inFlight.decrementAndGet();
+        // a task might have been queued after the poll but before the decrement
+        if (pending.isEmpty()) {
+          return;
+        }
+        continue;
+      }
+      try {
+        getExecutor().execute(() -> {
+          try {
+            task.run();
+          } finally {
+            inFlight.decrementAndGet();
+            dispatch();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // run in the caller thread rather than leaving the future hanging
+        try {
+          task.run();
+        } finally {
+          inFlight.decrementAndGet();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,294 @@
+package se.alipsa.simplerest;
+
+import static se.alipsa.simplerest.CommonHeaders.CACHE_CONTROL;
+import static se.alipsa.simplerest.CommonHeaders.ETAG;
+import static se.alipsa.simplerest.CommonHeaders.LAST_MODIFIED;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cached GET response and the information needed to decide if it is fresh or must be revalidated.
+ */
+final class CacheEntry {
+
+  private static final String EXPIRES = "Expires";
+  private static final String DATE = "Date";
+  private static final String AGE = "Age";
+  private static final String VARY = "Vary";
+
+  private final String key;
+  private final int responseCode;
+  private final Map<String, List<String>> headers;
+  private final byte[] body;
+  private final long freshUntil;
+  /** the request headers named by the Vary header of the response and their values, null if not sent */
+  private final Map<String, String> varied;
+
+  private CacheEntry(String key, int responseCode, Map<String, List<String>> headers, byte[] body, long freshUntil,
+                     Map<String, String> varied) {
+    this.key = key;
+    this.responseCode = responseCode;
+    this.headers = headers;
+    this.body = body;
+    this.freshUntil = freshUntil;
+    this.varied = varied;
+  }
+
+  /**
+   * Create an entry for the response if it may be cached, i.e. it is a 200 response that is not no-store,
+   * private or Vary: *, and is either fresh for a while or can be revalidated.
+   *
+   * @param requestHeaders the headers of the request, the ones named by the Vary header are kept in the entry
+   * @return the entry or null if the response must not be cached
+   */
+  static CacheEntry of(String key, int responseCode, Map<String, List<String>> headers, byte[] body, long now,
+                       Map<String, String> requestHeaders) {
+    if (responseCode != 200) {
+      return null;
+    }
+    Map<String, List<String>> copy = new LinkedHashMap<>();
+    headers.forEach((name, values) -> {
+      if (name != null) {
+        copy.put(name, List.copyOf(values));
+      }
+    });
+    String cacheControl = HeaderIndex.firstValue(copy, CACHE_CONTROL);
+    // the cache can be shared by several clients, so responses meant for one user only are not stored
+    if (hasDirective(cacheControl, "no-store") || hasDirective(cacheControl, "private")
+        || cacheControl != null && cacheControl.toLowerCase(Locale.ROOT).contains("private=")) {
+      return null;
+    }
+    Map<String, String> varied = new LinkedHashMap<>();
+    for (List<String> values : headers(copy, VARY)) {
+      for (String value : values) {
+        for (String name : value.split(",")) {
+          name = name.trim();
+          if (name.equals("*")) {
+            return null;
+          }
+          if (!name.isEmpty()) {
+            varied.put(name, HeaderIndex.find(requestHeaders, name));
+          }
+        }
+      }
+    }
+    CacheEntry entry = new CacheEntry(key, responseCode, copy, body, freshUntil(copy, cacheControl, now), varied);
+    if (entry.freshUntil <= now && !entry.hasValidators()) {
+      return null;
+    }
+    return entry;
+  }
+
+  private static long freshUntil(Map<String, List<String>> headers, String cacheControl, long now) {
+    if (hasDirective(cacheControl, "no-cache")) {
+      return now;
+    }
+    long maxAge = directiveValue(cacheControl, "max-age");
+    if (maxAge >= 0) {
+      long age = parseLong(HeaderIndex.firstValue(headers, AGE));
+      return now + (maxAge - Math.max(age, 0)) * 1000;
+    }
+    String expires = HeaderIndex.firstValue(headers, EXPIRES);
+    if (expires != null) {
+      long expiresAt = parseDate(expires);
+      if (expiresAt < 0) {
+        // an invalid date, e.g. "0", means already expired
+        return now;
+      }
+      long date = parseDate(HeaderIndex.firstValue(headers, DATE));
+      // use the server clock difference rather than comparing server and client clocks
+      return now + expiresAt - (date < 0 ? now : date);
+    }
+    return now;
+  }
+
+  private static List<List<String>> headers(Map<String, List<String>> headers, String name) {
+    List<List<String>> values = new ArrayList<>();
+    headers.forEach((headerName, headerValues) -> {
+      if (name.equalsIgnoreCase(headerName)) {
+        values.add(headerValues);
+      }
+    });
+    return values;
+  }
+
+  static boolean hasDirective(String cacheControl, String directive) {
+    if (cacheControl == null) {
+      return false;
+    }
+    for (String part : cacheControl.split(",")) {
+      if (part.trim().equalsIgnoreCase(directive)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long directiveValue(String cacheControl, String directive) {
+    if (cacheControl == null) {
+      return -1;
+    }
+    for (String part : cacheControl.split(",")) {
+      String[] nameValue = part.trim().split("=", 2);
+      if (nameValue.length == 2 && nameValue[0].trim().equalsIgnoreCase(directive)) {
+        return parseLong(nameValue[1].trim().replace("\"", ""));
+      }
+    }
+    return -1;
+  }
+
+  private static long parseLong(String value) {
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static long parseDate(String value) {
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return -1;
+    }
+  }
+
+  String getKey() {
+    return key;
+  }
+
+  /**
+   * @param requestHeaders the headers of the request to answer
+   * @return true if the request sends the same values of the headers named by the Vary header as the one cached
+   */
+  boolean matches(Map<String, String> requestHeaders) {
+    for (Map.Entry<String, String> header : varied.entrySet()) {
+      if (!Objects.equals(header.getValue(), HeaderIndex.find(requestHeaders, header.getKey()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  boolean isFresh(long now) {
+    return now < freshUntil;
+  }
+
+  boolean hasValidators() {
+    return getETag() != null || getLastModified() != null;
+  }
+
+  String getETag() {
+    return HeaderIndex.firstValue(headers, ETAG);
+  }
+
+  String getLastModified() {
+    return HeaderIndex.firstValue(headers, LAST_MODIFIED);
+  }
+
+  /** @return the approximate number of bytes held by this entry */
+  long size() {
+    long size = body.length + key.length();
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      size += header.getKey().length();
+      for (String value : header.getValue()) {
+        size += value.length();
+      }
+    }
+    for (Map.Entry<String, String> header : varied.entrySet()) {
+      size += header.getKey().length() + (header.getValue() == null ? 0 : header.getValue().length());
+    }
+    return size;
+  }
+
+  /**
+   * Create the entry resulting from a 304 Not Modified response, i.e. the cached body with the headers
+   * updated by the ones in the 304 response.
+   */
+  CacheEntry revalidated(Map<String, List<String>> notModifiedHeaders, long now) {
+    Map<String, List<String>> merged = new LinkedHashMap<>(headers);
+    notModifiedHeaders.forEach((name, values) -> {
+      // the 304 has no body so its framing headers do not describe the cached one
+      if (name != null && !name.equalsIgnoreCase(CommonHeaders.CONTENT_LENGTH)
+          && !name.equalsIgnoreCase(CommonHeaders.CONTENT_ENCODING) && !name.equalsIgnoreCase("Transfer-Encoding")) {
+        merged.keySet().removeIf(existing -> existing.equalsIgnoreCase(name));
+        merged.put(name, List.copyOf(values));
+      }
+    });
+    return new CacheEntry(key, responseCode, merged, body,
+        freshUntil(merged, HeaderIndex.firstValue(merged, CACHE_CONTROL), now), varied);
+  }
+
+  Response toResponse(ObjectMapper mapper) {
+    return new Response(responseCode, headers, body, mapper);
+  }
+
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeUTF(key);
+    out.writeInt(responseCode);
+    out.writeLong(freshUntil);
+    out.writeInt(headers.size());
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      out.writeUTF(header.getKey());
+      out.writeInt(header.getValue().size());
+      for (String value : header.getValue()) {
+        out.writeUTF(value);
+      }
+    }
+    out.writeInt(varied.size());
+    for (Map.Entry<String, String> header : varied.entrySet()) {
+      out.writeUTF(header.getKey());
+      out.writeBoolean(header.getValue() != null);
+      if (header.getValue() != null) {
+        out.writeUTF(header.getValue());
+      }
+    }
+    out.writeInt(body.length);
+    out.write(body);
+  }
+
+  static CacheEntry readFrom(DataInputStream in) throws IOException {
+    String key = in.readUTF();
+    int responseCode = in.readInt();
+    long freshUntil = in.readLong();
+    int headerCount = in.readInt();
+    Map<String, List<String>> headers = new LinkedHashMap<>();
+    for (int i = 0; i < headerCount; i++) {
+      String name = in.readUTF();
+      int valueCount = in.readInt();
+      List<String> values = new ArrayList<>(valueCount);
+      for (int j = 0; j < valueCount; j++) {
+        values.add(in.readUTF());
+      }
+      headers.put(name, List.copyOf(values));
+    }
+    int variedCount = in.readInt();
+    Map<String, String> varied = new LinkedHashMap<>();
+    for (int i = 0; i < variedCount; i++) {
+      String name = in.readUTF();
+      varied.put(name, in.readBoolean() ? in.readUTF() : null);
+    }
+    byte[] body = new byte[in.readInt()];
+    in.readFully(body);
+    return new CacheEntry(key, responseCode, headers, body, freshUntil, varied);
+  }
+}
@@ -0,0 +1,44 @@
+package se.alipsa.simplerest;
+
+/**
+ * Lets a call running in another thread be aborted, e.g. the losing attempt of a hedged request.
+ * The engine registers the action aborting the call (e.g. disconnecting the connection) with
+ * {@link Request#onCancel(Runnable)}, a later registration replaces an earlier one.
+ */
+final class Cancellation {
+
+  private Runnable abort;
+  private boolean cancelled;
+
+  /**
+   * @param abort the action aborting the call, run right away if the call is already cancelled
+   */
+  void onCancel(Runnable abort) {
+    synchronized (this) {
+      if (!cancelled) {
+        this.abort = abort;
+        return;
+      }
+    }
+    abort.run();
+  }
+
+  void cancel() {
+    Runnable action;
+    synchronized (this) {
+      if (cancelled) {
+        return;
+      }
+      cancelled = true;
+      action = abort;
+      abort = null;
+    }
+    if (action != null) {
+      action.run();
+    }
+  }
+
+  synchronized boolean isCancelled() {
+    return cancelled;
+  }
+}
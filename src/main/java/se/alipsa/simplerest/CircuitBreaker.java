@@ -0,0 +1,295 @@
+package se.alipsa.simplerest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A circuit breaker per host, enable it with {@link RestClient#setCircuitBreaker(CircuitBreaker)}.
+ * <p>
+ * While the circuit of a host is CLOSED the outcome of the last calls (the sliding window) is recorded. A call
+ * fails if it throws an IOException or the server responds with a 5xx status, and it is slow if it takes longer
+ * than the slow call duration to get the response. When the failure rate or the slow call rate of the window
+ * reaches its threshold (and the window has at least the minimum number of calls) the circuit OPENs and calls
+ * to the host fail fast with a {@link CircuitBreakerOpenException} without calling the server.
+ * After the open duration the circuit is HALF_OPEN and lets a few trial calls through; if they succeed the
+ * circuit closes again, otherwise it opens for another open duration.
+ * <p>
+ * The with methods create a new circuit breaker (without any recorded calls) so configure it before use.
+ */
+public class CircuitBreaker {
+
+  /** The states of the circuit of a host */
+  public enum State {
+    /** calls are made and their outcome recorded */
+    CLOSED,
+    /** calls fail fast without calling the server */
+    OPEN,
+    /** a limited number of trial calls are made to decide if the circuit should close or open again */
+    HALF_OPEN
+  }
+
+  private final double failureRateThreshold;
+  private final double slowCallRateThreshold;
+  private final Duration slowCallDuration;
+  private final int windowSize;
+  private final int minimumCalls;
+  private final Duration openDuration;
+  private final int halfOpenCalls;
+  private final Map<String, HostCircuit> circuits = new ConcurrentHashMap<>();
+  private final AtomicLong rejectedCalls = new AtomicLong();
+
+  /**
+   * Create a circuit breaker opening when 50% of the last 20 calls (at least 10) to a host failed, staying open
+   * for 30 seconds and then letting 3 trial calls through. Slow calls do not open the circuit unless configured
+   * with {@link #withSlowCallRateThreshold(double, Duration)}.
+   */
+  public CircuitBreaker() {
+    this(0.5, 1.0, Duration.ofDays(1), 20, 10, Duration.ofSeconds(30), 3);
+  }
+
+  private CircuitBreaker(double failureRateThreshold, double slowCallRateThreshold, Duration slowCallDuration,
+                         int windowSize, int minimumCalls, Duration openDuration, int halfOpenCalls) {
+    if (windowSize < 1 || minimumCalls < 1 || halfOpenCalls < 1) {
+      throw new IllegalArgumentException("windowSize, minimumCalls and halfOpenCalls must be at least 1");
+    }
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.slowCallDuration = slowCallDuration;
+    this.windowSize = windowSize;
+    this.minimumCalls = Math.min(minimumCalls, windowSize);
+    this.openDuration = openDuration;
+    this.halfOpenCalls = halfOpenCalls;
+  }
+
+  /**
+   * @param failureRateThreshold the share of failed calls opening the circuit, e.g. 0.5 for 50%
+   * @return a new circuit breaker with the failure rate threshold given
+   */
+  public CircuitBreaker withFailureRateThreshold(double failureRateThreshold) {
+    return new CircuitBreaker(failureRateThreshold, slowCallRateThreshold, slowCallDuration, windowSize,
+        minimumCalls, openDuration, halfOpenCalls);
+  }
+
+  /**
+   * @param slowCallRateThreshold the share of slow calls opening the circuit, e.g. 0.8 for 80%
+   * @param slowCallDuration calls taking longer than this to get the response are slow
+   * @return a new circuit breaker with the slow call threshold given
+   */
+  public CircuitBreaker withSlowCallRateThreshold(double slowCallRateThreshold, Duration slowCallDuration) {
+    return new CircuitBreaker(failureRateThreshold, slowCallRateThreshold, slowCallDuration, windowSize,
+        minimumCalls, openDuration, halfOpenCalls);
+  }
+
+  /**
+   * @param windowSize the number of (most recent) calls the rates are computed from
+   * @param minimumCalls the min number of calls in the window before the circuit can open
+   * @return a new circuit breaker with the sliding window given
+   */
+  public CircuitBreaker withWindow(int windowSize, int minimumCalls) {
+    return new CircuitBreaker(failureRateThreshold, slowCallRateThreshold, slowCallDuration, windowSize,
+        minimumCalls, openDuration, halfOpenCalls);
+  }
+
+  /**
+   * @param openDuration how long the circuit stays open before trial calls are let through
+   * @param halfOpenCalls the number of trial calls deciding if the circuit closes or opens again
+   * @return a new circuit breaker with the open duration and number of trial calls given
+   */
+  public CircuitBreaker withOpenDuration(Duration openDuration, int halfOpenCalls) {
+    return new CircuitBreaker(failureRateThreshold, slowCallRateThreshold, slowCallDuration, windowSize,
+        minimumCalls, openDuration, halfOpenCalls);
+  }
+
+  /**
+   * @param host the host name, e.g. api.example.com
+   * @return the state of the circuit of the host
+   */
+  public State getState(String host) {
+    HostCircuit circuit = circuits.get(host);
+    return circuit == null ? State.CLOSED : circuit.getState(System.nanoTime());
+  }
+
+  /**
+   * @return the state of the circuit of each host called (sorted by host name)
+   */
+  public Map<String, State> getStates() {
+    long now = System.nanoTime();
+    Map<String, State> states = new TreeMap<>();
+    circuits.forEach((host, circuit) -> states.put(host, circuit.getState(now)));
+    return states;
+  }
+
+  /**
+   * @return the number of calls that failed fast because the circuit was open
+   */
+  public long getRejectedCalls() {
+    return rejectedCalls.get();
+  }
+
+  /**
+   * Let a call to the host through or reject it if the circuit is open.
+   *
+   * @return the call to report the outcome of the call to
+   * @throws CircuitBreakerOpenException if the circuit of the host is open
+   */
+  Call acquire(String host) throws CircuitBreakerOpenException {
+    HostCircuit circuit = circuits.computeIfAbsent(host, h -> new HostCircuit());
+    long epoch = circuit.tryAcquire(System.nanoTime());
+    if (epoch < 0) {
+      rejectedCalls.incrementAndGet();
+      throw new CircuitBreakerOpenException("The circuit breaker for " + host + " is open", host);
+    }
+    return new Call(circuit, epoch);
+  }
+
+  @Override
+  public String toString() {
+    return "states=" + getStates() + ", rejectedCalls=" + getRejectedCalls();
+  }
+
+  /** A call let through by the circuit, reporting its outcome to the state of the circuit it was started in */
+  static final class Call {
+
+    private final HostCircuit circuit;
+    private final long epoch;
+
+    private Call(HostCircuit circuit, long epoch) {
+      this.circuit = circuit;
+      this.epoch = epoch;
+    }
+
+    /**
+     * Record the outcome of the call.
+     *
+     * @param failure true if the call failed
+     * @param durationNanos the time the call took
+     */
+    void onResult(boolean failure, long durationNanos) {
+      circuit.onResult(epoch, failure, durationNanos);
+    }
+
+    /** Release the permit of a call that was cancelled without recording an outcome */
+    void onCancelled() {
+      circuit.onCancelled(epoch);
+    }
+  }
+
+  /** The state and sliding window of the calls to one host */
+  final class HostCircuit {
+
+    private State state = State.CLOSED;
+    /** the outcome of the calls in the window, a ring buffer */
+    private final boolean[] failed = new boolean[windowSize];
+    private final boolean[] slow = new boolean[windowSize];
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+    private long openedAt;
+    private int trialsStarted;
+    private int trialsDone;
+    private int trialFailures;
+    private int trialSlowCalls;
+    /**
+     * incremented on each change of state, a call counts only in the state it was started in, e.g. a slow call
+     * started before the circuit opened that completes when it is half open is not a trial
+     */
+    private long epoch;
+
+    synchronized State getState(long now) {
+      if (state == State.OPEN && now - openedAt >= openDuration.toNanos()) {
+        return State.HALF_OPEN;
+      }
+      return state;
+    }
+
+    /**
+     * @return the epoch the call is started in or -1 if the circuit is open
+     */
+    synchronized long tryAcquire(long now) {
+      if (state == State.OPEN) {
+        if (now - openedAt < openDuration.toNanos()) {
+          return -1;
+        }
+        state = State.HALF_OPEN;
+        epoch++;
+        trialsStarted = 0;
+        trialsDone = 0;
+        trialFailures = 0;
+        trialSlowCalls = 0;
+      }
+      if (state == State.HALF_OPEN) {
+        if (trialsStarted >= halfOpenCalls) {
+          return -1;
+        }
+        trialsStarted++;
+      }
+      return epoch;
+    }
+
+    synchronized void onResult(long callEpoch, boolean failure, long durationNanos) {
+      if (callEpoch != epoch) {
+        // started in an earlier state of the circuit, e.g. before it opened
+        return;
+      }
+      boolean isSlow = durationNanos > slowCallDuration.toNanos();
+      long now = System.nanoTime();
+      if (state == State.HALF_OPEN) {
+        trialsDone++;
+        trialFailures += failure ? 1 : 0;
+        trialSlowCalls += isSlow ? 1 : 0;
+        if (trialsDone >= halfOpenCalls) {
+          if (exceeded(trialFailures, trialSlowCalls, trialsDone)) {
+            open(now);
+          } else {
+            close();
+          }
+        }
+        return;
+      }
+      if (calls == windowSize) {
+        failures -= failed[next] ? 1 : 0;
+        slowCalls -= slow[next] ? 1 : 0;
+      } else {
+        calls++;
+      }
+      failed[next] = failure;
+      slow[next] = isSlow;
+      failures += failure ? 1 : 0;
+      slowCalls += isSlow ? 1 : 0;
+      next = (next + 1) % windowSize;
+      if (calls >= minimumCalls && exceeded(failures, slowCalls, calls)) {
+        open(now);
+      }
+    }
+
+    synchronized void onCancelled(long callEpoch) {
+      if (callEpoch == epoch && state == State.HALF_OPEN && trialsStarted > trialsDone) {
+        trialsStarted--;
+      }
+    }
+
+    private boolean exceeded(int failureCount, int slowCount, int total) {
+      return (double) failureCount / total >= failureRateThreshold
+          || (double) slowCount / total >= slowCallRateThreshold;
+    }
+
+    private void open(long now) {
+      state = State.OPEN;
+      openedAt = now;
+      epoch++;
+    }
+
+    private void close() {
+      state = State.CLOSED;
+      epoch++;
+      calls = 0;
+      failures = 0;
+      slowCalls = 0;
+      next = 0;
+    }
+  }
+}
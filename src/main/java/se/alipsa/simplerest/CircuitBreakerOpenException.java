@@ -0,0 +1,28 @@
+package se.alipsa.simplerest;
+
+/**
+ * The exception thrown, without calling the server, when the circuit breaker of the host is open,
+ * see {@link RestClient#setCircuitBreaker(CircuitBreaker)}.
+ */
+public class CircuitBreakerOpenException extends RestException {
+
+  private final String host;
+
+  /**
+   * Create a circuit breaker open exception.
+   *
+   * @param message the message indicating the issue
+   * @param host the host the call was made to
+   */
+  public CircuitBreakerOpenException(String message, String host) {
+    super(message);
+    this.host = host;
+  }
+
+  /**
+   * @return the host whose circuit is open
+   */
+  public String getHost() {
+    return host;
+  }
+}
@@ -0,0 +1,301 @@
+package se.alipsa.simplerest;
+
+import static se.alipsa.simplerest.CommonHeaders.ACCEPT;
+import static se.alipsa.simplerest.CommonHeaders.AUTHORIZATION;
+import static se.alipsa.simplerest.CommonHeaders.CONTENT_TYPE;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link TokenProvider} getting OAuth2 access tokens with the client credentials grant (RFC 6749 section 4.4)
+ * and caching them until they expire, e.g.
+ * <code>restClient.setTokenProvider(new ClientCredentialsTokenProvider(tokenUrl, clientId, secret)
+ * .withScope("orders:read"));</code>
+ * <p>
+ * The token is refreshed in the background when it is about to expire (60 seconds before by default, but no earlier
+ * than half its lifetime) so that calls do not wait for the token endpoint while the cached token is valid.
+ * Only one request to the token endpoint is made at a time, concurrent calls needing a token share its result.
+ * If a background refresh fails the cached token is used until it expires, retrying the refresh after half the
+ * remaining lifetime.
+ */
+public final class ClientCredentialsTokenProvider implements TokenProvider {
+
+  private static final Duration DEFAULT_REFRESH_AHEAD = Duration.ofSeconds(60);
+  // far enough ahead to never expire, near enough not to overflow when added to System.nanoTime()
+  private static final long NO_EXPIRY = Long.MAX_VALUE / 4;
+
+  private final String tokenUrl;
+  private final String clientId;
+  private final String clientSecret;
+  private final String scope;
+  private final Duration refreshAhead;
+  private final RestClient restClient;
+  private final Executor executor;
+  private final AtomicReference<CompletableFuture<Token>> inFlight = new AtomicReference<>();
+  private final AtomicLong fetchCount = new AtomicLong();
+  private volatile Token token;
+  /** the client calling the token endpoint if none was given, only used by the fetch in progress */
+  private RestClient defaultClient;
+
+  /**
+   * @param tokenUrl the url of the token endpoint
+   * @param clientId the client id
+   * @param clientSecret the client secret, sent with basic authentication
+   */
+  public ClientCredentialsTokenProvider(String tokenUrl, String clientId, String clientSecret) {
+    this(tokenUrl, clientId, clientSecret, null, DEFAULT_REFRESH_AHEAD, null, null);
+  }
+
+  private ClientCredentialsTokenProvider(String tokenUrl, String clientId, String clientSecret, String scope,
+                                         Duration refreshAhead, RestClient restClient, Executor executor) {
+    if (tokenUrl == null || clientId == null || clientSecret == null) {
+      throw new IllegalArgumentException("tokenUrl, clientId and clientSecret must not be null");
+    }
+    if (refreshAhead == null || refreshAhead.isNegative()) {
+      throw new IllegalArgumentException("refreshAhead must be >= 0 but was " + refreshAhead);
+    }
+    this.tokenUrl = tokenUrl;
+    this.clientId = clientId;
+    this.clientSecret = clientSecret;
+    this.scope = scope;
+    this.refreshAhead = refreshAhead;
+    this.restClient = restClient;
+    this.executor = executor == null ? AsyncDispatcher.defaultExecutor() : executor;
+  }
+
+  /**
+   * @param scope the space separated scopes to request or null to request the default scope
+   * @return a new token provider requesting the scope given
+   */
+  public ClientCredentialsTokenProvider withScope(String scope) {
+    return new ClientCredentialsTokenProvider(tokenUrl, clientId, clientSecret, scope, refreshAhead, restClient,
+        executor);
+  }
+
+  /**
+   * @param refreshAhead how long before the token expires it is refreshed in the background
+   * @return a new token provider refreshing the token the time given before it expires
+   */
+  public ClientCredentialsTokenProvider withRefreshAhead(Duration refreshAhead) {
+    return new ClientCredentialsTokenProvider(tokenUrl, clientId, clientSecret, scope, refreshAhead, restClient,
+        executor);
+  }
+
+  /**
+   * @param restClient the client calling the token endpoint (a new client by default), must not use this token
+   *                   provider
+   * @return a new token provider calling the token endpoint with the client given
+   */
+  public ClientCredentialsTokenProvider withRestClient(RestClient restClient) {
+    return new ClientCredentialsTokenProvider(tokenUrl, clientId, clientSecret, scope, refreshAhead, restClient,
+        executor);
+  }
+
+  /**
+   * @param executor the executor running the background refreshes, the async executor of simple-rest by default
+   * @return a new token provider refreshing the token on the executor given
+   */
+  public ClientCredentialsTokenProvider withExecutor(Executor executor) {
+    return new ClientCredentialsTokenProvider(tokenUrl, clientId, clientSecret, scope, refreshAhead, restClient,
+        executor);
+  }
+
+  @Override
+  public String getToken() throws RestException {
+    Token current = token;
+    if (current != null) {
+      long now = System.nanoTime();
+      if (now - current.refreshAt < 0) {
+        return current.value;
+      }
+      if (now - current.expiresAt < 0) {
+        refresh(true);
+        return current.value;
+      }
+    }
+    return await(refresh(false)).value;
+  }
+
+  @Override
+  public void invalidate(String rejected) {
+    Token current = token;
+    if (current != null && current.value.equals(rejected)) {
+      token = null;
+    }
+  }
+
+  /**
+   * @return the url of the token endpoint
+   */
+  public String getTokenUrl() {
+    return tokenUrl;
+  }
+
+  /**
+   * @return the requested scope or null for the default scope
+   */
+  public String getScope() {
+    return scope;
+  }
+
+  /**
+   * @return how long before the token expires it is refreshed
+   */
+  public Duration getRefreshAhead() {
+    return refreshAhead;
+  }
+
+  /**
+   * @return the number of requests made to the token endpoint
+   */
+  public long getFetchCount() {
+    return fetchCount.get();
+  }
+
+  /**
+   * Fetch a new token unless a fetch is already in progress.
+   *
+   * @param background true to fetch on the executor, false to fetch on this thread
+   * @return the fetch in progress
+   */
+  private CompletableFuture<Token> refresh(boolean background) {
+    while (true) {
+      CompletableFuture<Token> pending = inFlight.get();
+      if (pending != null) {
+        return pending;
+      }
+      CompletableFuture<Token> created = new CompletableFuture<>();
+      if (!inFlight.compareAndSet(null, created)) {
+        continue;
+      }
+      Runnable fetch = () -> {
+        try {
+          Token fetched = fetch();
+          token = fetched;
+          created.complete(fetched);
+        } catch (RestException | RuntimeException e) {
+          Token stale = token;
+          if (stale != null) {
+            token = stale.postpone(System.nanoTime());
+          }
+          created.completeExceptionally(e);
+        } finally {
+          inFlight.compareAndSet(created, null);
+        }
+      };
+      if (background) {
+        try {
+          executor.execute(fetch);
+        } catch (RejectedExecutionException e) {
+          fetch.run();
+        }
+      } else {
+        fetch.run();
+      }
+      return created;
+    }
+  }
+
+  private Token fetch() throws RestException {
+    fetchCount.incrementAndGet();
+    long start = System.nanoTime();
+    String form = "grant_type=client_credentials" + (scope == null ? "" : "&scope=" + encode(scope));
+    Map<String, String> headers = Map.of(
+        CONTENT_TYPE, MediaType.APPLICATION_FORM_URLENCODED.getValue(),
+        ACCEPT, MediaType.APPLICATION_JSON.getValue(),
+        AUTHORIZATION, CommonHeaders.basicAuth(encode(clientId), encode(clientSecret)));
+    RestClient client = restClient;
+    if (client == null) {
+      if (defaultClient == null) {
+        defaultClient = new RestClient();
+      }
+      client = defaultClient;
+    }
+    Response response = client.post(tokenUrl, form, headers);
+    if (response.getResponseCode() != 200) {
+      throw new RestException("Failed to get a token from " + tokenUrl + ", response code "
+          + response.getResponseCode() + ": " + response.getPayload());
+    }
+    Map<?, ?> json;
+    try {
+      json = response.getObject(Map.class);
+    } catch (JsonProcessingException e) {
+      throw new RestException("Failed to parse the token response from " + tokenUrl, e);
+    }
+    if (json == null || !(json.get("access_token") instanceof String accessToken)) {
+      throw new RestException("No access_token in the token response from " + tokenUrl);
+    }
+    long lifetime = lifetimeNanos(json.get("expires_in"));
+    if (lifetime < 0) {
+      // without expires_in the token is used until the server rejects it
+      return new Token(accessToken, start + NO_EXPIRY, start + NO_EXPIRY);
+    }
+    long expiresAt = start + lifetime;
+    return new Token(accessToken, expiresAt, expiresAt - Math.min(refreshAhead.toNanos(), lifetime / 2));
+  }
+
+  private static long lifetimeNanos(Object expiresIn) {
+    try {
+      long seconds = expiresIn instanceof Number number
+          ? number.longValue()
+          : Long.parseLong(String.valueOf(expiresIn));
+      return seconds < 0 ? -1 : Duration.ofSeconds(Math.min(seconds, NO_EXPIRY / 1_000_000_000L)).toNanos();
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private static Token await(CompletableFuture<Token> future) throws RestException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RestException cause) {
+        throw cause;
+      }
+      throw new RestException("Failed to get a token", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RestException("Interrupted while waiting for a token", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "tokenUrl=" + tokenUrl + ", clientId=" + clientId + (scope == null ? "" : ", scope=" + scope);
+  }
+
+  /** A cached access token */
+  private static final class Token {
+    final String value;
+    final long expiresAt;
+    final long refreshAt;
+
+    Token(String value, long expiresAt, long refreshAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+      this.refreshAt = refreshAt;
+    }
+
+    /**
+     * @return this token refreshed again after half of its remaining lifetime
+     */
+    Token postpone(long now) {
+      return new Token(value, expiresAt, now + Math.max(0, (expiresAt - now) / 2));
+    }
+  }
+}
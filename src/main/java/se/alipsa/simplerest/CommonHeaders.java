@@ -13,12 +13,34 @@ public class CommonHeaders {
   public static final String ALLOW = "Allow";
   /** Used to indicate the desired response type (media type, encoding, doctype) to the server */
   public static final String ACCEPT = "Accept";
+  /** Used to indicate the content encodings (e.g. gzip) the client can handle */
+  public static final String ACCEPT_ENCODING = "Accept-Encoding";
   /** THe Authorization header */
   public static final String AUTHORIZATION = "Authorization";
+  /** The caching directives (e.g. max-age=60, no-cache) of a request or response */
+  public static final String CACHE_CONTROL = "Cache-Control";
+  /** The encoding (e.g. gzip) applied to the payload */
+  public static final String CONTENT_ENCODING = "Content-Encoding";
   /** Used to indicate the length of the payload */
   public static final String CONTENT_LENGTH = "Content-Length";
   /** The header that specifies the content type (e.g. application/json) */
   public static final String CONTENT_TYPE = "Content-Type";
+  /** The date and time the response was created by the server */
+  public static final String DATE = "Date";
+  /** The version identifier of a resource, used to revalidate a cached response */
+  public static final String ETAG = "ETag";
+  /** Makes the request conditional, the server responds with 304 Not Modified if the ETag still matches */
+  public static final String IF_NONE_MATCH = "If-None-Match";
+  /** Makes the request conditional, the server responds with 304 Not Modified if not modified since the date */
+  public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+  /** The date and time the resource was last modified */
+  public static final String LAST_MODIFIED = "Last-Modified";
+  /** How long to wait before making a new request, e.g. after a 429 Too Many Requests or 503 Service Unavailable */
+  public static final String RETRY_AFTER = "Retry-After";
+  /** Used to request only a part of a resource, e.g. bytes=1000- to resume a download */
+  public static final String RANGE = "Range";
+  /** The part of the resource in a 206 Partial Content response, e.g. bytes 1000-1999/2000 */
+  public static final String CONTENT_RANGE = "Content-Range";
 
   /**
    * Creates a value used for the authorization header including the base 64 encoded string containing the username and password
@@ -0,0 +1,194 @@
+package se.alipsa.simplerest;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of requests in flight at the same time, see {@link RequestLimits}.
+ * <p>
+ * The limit is either fixed or adaptive. An adaptive limit follows the AIMD (additive increase, multiplicative
+ * decrease) scheme of TCP congestion control: each call completing within the latency threshold raises the limit
+ * by 1/limit (i.e. by one per "round trip" of limit calls) while a call that is slower, fails or is throttled by the
+ * server (429 or 503) cuts the limit by 10%. The limit thereby settles at the concurrency the server handles
+ * without queuing.
+ * <p>
+ * Taking a free permit is a compare and set without locking, only callers waiting for a permit take a lock.
+ */
+public class ConcurrencyLimiter {
+
+  private static final double BACKOFF_RATIO = 0.9;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final int minLimit;
+  private final int maxLimit;
+  private final long latencyThresholdNanos;
+  private final boolean adaptive;
+  private final Object lock = new Object();
+  private final Queue<Runnable> releaseListeners = new ConcurrentLinkedQueue<>();
+  private volatile int waiters;
+  private volatile int limit;
+  /** the adaptive limit with its fraction, guarded by this */
+  private double estimate;
+
+  /**
+   * Create a fixed concurrency limit.
+   *
+   * @param limit the max number of requests in flight
+   */
+  public ConcurrencyLimiter(int limit) {
+    this(limit, limit, limit, null);
+  }
+
+  /**
+   * Create an adaptive concurrency limit.
+   *
+   * @param initialLimit the limit to start with
+   * @param minLimit the lowest the limit can go
+   * @param maxLimit the highest the limit can go
+   * @param latencyThreshold calls slower than this (until the response headers arrive) decrease the limit
+   */
+  public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration latencyThreshold) {
+    if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+      throw new IllegalArgumentException("Expected 1 <= minLimit <= initialLimit <= maxLimit but was "
+          + minLimit + ", " + initialLimit + ", " + maxLimit);
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.adaptive = latencyThreshold != null;
+    this.latencyThresholdNanos = latencyThreshold == null ? Long.MAX_VALUE : latencyThreshold.toNanos();
+    this.limit = initialLimit;
+    this.estimate = initialLimit;
+  }
+
+  /**
+   * @return the current limit
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return the number of requests in flight
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @return true if the limit adapts to the latency of the calls
+   */
+  public boolean isAdaptive() {
+    return adaptive;
+  }
+
+  /**
+   * Take a permit if one is available right away.
+   *
+   * @return true if a permit was taken, false if the limit is reached
+   */
+  public boolean tryAcquire() {
+    while (true) {
+      int running = inFlight.get();
+      if (running >= limit) {
+        return false;
+      }
+      if (inFlight.compareAndSet(running, running + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Wait for a permit.
+   *
+   * @param maxWait the max time to wait
+   * @return true if a permit was taken, false if none became available within the max wait
+   * @throws InterruptedException if the thread was interrupted while waiting
+   */
+  boolean acquire(Duration maxWait) throws InterruptedException {
+    if (tryAcquire()) {
+      return true;
+    }
+    long deadline = System.nanoTime() + maxWait.toNanos();
+    synchronized (lock) {
+      waiters++;
+      try {
+        while (!tryAcquire()) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return false;
+          }
+          TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+        }
+        return true;
+      } finally {
+        waiters--;
+      }
+    }
+  }
+
+  /**
+   * Run the listener once, as soon as a permit might be available.
+   */
+  void whenAvailable(Runnable listener) {
+    releaseListeners.add(listener);
+    // a permit may have been released before the listener was added
+    if (inFlight.get() < limit && releaseListeners.remove(listener)) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Stop waiting for a permit, e.g. when the caller gave up before the listener was run.
+   */
+  void removeListener(Runnable listener) {
+    releaseListeners.remove(listener);
+  }
+
+  /**
+   * Return a permit.
+   *
+   * @param latencyNanos the time until the response headers arrived
+   * @param dropped true if the call failed or was throttled by the server
+   */
+  void release(long latencyNanos, boolean dropped) {
+    if (adaptive) {
+      adapt(latencyNanos, dropped);
+    }
+    releaseUnused();
+  }
+
+  /**
+   * Return a permit that was not used for a call, without adapting the limit.
+   */
+  void releaseUnused() {
+    inFlight.decrementAndGet();
+    if (waiters > 0) {
+      synchronized (lock) {
+        lock.notifyAll();
+      }
+    }
+    Runnable listener = releaseListeners.poll();
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  private synchronized void adapt(long latencyNanos, boolean dropped) {
+    if (dropped || latencyNanos > latencyThresholdNanos) {
+      estimate = Math.max(minLimit, estimate * BACKOFF_RATIO);
+    } else if (inFlight.get() >= limit / 2) {
+      // only grow the limit when it is actually used
+      estimate = Math.min(maxLimit, estimate + 1 / estimate);
+    }
+    limit = (int) estimate;
+  }
+
+  @Override
+  public String toString() {
+    return "limit=" + limit + ", inFlight=" + inFlight.get() + (adaptive ? ", adaptive" : "");
+  }
+}
@@ -0,0 +1,48 @@
+package se.alipsa.simplerest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters showing how well connections are reused by the {@link UrlConnectionEngine}.
+ * Only https connections are counted, new connections are detected when a TLS socket is created and
+ * the JDK does not expose the creation of plain http sockets.
+ */
+public class ConnectionStats {
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong newConnections = new AtomicLong();
+
+  void requestSent() {
+    requests.incrementAndGet();
+  }
+
+  void connectionOpened() {
+    newConnections.incrementAndGet();
+  }
+
+  /**
+   * @return the number of https requests sent
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * @return the number of https requests that required a new connection (i.e. a TCP and TLS handshake)
+   */
+  public long getNewConnections() {
+    return newConnections.get();
+  }
+
+  /**
+   * @return the number of https requests that reused an idle connection from the keep-alive cache
+   */
+  public long getReusedConnections() {
+    return Math.max(0, getRequests() - getNewConnections());
+  }
+
+  @Override
+  public String toString() {
+    return "requests=" + getRequests() + ", new=" + getNewConnections() + ", reused=" + getReusedConnections();
+  }
+}
@@ -0,0 +1,146 @@
+package se.alipsa.simplerest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Handles compressed (gzip and deflate) content, decompressing response bodies based on the
+ * Content-Encoding header and compressing request bodies.
+ */
+final class ContentEncoding {
+
+  /** The value of the Accept-Encoding header for the encodings we can decode */
+  static final String SUPPORTED = "gzip, deflate";
+  static final String GZIP = "gzip";
+  private static final String DEFLATE = "deflate";
+
+  private ContentEncoding() {
+    // utility class
+  }
+
+  /**
+   * @param response the response to decode
+   * @return a response with the body decompressed according to its Content-Encoding header, without the
+   *     Content-Encoding and Content-Length headers since they describe the compressed body
+   */
+  static EngineResponse decode(EngineResponse response) {
+    String encoding = HeaderIndex.firstValue(response.getHeaders(), CommonHeaders.CONTENT_ENCODING);
+    if (encoding == null) {
+      return response;
+    }
+    encoding = encoding.trim();
+    if (GZIP.equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding) || DEFLATE.equalsIgnoreCase(encoding)) {
+      return new DecodingResponse(response, encoding);
+    }
+    return response;
+  }
+
+  /**
+   * @param body the body to compress
+   * @return a body writing the gzip compressed content of the body (of unknown length)
+   */
+  static RequestBody gzip(RequestBody body) {
+    return new RequestBody() {
+      @Override
+      public long contentLength() {
+        return -1;
+      }
+
+      @Override
+      public boolean isRepeatable() {
+        return body.isRepeatable();
+      }
+
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+        body.writeTo(gzip);
+        // finish rather than close, the caller owns the stream
+        gzip.finish();
+      }
+    };
+  }
+
+  private static InputStream inflate(InputStream in) throws IOException {
+    // "deflate" should be zlib wrapped but some servers send raw deflate data, the zlib header tells them apart
+    PushbackInputStream pb = new PushbackInputStream(in, 2);
+    byte[] header = new byte[2];
+    int n = pb.readNBytes(header, 0, 2);
+    if (n == 0) {
+      return pb;
+    }
+    pb.unread(header, 0, n);
+    boolean zlib = n == 2 && (header[0] & 0x0F) == 8 && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+    return new InflaterInputStream(pb, new Inflater(!zlib));
+  }
+
+  private static class DecodingResponse implements EngineResponse {
+
+    private final EngineResponse response;
+    private final String encoding;
+    private InputStream body;
+    private Map<String, List<String>> headers;
+
+    DecodingResponse(EngineResponse response, String encoding) {
+      this.response = response;
+      this.encoding = encoding;
+    }
+
+    @Override
+    public int getResponseCode() {
+      return response.getResponseCode();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+      if (headers == null) {
+        Map<String, List<String>> decoded = new LinkedHashMap<>();
+        response.getHeaders().forEach((name, values) -> {
+          // the null key is the status line of HttpURLConnection
+          if (name == null || !(CommonHeaders.CONTENT_ENCODING.equalsIgnoreCase(name)
+              || CommonHeaders.CONTENT_LENGTH.equalsIgnoreCase(name))) {
+            decoded.put(name, values);
+          }
+        });
+        headers = Collections.unmodifiableMap(decoded);
+      }
+      return headers;
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      if (body != null) {
+        return body;
+      }
+      InputStream raw = response.getBody();
+      if (raw == null) {
+        return null;
+      }
+      // an empty body (e.g. 204 or 304) has nothing to decode
+      PushbackInputStream in = new PushbackInputStream(raw, 1);
+      int first = in.read();
+      if (first == -1) {
+        body = in;
+        return body;
+      }
+      in.unread(first);
+      body = DEFLATE.equalsIgnoreCase(encoding) ? inflate(in) : new GZIPInputStream(in, 8192);
+      return body;
+    }
+
+    @Override
+    public void close() {
+      response.close();
+    }
+  }
+}
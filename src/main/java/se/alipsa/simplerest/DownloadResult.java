@@ -0,0 +1,64 @@
+package se.alipsa.simplerest;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of downloading content to a file or a channel, i.e. the response status and headers
+ * and how many bytes were written (the content itself is never held in memory).
+ */
+public class DownloadResult {
+
+  private final int responseCode;
+  private final Map<String, List<String>> headers;
+  private final long bytesTransferred;
+  private final boolean resumed;
+
+  DownloadResult(int responseCode, Map<String, List<String>> headers, long bytesTransferred, boolean resumed) {
+    this.responseCode = responseCode;
+    this.headers = headers;
+    this.bytesTransferred = bytesTransferred;
+    this.resumed = resumed;
+  }
+
+  /**
+   * @return the http status code, 200 for a full download and 206 for a resumed one
+   */
+  public int getResponseCode() {
+    return responseCode;
+  }
+
+  /**
+   * @return the response headers
+   */
+  public Map<String, List<String>> getHeaders() {
+    return headers;
+  }
+
+  /**
+   * @param headerName the name of the header (case-insensitive)
+   * @return the first value of the header or null if not present
+   */
+  public String getHeader(String headerName) {
+    return HeaderIndex.firstValue(headers, headerName);
+  }
+
+  /**
+   * @return the number of bytes written by this download (excluding any previously downloaded part)
+   */
+  public long getBytesTransferred() {
+    return bytesTransferred;
+  }
+
+  /**
+   * @return true if the download continued from the end of an existing file
+   */
+  public boolean isResumed() {
+    return resumed;
+  }
+
+  @Override
+  public String toString() {
+    return responseCode + ", " + bytesTransferred + " bytes" + (resumed ? " (resumed)" : "");
+  }
+}
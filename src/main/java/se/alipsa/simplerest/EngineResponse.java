@@ -0,0 +1,39 @@
+package se.alipsa.simplerest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The "raw" response from a {@link HttpEngine}, i.e. the status and headers with the body still
+ * on the wire. Closing it releases the underlying connection.
+ */
+public interface EngineResponse extends Closeable {
+
+  /**
+   * @return the http status code (e.g. 200 for OK, 404 for not found etc.)
+   */
+  int getResponseCode();
+
+  /**
+   * @return the response headers
+   */
+  Map<String, List<String>> getHeaders();
+
+  /**
+   * Get the body of the response regardless of the status code (i.e. the error body for
+   * 4xx and 5xx responses).
+   *
+   * @return the body stream or null if there is no body
+   * @throws IOException if the body cannot be accessed
+   */
+  InputStream getBody() throws IOException;
+
+  /**
+   * Release the resources held by this response.
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,162 @@
+package se.alipsa.simplerest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A case-insensitive hash index over the headers of a response, built once so that each lookup is O(1) without
+ * allocating (the hash is computed on the lower case characters of the name without creating a lower case copy).
+ * The null key used by HttpURLConnection for the status line is kept apart.
+ */
+final class HeaderIndex {
+
+  static final HeaderIndex EMPTY = new HeaderIndex(null);
+
+  private final String[] names;
+  private final List<String>[] values;
+  /** open addressing table of index + 1 into names and values, 0 is an empty slot */
+  private final int[] slots;
+  private final String statusLine;
+
+  HeaderIndex(Map<String, List<String>> headers) {
+    int size = headers == null ? 0 : headers.size();
+    names = new String[size];
+    @SuppressWarnings("unchecked")
+    List<String>[] table = (List<String>[]) new List<?>[size];
+    values = table;
+    slots = new int[tableSize(size)];
+    String status = null;
+    int count = 0;
+    if (headers != null) {
+      for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+        String name = header.getKey();
+        List<String> headerValues = header.getValue();
+        if (name == null) {
+          status = first(headerValues);
+          continue;
+        }
+        if (headerValues == null) {
+          continue;
+        }
+        int existing = indexOf(name);
+        if (existing >= 0) {
+          // the same name in another case, keep all the values
+          List<String> merged = new ArrayList<>(values[existing]);
+          merged.addAll(headerValues);
+          values[existing] = merged;
+          continue;
+        }
+        names[count] = name;
+        values[count] = headerValues;
+        int mask = slots.length - 1;
+        int slot = hash(name) & mask;
+        while (slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = ++count;
+      }
+    }
+    statusLine = status;
+  }
+
+  /**
+   * @param name the name of the header in any case
+   * @return all the values of the header or null if there is no such header
+   */
+  List<String> values(String name) {
+    int index = name == null ? -1 : indexOf(name);
+    return index < 0 ? null : values[index];
+  }
+
+  /**
+   * @param name the name of the header in any case
+   * @return the first value of the header or null if there is no such header
+   */
+  String value(String name) {
+    return first(values(name));
+  }
+
+  /**
+   * @return the status line (e.g. HTTP/1.1 200 OK) if the engine reported it, otherwise null
+   */
+  String statusLine() {
+    return statusLine;
+  }
+
+  /**
+   * Case-insensitive lookup in headers that are only searched once or twice, where building an index costs more
+   * than it saves, e.g. the request headers or the headers of an engine response.
+   *
+   * @param headers the headers, may be null
+   * @param name the name of the header in any case
+   * @return the value of the header or null if there is no such header
+   */
+  static <V> V find(Map<String, V> headers, String name) {
+    if (headers == null || name == null) {
+      return null;
+    }
+    V value = headers.get(name);
+    if (value != null) {
+      return value;
+    }
+    for (Map.Entry<String, V> header : headers.entrySet()) {
+      String key = header.getKey();
+      if (key != null && key.equalsIgnoreCase(name)) {
+        return header.getValue();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param headers the headers, may be null
+   * @param name the name of the header in any case
+   * @return the first value of the header or null if there is no such header
+   */
+  static String firstValue(Map<String, List<String>> headers, String name) {
+    return first(find(headers, name));
+  }
+
+  private static String first(List<String> headerValues) {
+    return headerValues == null || headerValues.isEmpty() ? null : headerValues.get(0);
+  }
+
+  private int indexOf(String name) {
+    if (slots.length == 0) {
+      return -1;
+    }
+    int mask = slots.length - 1;
+    int slot = hash(name) & mask;
+    int entry;
+    while ((entry = slots[slot]) != 0) {
+      if (names[entry - 1].equalsIgnoreCase(name)) {
+        return entry - 1;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private static int tableSize(int size) {
+    if (size == 0) {
+      return 0;
+    }
+    // at most half full so that probe sequences stay short
+    return Integer.highestOneBit(size * 2 - 1) << 1;
+  }
+
+  private static int hash(String name) {
+    int h = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        c += 'a' - 'A';
+      } else if (c >= 128) {
+        c = Character.toLowerCase(Character.toUpperCase(c));
+      }
+      h = 31 * h + c;
+    }
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,244 @@
+package se.alipsa.simplerest;
+
+import static se.alipsa.simplerest.CommonHeaders.AUTHORIZATION;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable set of request headers with case-insensitive names, backed by a single array.
+ * <p>
+ * Headers are meant to be created once and reused, e.g. precomputed authorization headers or the default headers
+ * of a client (see {@link RestClient#setDefaultHeaders(Headers)}):
+ * <pre>
+ * Headers auth = Headers.basicAuth("user", "secret"); // encoded once
+ * restClient.get(url, auth);
+ * </pre>
+ * Lookups ignore the case of the name. When a set contains a name more than once (in any case) the last value
+ * is kept. Iteration follows the order in which the headers were added.
+ */
+public final class Headers extends AbstractMap<String, String> {
+
+  /** No headers */
+  public static final Headers EMPTY = new Headers(new String[0]);
+
+  /** name0, value0, name1, value1 etc. */
+  private final String[] namesAndValues;
+  private Set<Entry<String, String>> entrySet;
+
+  private Headers(String[] namesAndValues) {
+    this.namesAndValues = namesAndValues;
+  }
+
+  /**
+   * @param namesAndValues the header names and values: name0, value0, name1, value1 etc.
+   * @return the headers given
+   * @throws IllegalArgumentException if the number of arguments is odd or a name or value is null
+   */
+  public static Headers of(String... namesAndValues) {
+    if (namesAndValues.length % 2 != 0) {
+      throw new IllegalArgumentException("Expected pairs of names and values but got " + namesAndValues.length
+          + " arguments");
+    }
+    Headers headers = EMPTY;
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      if (namesAndValues[i] == null || namesAndValues[i + 1] == null) {
+        throw new IllegalArgumentException("Header names and values must not be null");
+      }
+      headers = headers.with(namesAndValues[i], namesAndValues[i + 1]);
+    }
+    return headers;
+  }
+
+  /**
+   * @param headers the headers to copy, applied in iteration order, may be null
+   * @return the headers given (the same instance if they are Headers already)
+   */
+  public static Headers of(Map<String, String> headers) {
+    if (headers instanceof Headers h) {
+      return h;
+    }
+    if (headers == null || headers.isEmpty()) {
+      return EMPTY;
+    }
+    String[] array = new String[headers.size() * 2];
+    int size = 0;
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      if (header.getKey() == null || header.getValue() == null) {
+        continue;
+      }
+      int index = indexOf(array, size, header.getKey());
+      if (index >= 0) {
+        array[index + 1] = header.getValue();
+      } else {
+        array[size++] = header.getKey();
+        array[size++] = header.getValue();
+      }
+    }
+    return new Headers(size == array.length ? array : Arrays.copyOf(array, size));
+  }
+
+  /**
+   * Create the basic authentication header, encode it once and reuse it for all calls.
+   *
+   * @param username the username for the resource requiring basic authentication
+   * @param password the password for the resource requiring basic authentication
+   * @return the Authorization header
+   */
+  public static Headers basicAuth(String username, String password) {
+    return new Headers(new String[]{AUTHORIZATION, CommonHeaders.basicAuth(username, password)});
+  }
+
+  /**
+   * @param token the token to use
+   * @return the Authorization header with the value Bearer + token
+   */
+  public static Headers bearer(String token) {
+    return new Headers(new String[]{AUTHORIZATION, CommonHeaders.bearer(token)});
+  }
+
+  /**
+   * @param name the name of the header
+   * @param value the value of the header or null to remove it
+   * @return new headers with the header set (replacing a header with the same name in any case) or removed
+   */
+  public Headers with(String name, String value) {
+    int index = indexOf(namesAndValues, namesAndValues.length, name);
+    if (value == null) {
+      if (index < 0) {
+        return this;
+      }
+      String[] array = new String[namesAndValues.length - 2];
+      System.arraycopy(namesAndValues, 0, array, 0, index);
+      System.arraycopy(namesAndValues, index + 2, array, index, namesAndValues.length - index - 2);
+      return new Headers(array);
+    }
+    if (index >= 0) {
+      String[] array = namesAndValues.clone();
+      array[index] = name;
+      array[index + 1] = value;
+      return new Headers(array);
+    }
+    String[] array = Arrays.copyOf(namesAndValues, namesAndValues.length + 2);
+    array[namesAndValues.length] = name;
+    array[namesAndValues.length + 1] = value;
+    return new Headers(array);
+  }
+
+  /**
+   * Merge these headers with the headers given, e.g. the default headers of a client with the headers of a
+   * request.
+   *
+   * @param headers the headers to add, replacing headers with the same name, may be null
+   * @return the merged headers, this or the headers given if the other one is empty
+   */
+  public Headers withAll(Map<String, String> headers) {
+    if (headers == null || headers.isEmpty()) {
+      return this;
+    }
+    if (isEmpty()) {
+      return of(headers);
+    }
+    String[] array = Arrays.copyOf(namesAndValues, namesAndValues.length + headers.size() * 2);
+    int[] size = {namesAndValues.length};
+    headers.forEach((name, value) -> {
+      if (name == null || value == null) {
+        return;
+      }
+      int index = indexOf(array, size[0], name);
+      if (index >= 0) {
+        array[index] = name;
+        array[index + 1] = value;
+      } else {
+        array[size[0]++] = name;
+        array[size[0]++] = value;
+      }
+    });
+    return new Headers(size[0] == array.length ? array : Arrays.copyOf(array, size[0]));
+  }
+
+  /**
+   * @param name the name of the header, in any case
+   * @return the value of the header or null if there is no such header
+   */
+  @Override
+  public String get(Object name) {
+    if (!(name instanceof String key)) {
+      return null;
+    }
+    int index = indexOf(namesAndValues, namesAndValues.length, key);
+    return index < 0 ? null : namesAndValues[index + 1];
+  }
+
+  @Override
+  public boolean containsKey(Object name) {
+    return name instanceof String key && indexOf(namesAndValues, namesAndValues.length, key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return namesAndValues.length / 2;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return namesAndValues.length == 0;
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super String, ? super String> action) {
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      action.accept(namesAndValues[i], namesAndValues[i + 1]);
+    }
+  }
+
+  @Override
+  public Set<Entry<String, String>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, String>> iterator() {
+          return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+              return next < namesAndValues.length;
+            }
+
+            @Override
+            public Entry<String, String> next() {
+              if (next >= namesAndValues.length) {
+                throw new NoSuchElementException();
+              }
+              Entry<String, String> entry = new SimpleImmutableEntry<>(namesAndValues[next], namesAndValues[next + 1]);
+              next += 2;
+              return entry;
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return Headers.this.size();
+        }
+      };
+    }
+    return entrySet;
+  }
+
+  private static int indexOf(String[] namesAndValues, int length, String name) {
+    for (int i = 0; i < length; i += 2) {
+      if (namesAndValues[i].equalsIgnoreCase(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
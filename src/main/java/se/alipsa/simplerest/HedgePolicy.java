@@ -0,0 +1,117 @@
+package se.alipsa.simplerest;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Decides when a GET or HEAD call is hedged, enable it with {@link RestClient#setHedgePolicy(HedgePolicy)}.
+ * <p>
+ * If the response headers of a GET or HEAD request have not arrived within the hedge delay, a second identical
+ * request is sent and the response arriving first is used, the other call is cancelled. The delay is either
+ * fixed or, with {@link #withPercentile(double)}, a percentile (e.g. the p95) of the latency of the recent calls
+ * so that only the slowest calls are hedged.
+ * To keep hedging from adding load when the server is slow for everyone, the hedges are capped to a share of
+ * the requests: each request adds the max hedge ratio to a balance (capped at 10) and each hedge spends 1.
+ * <p>
+ * The latencies and the balance are shared by all clients using the policy.
+ */
+public class HedgePolicy {
+
+  private static final int SAMPLE_SIZE = 128;
+  private static final int MIN_SAMPLES = 16;
+  private static final double MAX_BALANCE = 10;
+
+  private final Duration delay;
+  private final double maxHedgeRatio;
+  private final double percentile;
+  private final long[] samples = new long[SAMPLE_SIZE];
+  private int sampleCount;
+  private int next;
+  private double balance;
+
+  /**
+   * Create a hedge policy with a fixed delay.
+   *
+   * @param delay the time to wait for the response headers before sending the hedge request
+   * @param maxHedgeRatio the max share of the requests that are hedged, e.g. 0.05 for 5%
+   */
+  public HedgePolicy(Duration delay, double maxHedgeRatio) {
+    this(delay, maxHedgeRatio, Double.NaN);
+  }
+
+  private HedgePolicy(Duration delay, double maxHedgeRatio, double percentile) {
+    if (!Double.isNaN(percentile) && (percentile <= 0 || percentile > 1)) {
+      throw new IllegalArgumentException("percentile must be > 0 and <= 1 but was " + percentile);
+    }
+    this.delay = delay;
+    this.maxHedgeRatio = maxHedgeRatio;
+    this.percentile = percentile;
+  }
+
+  /**
+   * @param percentile the latency percentile to use as the hedge delay, e.g. 0.95 for the p95 of the last
+   *                   128 calls. The fixed delay is used until 16 calls have been made.
+   * @return a new hedge policy with an adaptive delay
+   */
+  public HedgePolicy withPercentile(double percentile) {
+    return new HedgePolicy(delay, maxHedgeRatio, percentile);
+  }
+
+  /**
+   * @return the max share of the requests that are hedged
+   */
+  public double getMaxHedgeRatio() {
+    return maxHedgeRatio;
+  }
+
+  /**
+   * @return the latency percentile used as the delay or NaN if the delay is fixed
+   */
+  public double getPercentile() {
+    return percentile;
+  }
+
+  /**
+   * @return the current hedge delay
+   */
+  public synchronized Duration getDelay() {
+    if (Double.isNaN(percentile) || sampleCount < MIN_SAMPLES) {
+      return delay;
+    }
+    long[] sorted = Arrays.copyOf(samples, sampleCount);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile * sampleCount) - 1;
+    return Duration.ofNanos(sorted[Math.max(0, index)]);
+  }
+
+  /** Called for each request that may be hedged */
+  synchronized void requestSent() {
+    balance = Math.min(MAX_BALANCE, balance + maxHedgeRatio);
+  }
+
+  /**
+   * @return true if the request can be hedged, false if the hedge ratio is exceeded
+   */
+  synchronized boolean tryHedge() {
+    if (balance < 1) {
+      return false;
+    }
+    balance -= 1;
+    return true;
+  }
+
+  /**
+   * @param latencyNanos the time until the response headers arrived
+   */
+  synchronized void record(long latencyNanos) {
+    samples[next] = latencyNanos;
+    next = (next + 1) % SAMPLE_SIZE;
+    sampleCount = Math.min(SAMPLE_SIZE, sampleCount + 1);
+  }
+
+  @Override
+  public String toString() {
+    return "delay=" + getDelay() + ", maxHedgeRatio=" + maxHedgeRatio
+        + (Double.isNaN(percentile) ? "" : ", percentile=" + percentile);
+  }
+}
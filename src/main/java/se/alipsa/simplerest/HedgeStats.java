@@ -0,0 +1,65 @@
+package se.alipsa.simplerest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters showing how often the calls of a {@link RestClient} are hedged and how often the hedge wins, see
+ * {@link RestClient#setHedgePolicy(HedgePolicy)}.
+ */
+public class HedgeStats {
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder hedges = new LongAdder();
+  private final LongAdder hedgeWins = new LongAdder();
+  private final LongAdder capped = new LongAdder();
+
+  void requestSent() {
+    requests.increment();
+  }
+
+  void hedged() {
+    hedges.increment();
+  }
+
+  void hedgeWon() {
+    hedgeWins.increment();
+  }
+
+  void capped() {
+    capped.increment();
+  }
+
+  /**
+   * @return the number of requests that could be hedged (GET and HEAD requests)
+   */
+  public long getRequests() {
+    return requests.sum();
+  }
+
+  /**
+   * @return the number of hedge requests sent
+   */
+  public long getHedges() {
+    return hedges.sum();
+  }
+
+  /**
+   * @return the number of hedge requests that responded before the original request
+   */
+  public long getHedgeWins() {
+    return hedgeWins.sum();
+  }
+
+  /**
+   * @return the number of hedge requests not sent because the max hedge ratio was reached
+   */
+  public long getCapped() {
+    return capped.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "requests=" + getRequests() + ", hedges=" + getHedges() + ", hedgeWins=" + getHedgeWins()
+        + ", capped=" + getCapped();
+  }
+}
@@ -0,0 +1,140 @@
+package se.alipsa.simplerest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends a request and, if the response has not arrived within the hedge delay, an identical hedge request,
+ * returning the response arriving first and cancelling the other call. See {@link HedgePolicy}.
+ */
+final class HedgedCall {
+
+  /** Sends one attempt of the request */
+  @FunctionalInterface
+  interface Attempt {
+    EngineResponse send(Request request) throws IOException, RestException;
+  }
+
+  private HedgedCall() {
+    // static methods only
+  }
+
+  static EngineResponse execute(Request request, HedgePolicy policy, HedgeStats stats, Executor executor,
+                                Attempt attempt) throws IOException, RestException {
+    policy.requestSent();
+    stats.requestSent();
+    long start = System.nanoTime();
+    Cancellation primaryCancellation = new Cancellation();
+    CompletableFuture<EngineResponse> primary = start(request.withCancellation(primaryCancellation), executor, attempt);
+    try {
+      try {
+        EngineResponse response = primary.get(policy.getDelay().toNanos(), TimeUnit.NANOSECONDS);
+        policy.record(System.nanoTime() - start);
+        return response;
+      } catch (TimeoutException e) {
+        if (!policy.tryHedge()) {
+          stats.capped();
+          EngineResponse response = primary.get();
+          policy.record(System.nanoTime() - start);
+          return response;
+        }
+      }
+      stats.hedged();
+      Cancellation hedgeCancellation = new Cancellation();
+      CompletableFuture<EngineResponse> hedge = start(request.withCancellation(hedgeCancellation), executor, attempt);
+      CompletableFuture<EngineResponse> winner = new CompletableFuture<>();
+      AtomicInteger failures = new AtomicInteger();
+      AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+      primary.whenComplete((response, failure) ->
+          race(winner, response, failure, hedgeCancellation, failures, firstFailure));
+      hedge.whenComplete((response, failure) ->
+          race(winner, response, failure, primaryCancellation, failures, firstFailure));
+      EngineResponse response;
+      try {
+        response = winner.get();
+      } catch (InterruptedException e) {
+        // responses arriving after the winner is cancelled are closed
+        winner.cancel(false);
+        primaryCancellation.cancel();
+        hedgeCancellation.cancel();
+        throw interrupted(request, e);
+      }
+      policy.record(System.nanoTime() - start);
+      if (hedge.isDone() && !hedge.isCompletedExceptionally() && hedge.getNow(null) == response) {
+        stats.hedgeWon();
+      }
+      return response;
+    } catch (InterruptedException e) {
+      primaryCancellation.cancel();
+      primary.thenAccept(HedgedCall::closeQuietly);
+      throw interrupted(request, e);
+    } catch (ExecutionException e) {
+      throw unwrap(e.getCause());
+    }
+  }
+
+  private static InterruptedIOException interrupted(Request request, InterruptedException e) {
+    Thread.currentThread().interrupt();
+    InterruptedIOException ie = new InterruptedIOException("Interrupted while waiting for " + request);
+    ie.initCause(e);
+    return ie;
+  }
+
+  private static CompletableFuture<EngineResponse> start(Request request, Executor executor, Attempt attempt) {
+    CompletableFuture<EngineResponse> future = new CompletableFuture<>();
+    executor.execute(() -> {
+      try {
+        future.complete(attempt.send(request));
+      } catch (IOException | RestException | RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    });
+    return future;
+  }
+
+  /** The first successful response wins and cancels the other call, if both calls fail the first failure wins */
+  private static void race(CompletableFuture<EngineResponse> winner, EngineResponse response, Throwable failure,
+                           Cancellation other, AtomicInteger failures, AtomicReference<Throwable> firstFailure) {
+    if (failure == null) {
+      if (winner.complete(response)) {
+        other.cancel();
+      } else {
+        // the other call won, or the caller gave up
+        closeQuietly(response);
+      }
+      return;
+    }
+    firstFailure.compareAndSet(null, failure);
+    if (failures.incrementAndGet() == 2) {
+      winner.completeExceptionally(firstFailure.get());
+    }
+  }
+
+  private static void closeQuietly(EngineResponse response) {
+    try {
+      response.close();
+    } catch (RuntimeException e) {
+      // the response is abandoned anyway
+    }
+  }
+
+  private static IOException unwrap(Throwable cause) throws RestException {
+    if (cause instanceof IOException ioe) {
+      return ioe;
+    }
+    if (cause instanceof RestException re) {
+      throw re;
+    }
+    if (cause instanceof RuntimeException re) {
+      throw re;
+    }
+    return new IOException(cause);
+  }
+}
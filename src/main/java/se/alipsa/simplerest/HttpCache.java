@@ -0,0 +1,336 @@
+package se.alipsa.simplerest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A client side cache of GET responses, enable it with {@link RestClient#setHttpCache(HttpCache)}.
+ * Responses are cached according to their Cache-Control, Expires, ETag and Last-Modified headers.
+ * A fresh entry is returned without calling the server, a stale entry with a validator (ETag or Last-Modified)
+ * is revalidated with a conditional request (If-None-Match / If-Modified-Since) so that an unchanged resource
+ * only costs a 304 Not Modified response.
+ * The entries are kept in memory in least recently used order up to the max size; if a disk directory is given,
+ * entries evicted from memory are moved there (up to the max disk size) instead of being dropped.
+ * A cache can be shared by several clients: responses to requests with credentials (an Authorization header or a
+ * token provider) and Cache-Control: private responses are never stored, and a response with a Vary header is only
+ * used for requests sending the same values of the headers it names.
+ */
+public class HttpCache {
+
+  private static final String FILE_SUFFIX = ".cache";
+
+  private final long maxBytes;
+  private final Path diskDirectory;
+  private final long maxDiskBytes;
+  private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long size;
+  /** the files in the disk directory and their sizes, oldest first, guarded by itself rather than the cache */
+  private final LinkedHashMap<Path, Long> diskIndex = new LinkedHashMap<>();
+  private long diskSize;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong revalidations = new AtomicLong();
+
+  /**
+   * Create an in memory cache.
+   *
+   * @param maxBytes the max (approximate) number of bytes of the cached responses
+   */
+  public HttpCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+    this.diskDirectory = null;
+    this.maxDiskBytes = 0;
+  }
+
+  /**
+   * Create a cache with an on disk tier for the entries evicted from memory.
+   *
+   * @param maxBytes the max (approximate) number of bytes of the responses cached in memory
+   * @param diskDirectory the directory to store the entries evicted from memory in, created if it does not exist
+   * @param maxDiskBytes the max number of bytes of the files in the disk directory
+   * @throws RestException if the disk directory cannot be created
+   */
+  public HttpCache(long maxBytes, Path diskDirectory, long maxDiskBytes) throws RestException {
+    this.maxBytes = maxBytes;
+    this.diskDirectory = diskDirectory;
+    this.maxDiskBytes = maxDiskBytes;
+    try {
+      Files.createDirectories(diskDirectory);
+    } catch (IOException e) {
+      throw new RestException("Failed to create cache directory " + diskDirectory, e);
+    }
+    // the entries left by a previous run
+    List<Path> files = diskFiles();
+    files.sort(Comparator.comparingLong(HttpCache::lastModified));
+    for (Path file : files) {
+      long fileSize = fileSize(file);
+      diskIndex.put(file, fileSize);
+      diskSize += fileSize;
+    }
+    trimDisk();
+  }
+
+  /**
+   * @return the number of requests answered from the cache without calling the server
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of cacheable requests that were not in the cache (or were changed on the server)
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of stale entries the server confirmed to be unchanged (304 Not Modified)
+   */
+  public long getRevalidations() {
+    return revalidations.get();
+  }
+
+  /**
+   * @return the (approximate) number of bytes of the responses cached in memory
+   */
+  public synchronized long getSize() {
+    return size;
+  }
+
+  /**
+   * @return the number of responses cached in memory
+   */
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  /**
+   * Remove all entries (including the ones on disk), the counters are kept.
+   */
+  public void clear() {
+    synchronized (this) {
+      entries.clear();
+      size = 0;
+    }
+    if (diskDirectory != null) {
+      synchronized (diskIndex) {
+        diskIndex.clear();
+        diskSize = 0;
+      }
+      diskFiles().forEach(HttpCache::deleteQuietly);
+    }
+  }
+
+  void hit() {
+    hits.incrementAndGet();
+  }
+
+  void miss() {
+    misses.incrementAndGet();
+  }
+
+  void revalidated() {
+    revalidations.incrementAndGet();
+  }
+
+  CacheEntry get(String key) {
+    synchronized (this) {
+      CacheEntry entry = entries.get(key);
+      if (entry != null) {
+        return entry;
+      }
+    }
+    CacheEntry entry = readFromDisk(key);
+    if (entry != null) {
+      put(entry);
+    }
+    return entry;
+  }
+
+  void put(CacheEntry entry) {
+    long entrySize = entry.size();
+    if (entrySize > maxBytes) {
+      remove(entry.getKey());
+      return;
+    }
+    List<CacheEntry> evicted = new ArrayList<>();
+    synchronized (this) {
+      CacheEntry previous = entries.put(entry.getKey(), entry);
+      if (previous != null) {
+        size -= previous.size();
+      }
+      size += entrySize;
+      Iterator<CacheEntry> it = entries.values().iterator();
+      while (size > maxBytes && it.hasNext()) {
+        CacheEntry eldest = it.next();
+        it.remove();
+        size -= eldest.size();
+        evicted.add(eldest);
+      }
+    }
+    if (diskDirectory != null) {
+      evicted.forEach(this::writeToDisk);
+    }
+  }
+
+  void remove(String key) {
+    synchronized (this) {
+      CacheEntry entry = entries.remove(key);
+      if (entry != null) {
+        size -= entry.size();
+      }
+    }
+    if (diskDirectory != null) {
+      Path file = diskFile(key);
+      if (unindex(file)) {
+        deleteQuietly(file);
+      }
+    }
+  }
+
+  private CacheEntry readFromDisk(String key) {
+    if (diskDirectory == null) {
+      return null;
+    }
+    Path file = diskFile(key);
+    if (!unindex(file)) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      CacheEntry entry = CacheEntry.readFrom(in);
+      // a hash collision is practically impossible but cheap to rule out
+      return key.equals(entry.getKey()) ? entry : null;
+    } catch (IOException e) {
+      return null;
+    } finally {
+      // the entry is promoted to memory (or is unreadable), either way the file is no longer needed
+      deleteQuietly(file);
+    }
+  }
+
+  private void writeToDisk(CacheEntry entry) {
+    if (entry.size() > maxDiskBytes) {
+      return;
+    }
+    Path file = diskFile(entry.getKey());
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      entry.writeTo(out);
+    } catch (IOException e) {
+      unindex(file);
+      deleteQuietly(file);
+      return;
+    }
+    long fileSize = fileSize(file);
+    synchronized (diskIndex) {
+      Long previous = diskIndex.remove(file);
+      if (previous != null) {
+        diskSize -= previous;
+      }
+      diskIndex.put(file, fileSize);
+      diskSize += fileSize;
+    }
+    trimDisk();
+  }
+
+  /**
+   * Remove the file from the disk index.
+   *
+   * @return true if the file was in the index
+   */
+  private boolean unindex(Path file) {
+    synchronized (diskIndex) {
+      Long fileSize = diskIndex.remove(file);
+      if (fileSize == null) {
+        return false;
+      }
+      diskSize -= fileSize;
+      return true;
+    }
+  }
+
+  /**
+   * Delete the oldest files until the disk tier fits in the max disk size, the files are deleted outside the lock.
+   */
+  private void trimDisk() {
+    List<Path> evicted = new ArrayList<>();
+    synchronized (diskIndex) {
+      Iterator<Map.Entry<Path, Long>> it = diskIndex.entrySet().iterator();
+      while (diskSize > maxDiskBytes && it.hasNext()) {
+        Map.Entry<Path, Long> eldest = it.next();
+        it.remove();
+        diskSize -= eldest.getValue();
+        evicted.add(eldest.getKey());
+      }
+    }
+    evicted.forEach(HttpCache::deleteQuietly);
+  }
+
+  private List<Path> diskFiles() {
+    try (Stream<Path> files = Files.list(diskDirectory)) {
+      return files.filter(p -> p.getFileName().toString().endsWith(FILE_SUFFIX))
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      return new ArrayList<>();
+    }
+  }
+
+  private Path diskFile(String key) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+      return diskDirectory.resolve(HexFormat.of().formatHex(hash) + FILE_SUFFIX);
+    } catch (NoSuchAlgorithmException e) {
+      // every java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static long fileSize(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static long lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      // nothing more we can do, it will be overwritten or trimmed later
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "hits=" + getHits() + ", misses=" + getMisses() + ", revalidations=" + getRevalidations()
+        + ", entries=" + getEntryCount() + ", size=" + getSize();
+  }
+}
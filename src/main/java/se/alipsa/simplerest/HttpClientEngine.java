@@ -0,0 +1,275 @@
+package se.alipsa.simplerest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import javax.net.ssl.SSLContext;
+
+/**
+ * A {@link HttpEngine} based on java.net.http.HttpClient.
+ * It negotiates HTTP/2 (falling back to HTTP/1.1 when the server does not support it) so that
+ * many concurrent calls to the same host are multiplexed over a single connection.
+ * The engine is thread safe and should be shared, creating the underlying HttpClient is expensive.
+ * <p>
+ * The HttpClient does not support a connect timeout per request, the connect timeout of a {@link Request}
+ * is ignored; set it on the HttpClient instead and use {@link #HttpClientEngine(HttpClient)}.
+ */
+public class HttpClientEngine implements HttpEngine {
+
+  /** Headers managed by the HttpClient itself that are not allowed to be set on a request */
+  private static final Set<String> RESTRICTED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+  static {
+    RESTRICTED_HEADERS.addAll(List.of("Connection", "Content-Length", "Expect", "Host", "Upgrade"));
+  }
+
+  /** The buffer size of the pipe used to stream bodies of unknown origin */
+  private static final int PIPE_SIZE = 64 * 1024;
+
+  private final HttpClient client;
+
+  /**
+   * Create a HttpClient based engine preferring HTTP/2.
+   *
+   * @param sslContext the ssl context to use for https connections
+   */
+  public HttpClientEngine(SSLContext sslContext) {
+    this(HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .sslContext(sslContext)
+        .build());
+  }
+
+  /**
+   * Create an engine using the HttpClient supplied.
+   *
+   * @param client the HttpClient to use
+   */
+  public HttpClientEngine(HttpClient client) {
+    this.client = client;
+  }
+
+  /**
+   * @return the underlying HttpClient
+   */
+  public HttpClient getClient() {
+    return client;
+  }
+
+  @Override
+  public EngineResponse execute(Request request) throws IOException {
+    URI uri;
+    try {
+      uri = new URL(request.getUrl()).toURI();
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid url " + request.getUrl(), e);
+    }
+    HttpRequest.Builder builder = HttpRequest.newBuilder(uri).method(request.getMethod(), bodyPublisher(request.getBody()));
+    request.getHeaders().forEach((name, value) -> {
+      if (!RESTRICTED_HEADERS.contains(name)) {
+        builder.setHeader(name, value);
+      }
+    });
+    // the HttpClient has no per request connect timeout, connecting is part of the wait for the response,
+    // and the request timeout covers sending the request and waiting for the response headers
+    Duration callTimeout = request.getCallTimeout();
+    Duration timeout = UrlConnectionEngine.shortest(request.getReadTimeout(), callTimeout);
+    if (timeout != null) {
+      builder.timeout(timeout);
+    }
+    long start = System.nanoTime();
+    ResponseInfoCapture bodyHandler = new ResponseInfoCapture();
+    try {
+      HttpResponse<InputStream> response;
+      try {
+        response = send(builder.build(), request, bodyHandler);
+      } catch (IOException e) {
+        HttpResponse.ResponseInfo info = bodyHandler.info;
+        if (info != null && info.statusCode() == 416) {
+          // some servers send a 416 with the Content-Length of the whole resource but no body, the HttpClient
+          // may then fail the exchange although the response is complete, it has nothing to read anyway
+          return new BodylessResponse(info);
+        }
+        throw e;
+      }
+      request.onCancel(() -> closeQuietly(response.body()));
+      // the rest of the call timeout is left for reading the body
+      Duration remaining = callTimeout == null ? null : callTimeout.minusNanos(System.nanoTime() - start);
+      Watchdog watchdog = Watchdog.start(remaining, () -> closeQuietly(response.body()));
+      return new HttpClientResponse(response, watchdog);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException ie = new InterruptedIOException("Interrupted while waiting for " + request);
+      ie.initCause(e);
+      throw ie;
+    }
+  }
+
+  private HttpResponse<InputStream> send(HttpRequest httpRequest, Request request,
+                                         HttpResponse.BodyHandler<InputStream> bodyHandler)
+      throws IOException, InterruptedException {
+    if (!request.isCancellable()) {
+      return client.send(httpRequest, bodyHandler);
+    }
+    // cancelling the future of an async send aborts the exchange
+    CompletableFuture<HttpResponse<InputStream>> pending = client.sendAsync(httpRequest, bodyHandler);
+    request.onCancel(() -> pending.cancel(true));
+    try {
+      return pending.get();
+    } catch (InterruptedException e) {
+      pending.cancel(true);
+      throw e;
+    } catch (CancellationException e) {
+      throw new IOException("Cancelled " + request, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException ioe) {
+        throw ioe;
+      }
+      if (e.getCause() instanceof RuntimeException re) {
+        throw re;
+      }
+      throw new IOException("Failed to send " + request, e.getCause());
+    }
+  }
+
+  private static HttpRequest.BodyPublisher bodyPublisher(RequestBody body) {
+    if (body == null) {
+      return HttpRequest.BodyPublishers.noBody();
+    }
+    if (body instanceof RequestBody.ByteArrayBody bytes) {
+      return HttpRequest.BodyPublishers.ofByteArray(bytes.getContent());
+    }
+    // The HttpClient pulls the body from an InputStream, so the body is written into a pipe by another thread
+    HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofInputStream(() -> pipe(body));
+    long contentLength = body.contentLength();
+    return contentLength < 0 ? publisher : HttpRequest.BodyPublishers.fromPublisher(publisher, contentLength);
+  }
+
+  private static InputStream pipe(RequestBody body) {
+    PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+    PipedOutputStream out;
+    try {
+      out = new PipedOutputStream(in);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    AsyncDispatcher.defaultExecutor().execute(() -> {
+      try {
+        body.writeTo(out);
+        out.close();
+      } catch (IOException e) {
+        // closing the read side makes the HttpClient fail the request rather than send a truncated body
+        try {
+          in.close();
+        } catch (IOException ignored) {
+          // already closed
+        }
+      }
+    });
+    return in;
+  }
+
+  private static void closeQuietly(InputStream body) {
+    try {
+      body.close();
+    } catch (IOException e) {
+      // nothing more we can do, the stream is abandoned
+    }
+  }
+
+  /** Streams the body and keeps the status and headers, which are known even if reading the body fails */
+  private static class ResponseInfoCapture implements HttpResponse.BodyHandler<InputStream> {
+
+    private volatile HttpResponse.ResponseInfo info;
+
+    @Override
+    public HttpResponse.BodySubscriber<InputStream> apply(HttpResponse.ResponseInfo responseInfo) {
+      info = responseInfo;
+      return HttpResponse.BodySubscribers.ofInputStream();
+    }
+  }
+
+  /** A response without a body */
+  private static class BodylessResponse implements EngineResponse {
+
+    private final HttpResponse.ResponseInfo info;
+
+    BodylessResponse(HttpResponse.ResponseInfo info) {
+      this.info = info;
+    }
+
+    @Override
+    public int getResponseCode() {
+      return info.statusCode();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+      return info.headers().map();
+    }
+
+    @Override
+    public InputStream getBody() {
+      return InputStream.nullInputStream();
+    }
+
+    @Override
+    public void close() {
+      // the exchange is already over
+    }
+  }
+
+  private static class HttpClientResponse implements EngineResponse {
+
+    private final HttpResponse<InputStream> response;
+    private final Watchdog watchdog;
+    private InputStream body;
+
+    HttpClientResponse(HttpResponse<InputStream> response, Watchdog watchdog) {
+      this.response = response;
+      this.watchdog = watchdog;
+    }
+
+    @Override
+    public int getResponseCode() {
+      return response.statusCode();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+      return response.headers().map();
+    }
+
+    @Override
+    public InputStream getBody() {
+      if (body == null) {
+        body = watchdog.guard(response.body());
+      }
+      return body;
+    }
+
+    @Override
+    public void close() {
+      watchdog.cancel();
+      closeQuietly(response.body());
+    }
+  }
+}
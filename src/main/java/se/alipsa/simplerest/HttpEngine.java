@@ -0,0 +1,23 @@
+package se.alipsa.simplerest;
+
+import java.io.IOException;
+
+/**
+ * The transport used by the RestClient to actually talk to the server.
+ * Two engines are provided: the {@link UrlConnectionEngine} (the default) based on
+ * HttpURLConnection and the {@link HttpClientEngine} based on java.net.http.HttpClient
+ * which negotiates HTTP/2 and multiplexes concurrent calls over a single connection per host.
+ * Select the engine with {@link RestClient#setEngine(HttpEngine)}.
+ */
+public interface HttpEngine {
+
+  /**
+   * Send the request and wait for the response status and headers.
+   * The body of the response is not read, the caller must close the response when done with it.
+   *
+   * @param request the request to send
+   * @return the response from the server
+   * @throws IOException if the request could not be sent or no response was received
+   */
+  EngineResponse execute(Request request) throws IOException;
+}
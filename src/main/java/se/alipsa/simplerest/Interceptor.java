@@ -0,0 +1,51 @@
+package se.alipsa.simplerest;
+
+import java.io.IOException;
+
+/**
+ * Observes, modifies or short-circuits the calls of a {@link RestClient}, register it with
+ * {@link RestClient#addInterceptor(Interceptor)}. E.g. an interceptor adding a header to each request:
+ * <pre>
+ * restClient.addInterceptor(chain -&gt; chain.proceed(chain.request().withHeader("X-Api-Key", apiKey)));
+ * </pre>
+ * The interceptors form a chain: each one gets the request from the previous one and passes it on, possibly
+ * changed, with {@link Chain#proceed(Request)}. The last one in the chain hands the request over to the client,
+ * which sends it (with retries, hedging, circuit breaking etc. as configured) and returns the response.
+ * An interceptor can also return a response without proceeding or proceed more than once, as long as it
+ * closes the responses it does not return.
+ * <p>
+ * Interceptors are called once per call, on the thread making the call. The request they see has the default
+ * headers (e.g. Accept-Encoding) and timeouts of the client applied, the response they get has the body
+ * decompressed. Responses served from the {@link HttpCache} without calling the server do not pass through the
+ * chain.
+ */
+@FunctionalInterface
+public interface Interceptor {
+
+  /**
+   * @param chain the chain giving access to the request and to the rest of the chain
+   * @return the response, the caller closes it
+   * @throws IOException if the request could not be sent or no response was received
+   * @throws RestException if the call was refused, e.g. by the circuit breaker
+   */
+  EngineResponse intercept(Chain chain) throws IOException, RestException;
+
+  /** The position of an interceptor in the chain */
+  interface Chain {
+
+    /**
+     * @return the request to send
+     */
+    Request request();
+
+    /**
+     * Pass the request on to the rest of the chain.
+     *
+     * @param request the request to send
+     * @return the response, the caller closes it
+     * @throws IOException if the request could not be sent or no response was received
+     * @throws RestException if the call was refused, e.g. by the circuit breaker
+     */
+    EngineResponse proceed(Request request) throws IOException, RestException;
+  }
+}
@@ -0,0 +1,54 @@
+package se.alipsa.simplerest;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Passes a request through the interceptors of the client and then on to the client itself.
+ */
+final class InterceptorChain implements Interceptor.Chain {
+
+  /** Sends the request once it has passed all interceptors */
+  @FunctionalInterface
+  interface Call {
+    EngineResponse execute(Request request) throws IOException, RestException;
+  }
+
+  private final List<Interceptor> interceptors;
+  private final int index;
+  private final Request request;
+  private final Call call;
+
+  private InterceptorChain(List<Interceptor> interceptors, int index, Request request, Call call) {
+    this.interceptors = interceptors;
+    this.index = index;
+    this.request = request;
+    this.call = call;
+  }
+
+  static EngineResponse proceed(List<Interceptor> interceptors, Request request, Call call)
+      throws IOException, RestException {
+    return new InterceptorChain(interceptors, 0, request, call).proceed(request);
+  }
+
+  @Override
+  public Request request() {
+    return request;
+  }
+
+  @Override
+  public EngineResponse proceed(Request request) throws IOException, RestException {
+    if (request == null) {
+      throw new IllegalArgumentException("request must not be null");
+    }
+    if (index == interceptors.size()) {
+      return call.execute(request);
+    }
+    Interceptor interceptor = interceptors.get(index);
+    EngineResponse response = interceptor.intercept(new InterceptorChain(interceptors, index + 1, request, call));
+    if (response == null) {
+      throw new IllegalStateException("Interceptor " + interceptor + " returned no response");
+    }
+    return response;
+  }
+}
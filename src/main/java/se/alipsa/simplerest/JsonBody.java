@@ -0,0 +1,104 @@
+package se.alipsa.simplerest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Creates the json request bodies. Small values are serialized up front so that they are sent with a
+ * Content-Length (some servers, proxies and request signing schemes require one), larger values are streamed
+ * chunked without being buffered in memory.
+ */
+final class JsonBody {
+
+  /** The max number of bytes of json that is serialized up front */
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private JsonBody() {
+    // utility class
+  }
+
+  /**
+   * @param mapper the ObjectMapper to use
+   * @param value the object to send as json
+   * @param bufferSize the max number of bytes to serialize up front
+   * @return a body with a known length if the json fits in the buffer size, otherwise a body streaming the json
+   */
+  static RequestBody of(ObjectMapper mapper, Object value, int bufferSize) {
+    // the caller owns the stream so the generator must not close it
+    ObjectWriter writer = mapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    BoundedOutputStream buffer = new BoundedOutputStream(bufferSize);
+    try {
+      writer.writeValue(buffer, value);
+      return RequestBody.ofBytes(buffer.toByteArray());
+    } catch (IOException e) {
+      // too big to buffer, or not serializable in which case the failure is reported when the body is written
+    }
+    return new RequestBody() {
+      @Override
+      public long contentLength() {
+        return -1;
+      }
+
+      @Override
+      public boolean isRepeatable() {
+        return true;
+      }
+
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        writer.writeValue(out, value);
+      }
+    };
+  }
+
+  /** An output stream collecting up to the max number of bytes, failing when more is written to it */
+  private static final class BoundedOutputStream extends OutputStream {
+
+    private final ByteArrayOutputStream bytes;
+    private final int maxSize;
+
+    BoundedOutputStream(int maxSize) {
+      bytes = new ByteArrayOutputStream(Math.min(maxSize, 512));
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      ensureRoom(1);
+      bytes.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      ensureRoom(len);
+      bytes.write(b, off, len);
+    }
+
+    byte[] toByteArray() {
+      return bytes.toByteArray();
+    }
+
+    private void ensureRoom(int len) throws IOException {
+      if (bytes.size() + len > maxSize) {
+        throw new BufferFullException();
+      }
+    }
+  }
+
+  /** Thrown when the json does not fit in the buffer, without a stack trace since it is not an error */
+  private static final class BufferFullException extends IOException {
+    BufferFullException() {
+      super("The json does not fit in the buffer");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+}
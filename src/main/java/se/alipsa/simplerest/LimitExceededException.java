@@ -0,0 +1,28 @@
+package se.alipsa.simplerest;
+
+/**
+ * The exception thrown, without calling the server, when a call exceeds the rate or concurrency limits
+ * and cannot wait for a permit, see {@link RestClient#setRequestLimits(RequestLimits)}.
+ */
+public class LimitExceededException extends RestException {
+
+  private final String host;
+
+  /**
+   * Create a limit exceeded exception.
+   *
+   * @param message the message indicating the issue
+   * @param host the host the call was made to
+   */
+  public LimitExceededException(String message, String host) {
+    super(message);
+    this.host = host;
+  }
+
+  /**
+   * @return the host the call was made to
+   */
+  public String getHost() {
+    return host;
+  }
+}
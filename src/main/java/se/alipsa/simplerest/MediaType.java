@@ -7,7 +7,11 @@ public enum MediaType {
   /** The media type for json payload */
   APPLICATION_JSON("application/json"),
   /** THe media type for xml payload */
-  APPLICATION_XML("application/xml");
+  APPLICATION_XML("application/xml"),
+  /** The media type for binary payload */
+  APPLICATION_OCTET_STREAM("application/octet-stream"),
+  /** The media type for html form payload, e.g. grant_type=client_credentials&amp;scope=read */
+  APPLICATION_FORM_URLENCODED("application/x-www-form-urlencoded");
 
   private final String value;
 
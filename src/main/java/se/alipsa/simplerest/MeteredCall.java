@@ -0,0 +1,219 @@
+package se.alipsa.simplerest;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures a request for a {@link MetricsListener}: the request body and the response body are counted, the
+ * phases timed and the metrics reported when the response is closed (or the request failed).
+ */
+final class MeteredCall {
+
+  /** Sends the request to the server */
+  @FunctionalInterface
+  interface Exchange {
+    EngineResponse execute(Request request) throws IOException;
+  }
+
+  /** Collects the time spent connecting, reported by the engine */
+  static final class Timer {
+    private volatile long connectNanos = -1;
+
+    void connected(long nanos) {
+      connectNanos = nanos;
+    }
+  }
+
+  private MeteredCall() {
+    // static methods only
+  }
+
+  static EngineResponse execute(Request request, MetricsListener listener, Exchange exchange) throws IOException {
+    MetricTags tags = MetricTags.of(request.getMethod(), request.getUrl(), listener);
+    Timer timer = new Timer();
+    RequestBody body = request.getBody();
+    // a byte array is not wrapped so that engines can still recognize it, its size is known anyway
+    RequestBody countingBody = body == null || body instanceof RequestBody.ByteArrayBody ? body : new CountingBody(body);
+    long start = System.nanoTime();
+    EngineResponse response;
+    try {
+      response = exchange.execute(request.withMetering(countingBody, timer));
+    } catch (IOException | RuntimeException e) {
+      long now = System.nanoTime();
+      report(listener, new RequestMetrics(tags, -1, e, timer.connectNanos, -1, -1, now - start,
+          bytesSent(countingBody), 0));
+      throw e;
+    }
+    return new MeteredResponse(response, listener, tags, timer, countingBody, start, System.nanoTime());
+  }
+
+  private static long bytesSent(RequestBody body) {
+    if (body == null) {
+      return 0;
+    }
+    return body instanceof CountingBody counting ? counting.count : body.contentLength();
+  }
+
+  private static void report(MetricsListener listener, RequestMetrics metrics) {
+    try {
+      listener.onRequest(metrics);
+    } catch (RuntimeException e) {
+      // a broken listener must not break the call
+    }
+  }
+
+  /** Counts the bytes written by the wrapped body */
+  private static final class CountingBody implements RequestBody {
+
+    private final RequestBody body;
+    private volatile long count;
+
+    CountingBody(RequestBody body) {
+      this.body = body;
+    }
+
+    @Override
+    public long contentLength() {
+      return body.contentLength();
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return body.isRepeatable();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      // a retried body is written again, only the last attempt counts
+      count = 0;
+      body.writeTo(new FilterOutputStream(out) {
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+          count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          count += len;
+        }
+      });
+    }
+  }
+
+  /** Counts the bytes read from the body and reports the metrics when closed */
+  private static final class MeteredResponse implements EngineResponse {
+
+    private final EngineResponse response;
+    private final MetricsListener listener;
+    private final MetricTags tags;
+    private final Timer timer;
+    private final RequestBody requestBody;
+    private final long start;
+    private final long headersAt;
+    private final AtomicBoolean reported = new AtomicBoolean();
+    private InputStream body;
+    private volatile long bytesReceived;
+    private volatile long bodyDoneAt;
+    private volatile IOException failure;
+
+    MeteredResponse(EngineResponse response, MetricsListener listener, MetricTags tags, Timer timer,
+                    RequestBody requestBody, long start, long headersAt) {
+      this.response = response;
+      this.listener = listener;
+      this.tags = tags;
+      this.timer = timer;
+      this.requestBody = requestBody;
+      this.start = start;
+      this.headersAt = headersAt;
+    }
+
+    @Override
+    public int getResponseCode() {
+      return response.getResponseCode();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+      return response.getHeaders();
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      if (body == null) {
+        InputStream in = response.getBody();
+        body = in == null ? null : new CountingInputStream(in);
+      }
+      return body;
+    }
+
+    @Override
+    public void close() {
+      try {
+        response.close();
+      } finally {
+        if (reported.compareAndSet(false, true)) {
+          long now = System.nanoTime();
+          long bodyRead = body == null ? -1 : (bodyDoneAt == 0 ? now : bodyDoneAt) - headersAt;
+          report(listener, new RequestMetrics(tags, response.getResponseCode(), failure, timer.connectNanos,
+              headersAt - start, bodyRead, now - start, bytesSent(requestBody), bytesReceived));
+        }
+      }
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+
+      CountingInputStream(InputStream in) {
+        super(in);
+      }
+
+      @Override
+      public int read() throws IOException {
+        try {
+          int b = super.read();
+          count(b < 0 ? -1 : 1);
+          return b;
+        } catch (IOException e) {
+          failure = e;
+          throw e;
+        }
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        try {
+          int n = super.read(b, off, len);
+          count(n);
+          return n;
+        } catch (IOException e) {
+          failure = e;
+          throw e;
+        }
+      }
+
+      @Override
+      public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        bytesReceived += skipped;
+        return skipped;
+      }
+
+      private void count(int n) {
+        if (n < 0) {
+          if (bodyDoneAt == 0) {
+            bodyDoneAt = System.nanoTime();
+          }
+        } else {
+          bytesReceived += n;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package se.alipsa.simplerest;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.regex.Pattern;
+
+/**
+ * The tags identifying the kind of request metrics belong to: the method, the host and the uri template.
+ */
+public final class MetricTags {
+
+  private static final Pattern ID_SEGMENT = Pattern.compile(
+      "\\d+|[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}|[0-9a-fA-F]{16,}");
+
+  private final String method;
+  private final String host;
+  private final String uriTemplate;
+
+  /**
+   * @param method the http method, e.g. GET
+   * @param host the host name, e.g. api.example.com
+   * @param uriTemplate the uri template, e.g. /users/{id}
+   */
+  public MetricTags(String method, String host, String uriTemplate) {
+    this.method = method;
+    this.host = host;
+    this.uriTemplate = uriTemplate;
+  }
+
+  static MetricTags of(String method, String url, MetricsListener listener) {
+    String host;
+    try {
+      host = new URL(url).getHost();
+    } catch (MalformedURLException e) {
+      host = "unknown";
+    }
+    return new MetricTags(method, host, listener.uriTemplate(url));
+  }
+
+  /**
+   * The default uri template: the path of the url, without the query, with the segments that look like ids
+   * (numbers, UUIDs and long hex strings) replaced by {id}.
+   *
+   * @param url the url to get the template for
+   * @return the uri template, e.g. /users/{id}/orders for https://api.example.com/users/42/orders?page=1
+   */
+  public static String defaultUriTemplate(String url) {
+    String path;
+    try {
+      path = new URL(url).getPath();
+    } catch (MalformedURLException e) {
+      return "unknown";
+    }
+    if (path.isEmpty()) {
+      return "/";
+    }
+    String[] segments = path.split("/", -1);
+    StringBuilder template = new StringBuilder(path.length());
+    for (int i = 1; i < segments.length; i++) {
+      template.append('/').append(ID_SEGMENT.matcher(segments[i]).matches() ? "{id}" : segments[i]);
+    }
+    return template.toString();
+  }
+
+  /**
+   * @return the http method, e.g. GET
+   */
+  public String getMethod() {
+    return method;
+  }
+
+  /**
+   * @return the host name, e.g. api.example.com
+   */
+  public String getHost() {
+    return host;
+  }
+
+  /**
+   * @return the uri template, e.g. /users/{id}
+   */
+  public String getUriTemplate() {
+    return uriTemplate;
+  }
+
+  @Override
+  public String toString() {
+    return method + " " + host + uriTemplate;
+  }
+}
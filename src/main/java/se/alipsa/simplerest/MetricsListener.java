@@ -0,0 +1,54 @@
+package se.alipsa.simplerest;
+
+import java.lang.reflect.Type;
+import java.time.Duration;
+
+/**
+ * Receives the metrics of the calls made by a {@link RestClient}, see
+ * {@link RestClient#setMetricsListener(MetricsListener)}. Implement it to feed a metrics library, e.g. a Micrometer
+ * Timer tagged with the method, host, uri template and status of the call.
+ * <p>
+ * The listener is called from the thread making the call (or closing the response) so it must be thread safe and
+ * quick. Exceptions thrown by the listener are ignored.
+ * With the default listener, {@link #NONE}, the calls are not instrumented at all.
+ */
+public interface MetricsListener {
+
+  /** The default listener, disables the instrumentation */
+  MetricsListener NONE = new MetricsListener() {
+  };
+
+  /**
+   * Called when a request is done, i.e. when its response is closed or when it failed. Each attempt of a retried
+   * or hedged call is reported separately.
+   *
+   * @param metrics the timings, sizes and outcome of the request
+   */
+  default void onRequest(RequestMetrics metrics) {
+  }
+
+  /**
+   * Called when a json response has been converted into a java object, e.g. by
+   * {@link Response#getObject(Class, com.fasterxml.jackson.databind.ObjectMapper...)} or the typed get methods.
+   * For the typed get methods streaming the json from the connection the duration includes reading the body.
+   *
+   * @param tags the tags of the request the response belongs to
+   * @param type the type converted to
+   * @param duration the time the conversion took
+   * @param failure the exception thrown by the conversion or null if it succeeded
+   */
+  default void onDeserialization(MetricTags tags, Type type, Duration duration, Throwable failure) {
+  }
+
+  /**
+   * Map the url of a request to a template to keep the number of distinct tag values (and hence time series)
+   * bounded, e.g. https://api.example.com/users/42?page=1 to /users/{id}.
+   * The default is {@link MetricTags#defaultUriTemplate(String)}.
+   *
+   * @param url the url of the request
+   * @return the uri template to tag the metrics with
+   */
+  default String uriTemplate(String url) {
+    return MetricTags.defaultUriTemplate(url);
+  }
+}
@@ -0,0 +1,110 @@
+package se.alipsa.simplerest;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket limiting the rate of requests, see {@link RequestLimits}.
+ * <p>
+ * The bucket holds up to burst permits and is refilled with permitsPerSecond permits per second. It is
+ * implemented as a "generic cell rate algorithm" keeping only the time at which the bucket is full again,
+ * so acquiring a permit is a single compare and set without any locking.
+ */
+public class RateLimiter {
+
+  private final double permitsPerSecond;
+  private final int burst;
+  private final long intervalNanos;
+  private final long toleranceNanos;
+  private final long origin = System.nanoTime();
+  /** the (theoretical) time, relative to the origin, at which the bucket is full again */
+  private final AtomicLong fullAt = new AtomicLong();
+
+  /**
+   * @param permitsPerSecond the sustained rate, e.g. 10 for 10 requests per second
+   * @param burst the max number of requests that can be made at once after a quiet period
+   */
+  public RateLimiter(double permitsPerSecond, int burst) {
+    if (permitsPerSecond <= 0 || burst < 1) {
+      throw new IllegalArgumentException("permitsPerSecond must be positive and burst at least 1 but was "
+          + permitsPerSecond + " and " + burst);
+    }
+    this.permitsPerSecond = permitsPerSecond;
+    this.burst = burst;
+    intervalNanos = Math.max(1, (long) (1_000_000_000 / permitsPerSecond));
+    toleranceNanos = intervalNanos * burst;
+  }
+
+  /**
+   * @return the sustained rate in permits per second
+   */
+  public double getPermitsPerSecond() {
+    return permitsPerSecond;
+  }
+
+  /**
+   * @return the max number of permits available at once
+   */
+  public int getBurst() {
+    return burst;
+  }
+
+  /**
+   * Take a permit if one is available right away.
+   *
+   * @return true if a permit was taken, false if the rate is exceeded
+   */
+  public boolean tryAcquire() {
+    while (true) {
+      long full = fullAt.get();
+      long now = now();
+      long next = Math.max(full, now) + intervalNanos;
+      if (next - now > toleranceNanos) {
+        return false;
+      }
+      if (fullAt.compareAndSet(full, next)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Reserve a permit, the caller must wait for the duration returned before using it.
+   *
+   * @return the time to wait until the permit may be used, zero if it can be used right away
+   */
+  public Duration reserve() {
+    while (true) {
+      long full = fullAt.get();
+      long now = now();
+      long next = Math.max(full, now) + intervalNanos;
+      if (fullAt.compareAndSet(full, next)) {
+        return Duration.ofNanos(Math.max(0, next - now - toleranceNanos));
+      }
+    }
+  }
+
+  /**
+   * @return the time until a permit is available without taking it, zero if one is available now
+   */
+  public Duration timeUntilAvailable() {
+    long now = now();
+    return Duration.ofNanos(Math.max(0, Math.max(fullAt.get(), now) + intervalNanos - now - toleranceNanos));
+  }
+
+  /**
+   * Give back a permit that was taken but not used, e.g. because another limit rejected the call.
+   */
+  void refund() {
+    fullAt.addAndGet(-intervalNanos);
+  }
+
+  private long now() {
+    return System.nanoTime() - origin;
+  }
+
+  @Override
+  public String toString() {
+    return "permitsPerSecond=" + permitsPerSecond + ", burst=" + burst;
+  }
+}
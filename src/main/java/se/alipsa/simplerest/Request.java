@@ -0,0 +1,260 @@
+package se.alipsa.simplerest;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * An immutable description of a single HTTP request as handed over to a {@link HttpEngine}.
+ * The RestClient builds one of these for each call, so engines never need to know about
+ * json conversion, default headers etc.
+ */
+public final class Request {
+
+  private final String method;
+  private final String url;
+  private final Headers headers;
+  private final RequestBody body;
+  private final Duration connectTimeout;
+  private final Duration readTimeout;
+  private final Duration callTimeout;
+  private final Cancellation cancellation;
+  private final MeteredCall.Timer timer;
+  private final Tracing.CallSpan callSpan;
+
+  /**
+   * Create a request without a body.
+   *
+   * @param method the http method (see {@link RequestMethod})
+   * @param url the url for the target resource
+   * @param headers the headers to send, applied in iteration order (a later header replaces an earlier
+   *                one with the same name), may be null
+   */
+  public Request(String method, String url, Map<String, String> headers) {
+    this(method, url, headers, (RequestBody) null);
+  }
+
+  /**
+   * Create a request.
+   *
+   * @param method the http method (see {@link RequestMethod})
+   * @param url the url for the target resource
+   * @param headers the headers to send, applied in iteration order (a later header replaces an earlier
+   *                one with the same name), may be null
+   * @param body the body to send or null if there is no body
+   */
+  public Request(String method, String url, Map<String, String> headers, byte[] body) {
+    this(method, url, headers, body == null ? null : RequestBody.ofBytes(body));
+  }
+
+  /**
+   * Create a request.
+   *
+   * @param method the http method (see {@link RequestMethod})
+   * @param url the url for the target resource
+   * @param headers the headers to send, applied in iteration order (a later header replaces an earlier
+   *                one with the same name), may be null
+   * @param body the body to send or null if there is no body
+   */
+  public Request(String method, String url, Map<String, String> headers, RequestBody body) {
+    this(method, url, Headers.of(headers), body, null, null, null, null, null, null);
+  }
+
+  private Request(String method, String url, Headers headers, RequestBody body,
+                  Duration connectTimeout, Duration readTimeout, Duration callTimeout, Cancellation cancellation,
+                  MeteredCall.Timer timer, Tracing.CallSpan callSpan) {
+    this.method = method;
+    this.url = url;
+    this.headers = headers;
+    this.body = body;
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+    this.callTimeout = callTimeout;
+    this.cancellation = cancellation;
+    this.timer = timer;
+    this.callSpan = callSpan;
+  }
+
+  /**
+   * Create a copy of this request with the timeouts given.
+   *
+   * @param connectTimeout the max time to establish the connection or null to use the engine default
+   * @param readTimeout the max time to wait for data (the response headers or the next part of the body)
+   *                    or null to use the engine default
+   * @param callTimeout the max time for the whole call, from connecting until the response body is read
+   *                    (or the response is closed), or null for no limit
+   * @return a new request with the timeouts given
+   */
+  public Request withTimeouts(Duration connectTimeout, Duration readTimeout, Duration callTimeout) {
+    return new Request(method, url, headers, body, connectTimeout, readTimeout, callTimeout, cancellation, timer,
+        callSpan);
+  }
+
+  /**
+   * Create a copy of this request with the headers given.
+   *
+   * @param headers the headers to send instead of the headers of this request, may be null
+   * @return a new request with the headers given
+   */
+  public Request withHeaders(Map<String, String> headers) {
+    return new Request(method, url, Headers.of(headers), body, connectTimeout, readTimeout, callTimeout,
+        cancellation, timer, callSpan);
+  }
+
+  /**
+   * Create a copy of this request with a header set (replacing any header with the same name regardless of case)
+   * or removed.
+   *
+   * @param name the name of the header
+   * @param value the value of the header or null to remove it
+   * @return a new request with the header set or removed
+   */
+  public Request withHeader(String name, String value) {
+    return withHeaders(headers.with(name, value));
+  }
+
+  /**
+   * @return a copy of this request with the default headers given added, its own headers take precedence
+   */
+  Request withDefaultHeaders(Headers defaults) {
+    return withHeaders(defaults.withAll(headers));
+  }
+
+  /**
+   * @return a copy of this request that can be aborted with the cancellation given
+   */
+  Request withCancellation(Cancellation cancellation) {
+    return new Request(method, url, headers, body, connectTimeout, readTimeout, callTimeout, cancellation, timer,
+        callSpan);
+  }
+
+  /**
+   * @return a copy of this request with the body and the timer given
+   */
+  Request withMetering(RequestBody body, MeteredCall.Timer timer) {
+    return new Request(method, url, headers, body, connectTimeout, readTimeout, callTimeout, cancellation, timer,
+        callSpan);
+  }
+
+  /**
+   * @return a copy of this request, and of the copies made of it while it is sent, recording the trace context of
+   *     the CLIENT span it is sent in
+   */
+  Request withCallSpan(Tracing.CallSpan callSpan) {
+    return new Request(method, url, headers, body, connectTimeout, readTimeout, callTimeout, cancellation, timer,
+        callSpan);
+  }
+
+  /**
+   * @param context the trace context of the CLIENT span the request is sent in
+   */
+  void traced(TraceContext context) {
+    if (callSpan != null) {
+      callSpan.record(context);
+    }
+  }
+
+  /**
+   * @return the trace context of the CLIENT span of the last attempt to send the request or null if it was not traced
+   */
+  TraceContext getTraceContext() {
+    return callSpan == null ? null : callSpan.context();
+  }
+
+  /**
+   * Report the time spent connecting, engines call this if they can measure it.
+   *
+   * @param nanos the time spent connecting
+   */
+  void connected(long nanos) {
+    if (timer != null) {
+      timer.connected(nanos);
+    }
+  }
+
+  /**
+   * @return true if the engine should measure the time spent connecting
+   */
+  boolean isTimed() {
+    return timer != null;
+  }
+
+  /**
+   * Register the action aborting the call of this request if it is cancelled, engines call this when the
+   * way to abort the call changes (e.g. once the connection is opened).
+   *
+   * @param abort the action aborting the call
+   */
+  void onCancel(Runnable abort) {
+    if (cancellation != null) {
+      cancellation.onCancel(abort);
+    }
+  }
+
+  /**
+   * @return true if the request can be cancelled
+   */
+  boolean isCancellable() {
+    return cancellation != null;
+  }
+
+  /**
+   * @return true if the call of this request has been cancelled
+   */
+  boolean isCancelled() {
+    return cancellation != null && cancellation.isCancelled();
+  }
+
+  /**
+   * @return the http method, e.g. GET
+   */
+  public String getMethod() {
+    return method;
+  }
+
+  /**
+   * @return the url for the target resource
+   */
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * @return the request headers, an unmodifiable map ({@link Headers}) ignoring the case of the names
+   */
+  public Map<String, String> getHeaders() {
+    return headers;
+  }
+
+  /**
+   * @return the body to send or null if there is no body
+   */
+  public RequestBody getBody() {
+    return body;
+  }
+
+  /**
+   * @return the max time to establish the connection or null to use the engine default
+   */
+  public Duration getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * @return the max time to wait for data or null to use the engine default
+   */
+  public Duration getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * @return the max time for the whole call or null for no limit
+   */
+  public Duration getCallTimeout() {
+    return callTimeout;
+  }
+
+  @Override
+  public String toString() {
+    return method + " " + url;
+  }
+}
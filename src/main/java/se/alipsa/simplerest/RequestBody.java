@@ -0,0 +1,191 @@
+package se.alipsa.simplerest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The body of a request. The body is written straight to the connection, so large bodies
+ * (files, streams, big json documents) are sent without being buffered in memory.
+ * When the content length is known the body is sent in fixed length streaming mode,
+ * otherwise it is sent chunked.
+ * <p>
+ * The RestClient creates the body for you depending on the type of the payload:
+ * a CharSequence is sent as is, an InputStream, Path or ReadableByteChannel is streamed
+ * and any other object is sent as json (streamed if it is large, see {@link #ofJson(ObjectMapper, Object)}).
+ */
+public interface RequestBody {
+
+  /**
+   * @return the number of bytes in the body or -1 if unknown
+   */
+  long contentLength();
+
+  /**
+   * Write the body to the output stream. The output stream is not closed.
+   *
+   * @param out the stream to write to
+   * @throws IOException if the body cannot be written
+   */
+  void writeTo(OutputStream out) throws IOException;
+
+  /**
+   * @return true if the body can be written more than once (e.g. when a request is retried), the default is false
+   */
+  default boolean isRepeatable() {
+    return false;
+  }
+
+  /**
+   * @param content the bytes to send
+   * @return a body of the bytes with a known length
+   */
+  static RequestBody ofBytes(byte[] content) {
+    return new ByteArrayBody(content);
+  }
+
+  /**
+   * Create a body streaming the content of the input stream. The stream is closed after it has been written.
+   * Note that the body can only be written once.
+   *
+   * @param content the stream to send
+   * @param contentLength the number of bytes in the stream or -1 if unknown (the body is then sent chunked)
+   * @return a body streaming the content
+   */
+  static RequestBody ofInputStream(InputStream content, long contentLength) {
+    return new RequestBody() {
+      @Override
+      public long contentLength() {
+        return contentLength;
+      }
+
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        try (InputStream is = content) {
+          is.transferTo(out);
+        }
+      }
+    };
+  }
+
+  /**
+   * Create a body streaming the content of a file.
+   *
+   * @param file the file to send
+   * @return a body streaming the file content
+   * @throws IOException if the size of the file cannot be determined
+   */
+  static RequestBody ofPath(Path file) throws IOException {
+    long size = Files.size(file);
+    return new RequestBody() {
+      @Override
+      public long contentLength() {
+        return size;
+      }
+
+      @Override
+      public boolean isRepeatable() {
+        return true;
+      }
+
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+          WritableByteChannel target = Channels.newChannel(out);
+          long position = 0;
+          while (position < size) {
+            long written = channel.transferTo(position, size - position, target);
+            if (written <= 0) {
+              break;
+            }
+            position += written;
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Create a body streaming the content of the channel. The channel is closed after it has been written.
+   * Note that the body can only be written once.
+   *
+   * @param content the channel to send
+   * @param contentLength the number of bytes in the channel or -1 if unknown (the body is then sent chunked)
+   * @return a body streaming the channel content
+   */
+  static RequestBody ofChannel(ReadableByteChannel content, long contentLength) {
+    return new RequestBody() {
+      @Override
+      public long contentLength() {
+        return contentLength;
+      }
+
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        try (ReadableByteChannel channel = content) {
+          ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+          while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            out.write(buffer.array(), 0, buffer.limit());
+            buffer.clear();
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Create a json body. Values serializing to at most 64 KB of json are serialized up front and sent with a
+   * Content-Length, larger values are serialized while writing (sent chunked) without creating an
+   * intermediate String.
+   *
+   * @param mapper the ObjectMapper to use
+   * @param value the object to send as json
+   * @return a body of the json
+   */
+  static RequestBody ofJson(ObjectMapper mapper, Object value) {
+    return JsonBody.of(mapper, value, JsonBody.BUFFER_SIZE);
+  }
+
+  /** A body with its content in memory */
+  final class ByteArrayBody implements RequestBody {
+
+    private final byte[] content;
+
+    private ByteArrayBody(byte[] content) {
+      this.content = content;
+    }
+
+    /**
+     * @return the content of the body
+     */
+    public byte[] getContent() {
+      return content;
+    }
+
+    @Override
+    public long contentLength() {
+      return content.length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      out.write(content);
+    }
+  }
+}
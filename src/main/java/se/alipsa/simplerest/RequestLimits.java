@@ -0,0 +1,542 @@
+package se.alipsa.simplerest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Client side rate and concurrency limits, per host and for all hosts together, enable them with
+ * {@link RestClient#setRequestLimits(RequestLimits)}.
+ * <p>
+ * Rate limits are token buckets (see {@link RateLimiter}), concurrency limits cap the number of requests in flight,
+ * from sending the request until the response is closed (see {@link ConcurrencyLimiter}). Every attempt of a
+ * call, i.e. each retry and hedge request, needs a permit. What happens when no permit is available depends on
+ * the mode:
+ * <ul>
+ *   <li>BLOCK (the default): the calling thread waits up to the max wait for a permit</li>
+ *   <li>FAIL_FAST: the call fails right away with a {@link LimitExceededException}</li>
+ *   <li>ASYNC: like BLOCK but the async calls (e.g. {@link RestClient#getAsync(String)}) take the permit of their
+ *   first attempt before they are started, without occupying a thread while waiting</li>
+ * </ul>
+ * A call that cannot get a permit within the max wait fails with a {@link LimitExceededException}.
+ * <p>
+ * The with methods create new limits (with no calls in flight) so configure them before use.
+ */
+public class RequestLimits {
+
+  /** What a call does when no permit is available */
+  public enum Mode {
+    /** wait for a permit */
+    BLOCK,
+    /** fail with a LimitExceededException */
+    FAIL_FAST,
+    /** wait for a permit, async calls wait without occupying a thread */
+    ASYNC
+  }
+
+  /** the permit taken ahead of the async call running on the thread, used by its first attempt */
+  private static final ThreadLocal<Permit> ADMITTED = new ThreadLocal<>();
+
+  private final Mode mode;
+  private final Duration maxWait;
+  private final RateLimiter globalRate;
+  private final ConcurrencyLimiter globalConcurrency;
+  private final Supplier<RateLimiter> hostRate;
+  private final Supplier<ConcurrencyLimiter> hostConcurrency;
+  private final Map<String, RateLimiter> hostRates = new ConcurrentHashMap<>();
+  private final Map<String, ConcurrencyLimiter> hostConcurrencies = new ConcurrentHashMap<>();
+  private final LongAdder rejected = new LongAdder();
+
+  /**
+   * Create request limits without any limit, waiting up to 30 seconds for a permit once limits are added.
+   */
+  public RequestLimits() {
+    this(Mode.BLOCK, Duration.ofSeconds(30), null, null, null, null);
+  }
+
+  private RequestLimits(Mode mode, Duration maxWait, RateLimiter globalRate, ConcurrencyLimiter globalConcurrency,
+                        Supplier<RateLimiter> hostRate, Supplier<ConcurrencyLimiter> hostConcurrency) {
+    this.mode = mode;
+    this.maxWait = maxWait;
+    this.globalRate = globalRate;
+    this.globalConcurrency = globalConcurrency;
+    this.hostRate = hostRate;
+    this.hostConcurrency = hostConcurrency;
+  }
+
+  /**
+   * @param mode what a call does when no permit is available
+   * @param maxWait the max time to wait for a permit in the BLOCK and ASYNC modes
+   * @return new limits with the mode given
+   */
+  public RequestLimits withMode(Mode mode, Duration maxWait) {
+    return new RequestLimits(mode, maxWait, globalRate, globalConcurrency, hostRate, hostConcurrency);
+  }
+
+  /**
+   * @param permitsPerSecond the max sustained rate of requests to each host
+   * @param burst the max number of requests to a host that can be made at once
+   * @return new limits with the rate limit per host given
+   */
+  public RequestLimits withHostRate(double permitsPerSecond, int burst) {
+    new RateLimiter(permitsPerSecond, burst); // fail now on invalid arguments rather than on the first call
+    return new RequestLimits(mode, maxWait, globalRate, globalConcurrency,
+        () -> new RateLimiter(permitsPerSecond, burst), hostConcurrency);
+  }
+
+  /**
+   * @param permitsPerSecond the max sustained rate of requests to all hosts together
+   * @param burst the max number of requests that can be made at once
+   * @return new limits with the global rate limit given
+   */
+  public RequestLimits withGlobalRate(double permitsPerSecond, int burst) {
+    return new RequestLimits(mode, maxWait, new RateLimiter(permitsPerSecond, burst), globalConcurrency,
+        hostRate, hostConcurrency);
+  }
+
+  /**
+   * @param limit the max number of requests in flight to each host
+   * @return new limits with the concurrency limit per host given
+   */
+  public RequestLimits withHostConcurrency(int limit) {
+    new ConcurrencyLimiter(limit); // fail now on invalid arguments rather than on the first call
+    return new RequestLimits(mode, maxWait, globalRate, globalConcurrency,
+        hostRate, () -> new ConcurrencyLimiter(limit));
+  }
+
+  /**
+   * @param initialLimit the limit to start with
+   * @param minLimit the lowest the limit can go
+   * @param maxLimit the highest the limit can go
+   * @param latencyThreshold calls slower than this (until the response headers arrive) decrease the limit
+   * @return new limits with an adaptive concurrency limit per host
+   */
+  public RequestLimits withAdaptiveHostConcurrency(int initialLimit, int minLimit, int maxLimit,
+                                                   Duration latencyThreshold) {
+    // fail now on invalid arguments rather than on the first call
+    new ConcurrencyLimiter(initialLimit, minLimit, maxLimit, latencyThreshold);
+    return new RequestLimits(mode, maxWait, globalRate, globalConcurrency, hostRate,
+        () -> new ConcurrencyLimiter(initialLimit, minLimit, maxLimit, latencyThreshold));
+  }
+
+  /**
+   * @param limit the max number of requests in flight to all hosts together
+   * @return new limits with the global concurrency limit given
+   */
+  public RequestLimits withGlobalConcurrency(int limit) {
+    return new RequestLimits(mode, maxWait, globalRate, new ConcurrencyLimiter(limit), hostRate, hostConcurrency);
+  }
+
+  /**
+   * @return what a call does when no permit is available
+   */
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * @return the max time to wait for a permit
+   */
+  public Duration getMaxWait() {
+    return maxWait;
+  }
+
+  /**
+   * @param host the host name, e.g. api.example.com
+   * @return the rate limiter of the host or null if there is no rate limit per host
+   */
+  public RateLimiter getRateLimiter(String host) {
+    return hostRate == null ? null : hostRates.computeIfAbsent(host, h -> hostRate.get());
+  }
+
+  /**
+   * @param host the host name, e.g. api.example.com
+   * @return the concurrency limiter of the host or null if there is no concurrency limit per host
+   */
+  public ConcurrencyLimiter getConcurrencyLimiter(String host) {
+    return hostConcurrency == null ? null : hostConcurrencies.computeIfAbsent(host, h -> hostConcurrency.get());
+  }
+
+  /**
+   * @return the rate limiter for all hosts or null if there is no global rate limit
+   */
+  public RateLimiter getGlobalRateLimiter() {
+    return globalRate;
+  }
+
+  /**
+   * @return the concurrency limiter for all hosts or null if there is no global concurrency limit
+   */
+  public ConcurrencyLimiter getGlobalConcurrencyLimiter() {
+    return globalConcurrency;
+  }
+
+  /**
+   * @return the number of calls that failed because no permit was available
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  /**
+   * Take the permits needed to call the host, waiting for them unless the mode is FAIL_FAST.
+   *
+   * @return the permit to release when the call is done
+   * @throws LimitExceededException if the permits were not available (within the max wait)
+   * @throws InterruptedIOException if the thread was interrupted while waiting
+   */
+  Permit acquire(String host) throws LimitExceededException, InterruptedIOException {
+    Permit admitted = ADMITTED.get();
+    if (admitted != null && admitted.claim(this, host)) {
+      ADMITTED.remove();
+      return admitted;
+    }
+    RateLimiter hostRateLimiter = getRateLimiter(host);
+    ConcurrencyLimiter hostLimiter = getConcurrencyLimiter(host);
+    boolean globalRateTaken = false;
+    boolean hostRateTaken = false;
+    boolean globalConcurrencyTaken = false;
+    boolean acquired = false;
+    try {
+      globalRateTaken = takeRate(globalRate, host);
+      hostRateTaken = takeRate(hostRateLimiter, host);
+      globalConcurrencyTaken = takeConcurrency(globalConcurrency, host);
+      takeConcurrency(hostLimiter, host);
+      acquired = true;
+      return globalConcurrency == null && hostLimiter == null ? Permit.NONE
+          : new Permit(this, host, globalConcurrency, hostLimiter, null, null);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException ie = new InterruptedIOException("Interrupted while waiting for a permit to call " + host);
+      ie.initCause(e);
+      throw ie;
+    } finally {
+      if (!acquired) {
+        // the call is not made so give back what was taken before a later limit rejected it
+        if (globalRateTaken) {
+          globalRate.refund();
+        }
+        if (hostRateTaken) {
+          hostRateLimiter.refund();
+        }
+        if (globalConcurrencyTaken) {
+          globalConcurrency.releaseUnused();
+        }
+      }
+    }
+  }
+
+  /** @return true if a permit was taken, false if there is no limit */
+  private boolean takeRate(RateLimiter limiter, String host) throws LimitExceededException, InterruptedException {
+    if (limiter == null) {
+      return false;
+    }
+    if (mode == Mode.FAIL_FAST) {
+      if (!limiter.tryAcquire()) {
+        throw rejected("The rate limit for " + host + " is exceeded", host);
+      }
+      return true;
+    }
+    if (limiter.timeUntilAvailable().compareTo(maxWait) > 0) {
+      throw rejected("The rate limit for " + host + " is exceeded by more than " + maxWait.toMillis() + " ms", host);
+    }
+    Duration wait = limiter.reserve();
+    if (!wait.isZero()) {
+      Thread.sleep(wait.toMillis(), wait.toNanosPart() % 1_000_000);
+    }
+    return true;
+  }
+
+  /** @return true if a permit was taken, false if there is no limit */
+  private boolean takeConcurrency(ConcurrencyLimiter limiter, String host)
+      throws LimitExceededException, InterruptedException {
+    if (limiter == null) {
+      return false;
+    }
+    boolean acquired = mode == Mode.FAIL_FAST ? limiter.tryAcquire() : limiter.acquire(maxWait);
+    if (!acquired) {
+      throw rejected("The concurrency limit of " + limiter.getLimit() + " for " + host + " is reached", host);
+    }
+    return true;
+  }
+
+  private LimitExceededException rejected(String message, String host) {
+    rejected.increment();
+    return new LimitExceededException(message, host);
+  }
+
+  /**
+   * Take the permits needed to call the host without blocking a thread: the rate permits are reserved right away
+   * and the concurrency permits are taken as soon as other calls release them.
+   *
+   * @return a future completed with the permit once the call may be made, to be passed to
+   *     {@link #callAdmitted(Permit, AsyncDispatcher.RestCall)}, or failed with a LimitExceededException if the
+   *     permits were not available within the max wait
+   */
+  CompletableFuture<Permit> acquireAsync(String host) {
+    CompletableFuture<Permit> ready = new CompletableFuture<>();
+    new AsyncAcquire(host, ready).start();
+    return ready;
+  }
+
+  /**
+   * Make a call with the permit taken by {@link #acquireAsync(String)}: the first attempt of the call uses it
+   * instead of acquiring again. The permit is given back if the call did not use it, e.g. when the response was
+   * cached.
+   */
+  <T> T callAdmitted(Permit permit, AsyncDispatcher.RestCall<T> call) throws RestException {
+    ADMITTED.set(permit);
+    try {
+      return call.call();
+    } finally {
+      ADMITTED.remove();
+      permit.cancel();
+    }
+  }
+
+  /** Takes the permits of one async call, one step at a time so that no thread waits in between */
+  private final class AsyncAcquire {
+
+    private final String host;
+    private final long deadline;
+    private final CompletableFuture<Permit> ready;
+    private final RateLimiter hostRateLimiter;
+    private final ConcurrencyLimiter hostLimiter;
+    /** only accessed by the step running, the steps are handed over through the limiters and the Watchdog */
+    private boolean globalTaken;
+
+    AsyncAcquire(String host, CompletableFuture<Permit> ready) {
+      this.host = host;
+      this.ready = ready;
+      deadline = System.nanoTime() + maxWait.toNanos();
+      hostRateLimiter = getRateLimiter(host);
+      hostLimiter = getConcurrencyLimiter(host);
+    }
+
+    void start() {
+      if (Math.max(timeUntilAvailable(globalRate), timeUntilAvailable(hostRateLimiter)) > maxWait.toNanos()) {
+        ready.completeExceptionally(rejected("The rate limit for " + host + " is exceeded by more than "
+            + maxWait.toMillis() + " ms", host));
+        return;
+      }
+      long wait = Math.max(reserve(globalRate), reserve(hostRateLimiter));
+      if (wait > 0) {
+        Watchdog.schedule(this::takeConcurrency, wait);
+      } else {
+        takeConcurrency();
+      }
+    }
+
+    private void takeConcurrency() {
+      if (globalConcurrency != null && !globalTaken) {
+        if (!globalConcurrency.tryAcquire()) {
+          waitFor(globalConcurrency);
+          return;
+        }
+        globalTaken = true;
+      }
+      if (hostLimiter != null && !hostLimiter.tryAcquire()) {
+        waitFor(hostLimiter);
+        return;
+      }
+      Permit permit = new Permit(RequestLimits.this, host, globalConcurrency, hostLimiter, globalRate,
+          hostRateLimiter);
+      if (!ready.complete(permit)) {
+        permit.cancel();
+      }
+    }
+
+    private void waitFor(ConcurrencyLimiter limiter) {
+      if (System.nanoTime() - deadline > 0) {
+        if (globalTaken) {
+          globalConcurrency.releaseUnused();
+        }
+        refund(globalRate);
+        refund(hostRateLimiter);
+        ready.completeExceptionally(rejected("The concurrency limit of " + limiter.getLimit() + " for " + host
+            + " is reached for more than " + maxWait.toMillis() + " ms", host));
+        return;
+      }
+      new Recheck(limiter, deadline, this::takeConcurrency).start();
+    }
+  }
+
+  /**
+   * Runs the next step once, when the limiter releases a permit or at the deadline, whichever comes first. The
+   * other one is cancelled, so that a release is never spent on a waiter that has already given up.
+   */
+  private static final class Recheck implements Runnable {
+
+    private final ConcurrencyLimiter limiter;
+    private final long deadline;
+    private final Runnable next;
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile ScheduledFuture<?> timeout;
+
+    Recheck(ConcurrencyLimiter limiter, long deadline, Runnable next) {
+      this.limiter = limiter;
+      this.deadline = deadline;
+      this.next = next;
+    }
+
+    void start() {
+      limiter.whenAvailable(this);
+      if (!done.get()) {
+        timeout = Watchdog.schedule(this::expire, deadline - System.nanoTime() + 1);
+        if (done.get()) {
+          // released while the timeout was scheduled
+          timeout.cancel(false);
+        }
+      }
+    }
+
+    /** Run by the limiter when a permit is released */
+    @Override
+    public void run() {
+      if (done.compareAndSet(false, true)) {
+        ScheduledFuture<?> t = timeout;
+        if (t != null) {
+          t.cancel(false);
+        }
+        next.run();
+      }
+    }
+
+    private void expire() {
+      if (done.compareAndSet(false, true)) {
+        limiter.removeListener(this);
+        next.run();
+      }
+    }
+  }
+
+  private static long reserve(RateLimiter limiter) {
+    return limiter == null ? 0 : limiter.reserve().toNanos();
+  }
+
+  private static void refund(RateLimiter limiter) {
+    if (limiter != null) {
+      limiter.refund();
+    }
+  }
+
+  private static long timeUntilAvailable(RateLimiter limiter) {
+    return limiter == null ? 0 : limiter.timeUntilAvailable().toNanos();
+  }
+
+  @Override
+  public String toString() {
+    return "mode=" + mode + ", maxWait=" + maxWait + ", globalRate=" + globalRate
+        + ", globalConcurrency=" + globalConcurrency + ", rejected=" + getRejected();
+  }
+
+  /** The concurrency permits of a call, released when the response is closed */
+  static final class Permit {
+
+    static final Permit NONE = new Permit(null, null, null, null, null, null);
+
+    private final RequestLimits limits;
+    private final String hostName;
+    private final ConcurrencyLimiter global;
+    private final ConcurrencyLimiter host;
+    private final RateLimiter globalRate;
+    private final RateLimiter hostRate;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * @param globalRate the global rate limiter to give the rate permit back to if an async call does not use it
+     * @param hostRate the host rate limiter to give the rate permit back to if an async call does not use it
+     */
+    private Permit(RequestLimits limits, String hostName, ConcurrencyLimiter global, ConcurrencyLimiter host,
+                   RateLimiter globalRate, RateLimiter hostRate) {
+      this.limits = limits;
+      this.hostName = hostName;
+      this.global = global;
+      this.host = host;
+      this.globalRate = globalRate;
+      this.hostRate = hostRate;
+    }
+
+    /**
+     * @return true if the permit, taken ahead of an async call, is now used by the attempt of the call to the host
+     */
+    private boolean claim(RequestLimits attemptLimits, String attemptHost) {
+      return limits == attemptLimits && hostName.equals(attemptHost) && claimed.compareAndSet(false, true);
+    }
+
+    /** Give the permit back if it was taken ahead of an async call that did not use it */
+    private void cancel() {
+      if (this == NONE || !claimed.compareAndSet(false, true) || !released.compareAndSet(false, true)) {
+        return;
+      }
+      refund(globalRate);
+      refund(hostRate);
+      if (host != null) {
+        host.releaseUnused();
+      }
+      if (global != null) {
+        global.releaseUnused();
+      }
+    }
+
+    /**
+     * @param latencyNanos the time until the response headers arrived
+     * @param dropped true if the call failed or was throttled by the server
+     */
+    void release(long latencyNanos, boolean dropped) {
+      if (this == NONE || !released.compareAndSet(false, true)) {
+        return;
+      }
+      if (host != null) {
+        host.release(latencyNanos, dropped);
+      }
+      if (global != null) {
+        global.release(latencyNanos, dropped);
+      }
+    }
+
+    /**
+     * @return the response releasing this permit when it is closed
+     */
+    EngineResponse releaseOnClose(EngineResponse response, long latencyNanos, boolean dropped) {
+      if (this == NONE) {
+        return response;
+      }
+      return new EngineResponse() {
+        @Override
+        public int getResponseCode() {
+          return response.getResponseCode();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+          return response.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+          return response.getBody();
+        }
+
+        @Override
+        public void close() {
+          try {
+            response.close();
+          } finally {
+            release(latencyNanos, dropped);
+          }
+        }
+      };
+    }
+  }
+}
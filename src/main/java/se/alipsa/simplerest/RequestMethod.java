@@ -16,4 +16,16 @@ public class RequestMethod {
   public static final String OPTIONS = "OPTIONS";
   /** a head request */
   public static final String HEAD = "HEAD";
+
+  /**
+   * An idempotent request has the same effect on the server if it is sent once or several times, so it is
+   * safe to retry.
+   *
+   * @param method the http method
+   * @return true if the method is idempotent (GET, HEAD, OPTIONS, PUT, DELETE)
+   */
+  public static boolean isIdempotent(String method) {
+    return GET.equals(method) || HEAD.equals(method) || OPTIONS.equals(method)
+        || PUT.equals(method) || DELETE.equals(method);
+  }
 }
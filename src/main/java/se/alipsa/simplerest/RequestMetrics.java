@@ -0,0 +1,114 @@
+package se.alipsa.simplerest;
+
+import java.time.Duration;
+
+/**
+ * The timings, sizes and outcome of one request, see {@link MetricsListener#onRequest(RequestMetrics)}.
+ * <p>
+ * The phases of a request are
+ * <ol>
+ *   <li>connect: the DNS lookup, TCP connect and TLS handshake of a new connection (near zero when a kept alive
+ *   connection is reused). Only reported by engines that can measure it separately, e.g. the
+ *   {@link UrlConnectionEngine}; the {@link HttpClientEngine} includes it in the time to first byte.</li>
+ *   <li>time to first byte: from the start of the request (including connect) until the response headers
+ *   arrived</li>
+ *   <li>body read: from the arrival of the headers until the body was read to the end or the response was
+ *   closed</li>
+ * </ol>
+ */
+public final class RequestMetrics {
+
+  private final MetricTags tags;
+  private final int status;
+  private final Throwable exception;
+  private final long connectNanos;
+  private final long timeToFirstByteNanos;
+  private final long bodyReadNanos;
+  private final long totalNanos;
+  private final long bytesSent;
+  private final long bytesReceived;
+
+  RequestMetrics(MetricTags tags, int status, Throwable exception, long connectNanos, long timeToFirstByteNanos,
+                 long bodyReadNanos, long totalNanos, long bytesSent, long bytesReceived) {
+    this.tags = tags;
+    this.status = status;
+    this.exception = exception;
+    this.connectNanos = connectNanos;
+    this.timeToFirstByteNanos = timeToFirstByteNanos;
+    this.bodyReadNanos = bodyReadNanos;
+    this.totalNanos = totalNanos;
+    this.bytesSent = bytesSent;
+    this.bytesReceived = bytesReceived;
+  }
+
+  /**
+   * @return the method, host and uri template of the request
+   */
+  public MetricTags getTags() {
+    return tags;
+  }
+
+  /**
+   * @return the http status code or -1 if no response was received
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the exception that made the request fail (before or while reading the response) or null
+   */
+  public Throwable getException() {
+    return exception;
+  }
+
+  /**
+   * @return the time spent connecting or null if the engine does not report it
+   */
+  public Duration getConnectTime() {
+    return connectNanos < 0 ? null : Duration.ofNanos(connectNanos);
+  }
+
+  /**
+   * @return the time until the response headers arrived or null if no response was received
+   */
+  public Duration getTimeToFirstByte() {
+    return timeToFirstByteNanos < 0 ? null : Duration.ofNanos(timeToFirstByteNanos);
+  }
+
+  /**
+   * @return the time spent reading the body or null if the body was not read
+   */
+  public Duration getBodyReadTime() {
+    return bodyReadNanos < 0 ? null : Duration.ofNanos(bodyReadNanos);
+  }
+
+  /**
+   * @return the time from the start of the request until it was done
+   */
+  public Duration getTotalTime() {
+    return Duration.ofNanos(totalNanos);
+  }
+
+  /**
+   * @return the number of bytes of the request body sent
+   */
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  /**
+   * @return the number of bytes of the (decompressed) response body read
+   */
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  @Override
+  public String toString() {
+    return tags + " status=" + status + (exception == null ? "" : ", exception=" + exception)
+        + ", connect=" + getConnectTime() + ", timeToFirstByte=" + getTimeToFirstByte()
+        + ", bodyRead=" + getBodyReadTime() + ", total=" + getTotalTime()
+        + ", bytesSent=" + bytesSent + ", bytesReceived=" + bytesReceived;
+  }
+}
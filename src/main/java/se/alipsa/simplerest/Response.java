@@ -2,24 +2,44 @@ package se.alipsa.simplerest;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 /**
  * The Response class is a core part of the simple-rest api.
- * It contains the "raw" json string returned from the server and also the response code and header fields.
+ * It contains the "raw" json returned from the server (kept as bytes and decoded to a String on demand)
+ * and also the response code and header fields.
  * The response can
  */
 public class Response {
 
+  private static final long UNKNOWN_LENGTH = -2;
+
   private String payload;
+  /** The raw body as received, decoded into the payload String only when needed */
+  private byte[] body;
   private int responseCode;
   private Map<String, List<String>> headers;
+  /** the case-insensitive index of the headers, built on the first lookup */
+  private HeaderIndex headerIndex;
+  private long contentLength = UNKNOWN_LENGTH;
+  private Instant date;
 
   private final ObjectMapper objectMapper;
+  private MetricsListener metricsListener = MetricsListener.NONE;
+  private MetricTags metricTags;
 
   /**
    * Default constructor, will create a vanilla ObjectMapper for use in subsequent calls.
@@ -42,6 +62,44 @@ public class Response {
     objectMapper = prefObjectMapper.length > 0 ? prefObjectMapper[0] : new ObjectMapper();
   }
 
+  /**
+   * Creates a response backed by the raw (UTF-8) body, the payload String is decoded on first access.
+   *
+   * @param responseCode the HTTP status code, e.g. 200 for OK etc.
+   * @param headers a map of the HTTP Header content
+   * @param body the raw content of the response
+   * @param objectMapper the Object Mapper to use
+   */
+  Response(int responseCode, Map<String, List<String>> headers, byte[] body, ObjectMapper objectMapper) {
+    this.body = body;
+    this.responseCode = responseCode;
+    this.headers = headers;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * @return a new response sharing the (unmodified) body and headers of this one
+   */
+  Response copy() {
+    Response copy = new Response(responseCode, headers, body, objectMapper);
+    copy.payload = payload;
+    copy.headerIndex = headerIndex;
+    copy.metricsListener = metricsListener;
+    copy.metricTags = metricTags;
+    return copy;
+  }
+
+  /**
+   * Report the json conversions of this response to the listener.
+   *
+   * @return this response
+   */
+  Response metered(MetricsListener listener, MetricTags tags) {
+    metricsListener = listener;
+    metricTags = tags;
+    return this;
+  }
+
   /**
    * Converts the json payload into a Java object
    * @param returnClass the type of Java Object to return
@@ -52,7 +110,18 @@ public class Response {
    */
   public <T> T getObject(Class<T> returnClass, ObjectMapper... customMapper) throws JsonProcessingException {
     ObjectMapper mapper = customMapper.length > 0 ? customMapper[0] : objectMapper;
-    return mapper.readValue(getPayload(), returnClass);
+    JavaType type = mapper.constructType(returnClass);
+    long start = metricsListener == MetricsListener.NONE ? 0 : System.nanoTime();
+    T value;
+    try {
+      byte[] raw = body;
+      value = raw != null ? readBytes(mapper, raw, type) : mapper.readValue(getPayload(), type);
+    } catch (JsonProcessingException | RuntimeException e) {
+      deserialized(type, start, e);
+      throw e;
+    }
+    deserialized(type, start, null);
+    return value;
   }
 
   /**
@@ -67,7 +136,18 @@ public class Response {
     ObjectMapper mapper = customMapper.length > 0 ? customMapper[0] : objectMapper;
     // does not work, content is returned as List<Map<String,String>>:
     // return mapper.readValue(getPayload(), new TypeReference<List<T>>() {});
-    return mapper.readValue(getPayload(), mapper.getTypeFactory().constructCollectionType(List.class, returnClass));
+    var type = mapper.getTypeFactory().constructCollectionType(List.class, returnClass);
+    long start = metricsListener == MetricsListener.NONE ? 0 : System.nanoTime();
+    List<T> value;
+    try {
+      byte[] raw = body;
+      value = raw != null ? readBytes(mapper, raw, type) : mapper.readValue(getPayload(), type);
+    } catch (JsonProcessingException | RuntimeException e) {
+      deserialized(type, start, e);
+      throw e;
+    }
+    deserialized(type, start, null);
+    return value;
   }
 
   /**
@@ -81,7 +161,57 @@ public class Response {
    */
   public <T> T getForType(TypeReference<T> type, ObjectMapper... customMapper) throws JsonProcessingException {
     ObjectMapper mapper = customMapper.length > 0 ? customMapper[0] : objectMapper;
-    return mapper.reader().forType(type).readValue(getPayload());
+    JavaType javaType = mapper.getTypeFactory().constructType(type);
+    long start = metricsListener == MetricsListener.NONE ? 0 : System.nanoTime();
+    T value;
+    try {
+      byte[] raw = body;
+      value = raw != null ? readBytes(mapper, raw, javaType) : mapper.readerFor(javaType).readValue(getPayload());
+    } catch (JsonProcessingException | RuntimeException e) {
+      deserialized(javaType, start, e);
+      throw e;
+    }
+    deserialized(javaType, start, null);
+    return value;
+  }
+
+  /**
+   * Converts the json payload with the reader given, reporting the conversion like the public getters do.
+   */
+  <T> T readValue(ObjectReader reader) throws IOException {
+    long start = metricsListener == MetricsListener.NONE ? 0 : System.nanoTime();
+    T value;
+    try {
+      value = reader.readValue(getPayloadBytes());
+    } catch (IOException | RuntimeException e) {
+      deserialized(reader.getValueType(), start, e);
+      throw e;
+    }
+    deserialized(reader.getValueType(), start, null);
+    return value;
+  }
+
+  private void deserialized(JavaType type, long start, Throwable failure) {
+    if (metricsListener == MetricsListener.NONE) {
+      return;
+    }
+    try {
+      metricsListener.onDeserialization(metricTags, type, Duration.ofNanos(System.nanoTime() - start), failure);
+    } catch (RuntimeException e) {
+      // a broken listener must not break the conversion
+    }
+  }
+
+  private static <T> T readBytes(ObjectMapper mapper, byte[] raw, JavaType type)
+      throws JsonProcessingException {
+    try {
+      return mapper.readValue(raw, type);
+    } catch (JsonProcessingException e) {
+      throw e;
+    } catch (IOException e) {
+      // cannot happen when reading from a byte array
+      throw new IllegalStateException(e);
+    }
   }
 
   /**
@@ -89,15 +219,29 @@ public class Response {
    * @return the "raw" content of the response
    */
   public String getPayload() {
+    if (payload == null && body != null) {
+      payload = new String(body, StandardCharsets.UTF_8);
+    }
     return payload;
   }
 
+  /**
+   * @return the "raw" content of the response as (UTF-8) bytes or null if there is no payload
+   */
+  public byte[] getPayloadBytes() {
+    if (body == null && payload != null) {
+      return payload.getBytes(StandardCharsets.UTF_8);
+    }
+    return body;
+  }
+
   /**
    * Change the raw content
    * @param payload the payload to replace
    */
   public void setPayload(String payload) {
     this.payload = payload;
+    this.body = null;
   }
 
   /**
@@ -127,32 +271,95 @@ public class Response {
    */
   public void setHeaders(Map<String, List<String>> headers) {
     this.headers = headers;
+    headerIndex = null;
+    contentLength = UNKNOWN_LENGTH;
+    date = null;
   }
 
   /**
    * Most of the time you do not deal with multiple headers of the same value being set
    * This is a convenience method to quickly get the header value.
-   * @param headerName the name of the header
+   * @param headerName the name of the header, in any case
    * @return the value of the header with the name mathing the param
    */
   public String getHeader(String headerName) {
-    if (headers == null) {
-      return null;
-    }
-    List<String> values = headers.get(headerName);
-    if (values == null) {
-      for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
-        String key = entry.getKey();
-        if (key != null && key.equalsIgnoreCase(headerName)) {
-          values = entry.getValue();
-          break;
+    return headerIndex().value(headerName);
+  }
+
+  /**
+   * @param headerName the name of the header, in any case
+   * @return all the values of the header or an empty list if there is no such header
+   */
+  public List<String> getHeaderValues(String headerName) {
+    List<String> values = headerIndex().values(headerName);
+    return values == null ? List.of() : values;
+  }
+
+  /**
+   * @return the status line, e.g. HTTP/1.1 200 OK, or null if the engine does not report it
+   */
+  public String getStatusLine() {
+    return headerIndex().statusLine();
+  }
+
+  /**
+   * @return the value of the Content-Length header or -1 if it is missing or invalid
+   */
+  public long getContentLength() {
+    if (contentLength == UNKNOWN_LENGTH) {
+      long length = -1;
+      String value = getHeader(CommonHeaders.CONTENT_LENGTH);
+      if (value != null) {
+        try {
+          length = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+          // invalid, same as missing
         }
       }
+      contentLength = length < 0 ? -1 : length;
     }
-    if (values == null || values.isEmpty()) {
-      return null;
+    return contentLength;
+  }
+
+  /**
+   * @return the value of the Content-Type header, e.g. application/json; charset=utf-8, or null if missing
+   */
+  public String getContentType() {
+    return getHeader(CommonHeaders.CONTENT_TYPE);
+  }
+
+  /**
+   * @return the value of the ETag header, e.g. "33a64df5", or null if missing
+   */
+  public String getETag() {
+    return getHeader(CommonHeaders.ETAG);
+  }
+
+  /**
+   * @return the value of the Date header or null if it is missing or invalid
+   */
+  public Instant getDate() {
+    if (date == null) {
+      String value = getHeader(CommonHeaders.DATE);
+      if (value == null) {
+        return null;
+      }
+      try {
+        date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+      } catch (DateTimeParseException e) {
+        return null;
+      }
+    }
+    return date;
+  }
+
+  private HeaderIndex headerIndex() {
+    HeaderIndex index = headerIndex;
+    if (index == null) {
+      index = headers == null || headers.isEmpty() ? HeaderIndex.EMPTY : new HeaderIndex(headers);
+      headerIndex = index;
     }
-    return values.get(0);
+    return index;
   }
 
   @Override
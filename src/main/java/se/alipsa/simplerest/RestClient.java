@@ -1,21 +1,58 @@
 package se.alipsa.simplerest;
 
 import static se.alipsa.simplerest.CommonHeaders.ACCEPT;
+import static se.alipsa.simplerest.CommonHeaders.ACCEPT_ENCODING;
+import static se.alipsa.simplerest.CommonHeaders.AUTHORIZATION;
+import static se.alipsa.simplerest.CommonHeaders.CONTENT_ENCODING;
+import static se.alipsa.simplerest.CommonHeaders.CONTENT_RANGE;
+import static se.alipsa.simplerest.CommonHeaders.CACHE_CONTROL;
 import static se.alipsa.simplerest.CommonHeaders.CONTENT_TYPE;
+import static se.alipsa.simplerest.CommonHeaders.IF_MODIFIED_SINCE;
+import static se.alipsa.simplerest.CommonHeaders.IF_NONE_MATCH;
+import static se.alipsa.simplerest.CommonHeaders.RANGE;
+import static se.alipsa.simplerest.CommonHeaders.RETRY_AFTER;
 import static se.alipsa.simplerest.RequestMethod.*;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 import java.io.*;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import javax.net.ssl.HttpsURLConnection;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -29,10 +66,42 @@ import nl.altindag.ssl.SSLFactory;
  */
 public class RestClient {
 
+  private static final byte[] EMPTY_BODY = new byte[0];
+  private static final Headers ACCEPT_JSON = Headers.of(ACCEPT, MediaType.APPLICATION_JSON.getValue());
+  private static final Headers CONTENT_TYPE_JSON = Headers.of(CONTENT_TYPE, MediaType.APPLICATION_JSON.getValue());
+  private static final Headers CONTENT_TYPE_OCTET_STREAM =
+      Headers.of(CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM.getValue());
+  /** The buffer size used when streaming content to a channel */
+  private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
   private final ObjectMapper mapper;
+  private final SSLContext sslContext;
   SSLSocketFactory sslSocketFactory;
+  private HttpEngine engine;
+  private final AsyncDispatcher asyncDispatcher;
+  private volatile boolean acceptCompressed = true;
+  private volatile int requestCompressionThreshold = -1;
+  private volatile HttpCache httpCache;
+  private volatile boolean coalesceRequests;
+  private final SingleFlight singleFlight;
+  private volatile Duration connectTimeout;
+  private volatile Duration readTimeout;
+  private volatile Duration callTimeout;
+  private volatile RetryPolicy retryPolicy;
+  private final RetryStats retryStats;
+  private volatile CircuitBreaker circuitBreaker;
+  private volatile HedgePolicy hedgePolicy;
+  private final HedgeStats hedgeStats;
+  private volatile RequestLimits requestLimits;
+  private volatile MetricsListener metricsListener = MetricsListener.NONE;
+  private volatile List<Interceptor> interceptors = List.of();
+  private volatile TokenProvider tokenProvider;
+  private volatile Headers defaultHeaders = Headers.EMPTY;
+  private volatile Tracing tracing;
+  /** the listener attached to the responses: the metrics listener, wrapped when tracing */
+  private volatile MetricsListener responseListener = MetricsListener.NONE;
 
-  private SSLSocketFactory getTrustAllSSLSocketFactory()
+  private SSLContext getTrustAllSSLContext()
       throws NoSuchAlgorithmException, KeyManagementException {
     // Create a trust manager that does not validate certificate chains
     TrustManager[] trustAllCertManagers = new TrustManager[]{
@@ -50,7 +119,7 @@ public class RestClient {
     };
     SSLContext sc = SSLContext.getInstance("SSL");
     sc.init(null, trustAllCertManagers, new java.security.SecureRandom());
-    return sc.getSocketFactory();
+    return sc;
   }
 
   /**
@@ -79,428 +148,1790 @@ public class RestClient {
     this.mapper = mapper;
     try {
       if (trustAllCertManagers.length > 0 && trustAllCertManagers[0]) {
-        sslSocketFactory = getTrustAllSSLSocketFactory();
+        sslContext = getTrustAllSSLContext();
       } else {
-        sslSocketFactory = SSLFactory.builder().withDefaultTrustMaterial() // JDK trusted CA's
+        sslContext = SSLFactory.builder().withDefaultTrustMaterial() // JDK trusted CA's
             .withSystemTrustMaterial()  // OS trusted CA's
-            .build().getSslSocketFactory();
+            .build().getSslContext();
       }
     } catch (NoSuchAlgorithmException | KeyManagementException e) {
       throw new RestException("Failed to set up SSL socket factory", e);
     }
+    sslSocketFactory = sslContext.getSocketFactory();
+    engine = new UrlConnectionEngine(sslSocketFactory);
+    asyncDispatcher = new AsyncDispatcher();
+    singleFlight = new SingleFlight();
+    retryStats = new RetryStats();
+    hedgeStats = new HedgeStats();
+  }
+
+  /** Creates a client sharing everything with the one given */
+  private RestClient(RestClient other) {
+    mapper = other.mapper;
+    sslContext = other.sslContext;
+    sslSocketFactory = other.sslSocketFactory;
+    engine = other.engine;
+    asyncDispatcher = other.asyncDispatcher;
+    acceptCompressed = other.acceptCompressed;
+    requestCompressionThreshold = other.requestCompressionThreshold;
+    httpCache = other.httpCache;
+    coalesceRequests = other.coalesceRequests;
+    // the key of a coalesced call does not cover the default headers, interceptors etc. so it is not shared
+    singleFlight = new SingleFlight();
+    connectTimeout = other.connectTimeout;
+    readTimeout = other.readTimeout;
+    callTimeout = other.callTimeout;
+    retryPolicy = other.retryPolicy;
+    retryStats = other.retryStats;
+    circuitBreaker = other.circuitBreaker;
+    hedgePolicy = other.hedgePolicy;
+    hedgeStats = other.hedgeStats;
+    requestLimits = other.requestLimits;
+    metricsListener = other.metricsListener;
+    tracing = other.tracing;
+    responseListener = other.responseListener;
+    interceptors = other.interceptors;
+    tokenProvider = other.tokenProvider;
+    defaultHeaders = other.defaultHeaders;
   }
 
   /**
-   * Although not RESTful, streaming raw images is commonly encountered in REST applications in the wild.
-   * This method checks if the url looks like it is serving an image
-   *
-   * @param urlString the url to verify
-   * @return true if the url exists and if the content type claims it to be an image otherwise false
+   * @return the SSL context used for https connections, useful when creating an engine for this client
    */
-  public boolean urlExistsAndIsImage(String urlString) {
-    try {
-      URL url = new URL(urlString);
-      HttpURLConnection conn = openConnection(url);
-      conn.setRequestMethod(GET);
-      conn.connect();
-      String contentType = conn.getContentType();
-      boolean result = conn.getResponseCode() == 200 && contentType != null && contentType.startsWith("image");
-      conn.disconnect();
-      return result;
-    } catch (IOException | RestException e) {
-      return false;
-    }
+  public SSLContext getSslContext() {
+    return sslContext;
   }
 
   /**
-   * Encode the binary content that the url is pointing to into a Base64 string.
-   *
-   * @param urlString the resource
-   * @return a base 64 encoded string
-   * @throws RestException if something goes wrong
+   * @return the engine used to execute the requests
    */
-  public String getContentAsBase64(String urlString) throws RestException {
-    return Base64.getEncoder().encodeToString(getContentAsBytes(urlString));
+  public HttpEngine getEngine() {
+    return engine;
   }
 
   /**
-   * Fetch the binary content that the url is pointing to into a byte[].
+   * Change the engine used to execute the requests. The default is the {@link UrlConnectionEngine}.
+   * To use HTTP/2 do
+   * <code>restClient.setEngine(new HttpClientEngine(restClient.getSslContext()));</code>
    *
-   * @param urlString the resource
-   * @return a byte[] of the content
-   * @throws RestException if something goes wrong
+   * @param engine the engine to use
    */
-  public byte[] getContentAsBytes(String urlString) throws RestException {
-    HttpURLConnection conn = null;
-    try {
-      URL url = new URL(urlString);
-      conn = openConnection(url);
-      conn.setRequestMethod(GET);
-      conn.connect();
-      int responseCode = conn.getResponseCode();
-      if (responseCode != 200) {
-        String errorBody = readErrorBody(conn);
-        if (!errorBody.isEmpty()) {
-          throw new RestException("GET call to " + urlString + " failed: HTTP error code = "
-              + responseCode + ", body: " + errorBody.trim());
-        }
-        throw new RestException("GET call to " + urlString + " failed: HTTP error code = " + responseCode);
-      }
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+  public void setEngine(HttpEngine engine) {
+    this.engine = engine;
+  }
 
-      try (InputStream is = conn.getInputStream()) {
-        byte[] byteChunk = new byte[4096];
-        int n;
-        while ((n = is.read(byteChunk)) > 0) {
-          baos.write(byteChunk, 0, n);
-        }
-      }
-      return baos.toByteArray();
-    }
-    catch (IOException e) {
-      throw new RestException("Failed to get content as bytes from " + urlString, e);
-    } finally {
-      if (conn != null) {
-        conn.disconnect();
-      }
-    }
+  /**
+   * @return true if compressed responses are requested and transparently decompressed (the default)
+   */
+  public boolean isAcceptCompressed() {
+    return acceptCompressed;
   }
 
   /**
-   * Executes a HTTP GET request.
+   * Control the negotiation of compressed responses. When enabled, an Accept-Encoding: gzip, deflate header
+   * is sent (unless the request already has an Accept-Encoding header) and the response body is decompressed
+   * while it is read based on the Content-Encoding header. Note that the Content-Length header of a
+   * compressed response is the length of the compressed content.
    *
-   * @param urlString the url for the target resource
-   * @param acceptType optional parameter if you want to set something other than application/json (you should not have to)
-   * @return a response object with the header, body and response code
-   * @throws RestException if something goes wrong
+   * @param acceptCompressed true to request compressed responses, false to not send an Accept-Encoding header
    */
-  public Response get(String urlString, String... acceptType) throws RestException {
-    return get(urlString, null, acceptType);
+  public void setAcceptCompressed(boolean acceptCompressed) {
+    this.acceptCompressed = acceptCompressed;
   }
 
   /**
-   * Executes a HTTP GET request.
+   * @return the min size in bytes of a post or put body for it to be gzip compressed, -1 if disabled
+   */
+  public int getRequestCompressionThreshold() {
+    return requestCompressionThreshold;
+  }
+
+  /**
+   * Gzip compress the body of post and put requests larger than the threshold. Json bodies are serialized up
+   * front up to the threshold to know their size, other bodies of unknown size (e.g. an InputStream) are always
+   * compressed when enabled.
+   * The server must support Content-Encoding: gzip for requests. Disabled by default.
    *
-   * @param urlString the url for the target resource
-   * @param headers a Map of the headers to add to the request
-   * @param acceptType optional parameter if you want to set something other than application/json (you should not have to)
-   * @return a response object with the header, body and response code
-   * @throws RestException if something goes wrong
+   * @param requestCompressionThreshold the min size in bytes of the body, -1 to disable request compression
    */
-  public Response get(String urlString, Map<String, String> headers, String... acceptType) throws RestException {
-    return get(urlString, null, headers, acceptType);
+  public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+    this.requestCompressionThreshold = requestCompressionThreshold;
   }
 
   /**
-   * Executes a HTTP GET request.
+   * @return the cache of GET responses or null if responses are not cached (the default)
+   */
+  public HttpCache getHttpCache() {
+    return httpCache;
+  }
+
+  /**
+   * Cache the responses of GET requests (without a payload) according to their caching headers,
+   * e.g. <code>restClient.setHttpCache(new HttpCache(10 * 1024 * 1024));</code>
+   * A request with a Cache-Control: no-cache header always asks the server, revalidating the cached entry if any.
+   * Requests sent with credentials (an Authorization header or a token provider) are not cached, nor are
+   * Cache-Control: private responses, since the cache may be shared by clients calling as different users.
+   * Streaming and download methods (getStream, getContentToPath etc.) are not cached.
    *
-   * @param urlString the url for the target resource
-   * @param payload the content Java object to send to the server as json (json conversion is done for you).
-   *                Note: it is generally a BAD idea to send a payload with a get request. The Http 1.1 spec says:
-   *                "A payload within a GET request message has no defined semantics;
-   *                sending a payload body on a GET request might cause some existing implementations to reject the request."
-   * @param headers a Map of the headers to add to the request
-   * @param acceptType optional parameter if you want to set something other than application/json (you should not have to)
-   * @return a response object with the header, body and response code
-   * @throws RestException if something goes wrong
+   * @param httpCache the cache to use or null to disable caching
    */
-  public Response get(String urlString, Object payload, Map<String, String> headers, String... acceptType) throws RestException {
-    String accept = acceptType.length > 0 ? acceptType[0] : MediaType.APPLICATION_JSON.getValue();
-    HttpURLConnection conn = null;
-    try {
-      URL url = new URL(urlString);
-      conn = openConnection(url);
-      conn.setRequestMethod(GET);
-      conn.setRequestProperty(ACCEPT, accept);
-      if (headers != null) {
-        headers.forEach(conn::setRequestProperty);
-      }
-      if (payload != null) {
-        if (headers == null || !headers.containsKey(CONTENT_TYPE)) {
-          conn.setRequestProperty(CONTENT_TYPE, MediaType.APPLICATION_JSON.getValue());
-        }
-        conn.setDoOutput(true);
-        String input;
-        if (payload instanceof CharSequence) {
-          input = String.valueOf(payload);
-        } else {
-          input = mapper.writeValueAsString(payload);
-        }
-        conn.connect();
-        try (OutputStream os = conn.getOutputStream()) {
-          os.write(input.getBytes(StandardCharsets.UTF_8));
-          os.flush();
-        }
-      } else {
-        conn.connect();
-      }
-      int responseCode = conn.getResponseCode();
-      var responseHeaders = conn.getHeaderFields();
-      if (responseCode >= 400) {
-        String errorBody = readErrorBody(conn);
-        if (!errorBody.isEmpty()) {
-          throw new RestException("Failed to call GET on " + urlString + ": HTTP error code = "
-              + responseCode + ", body: " + errorBody.trim());
-        }
-        throw new RestException("Failed to call GET on " + urlString + ": HTTP error code = " + responseCode);
-      }
-      String body = readAnyBody(conn);
-      return new Response(body, responseCode, responseHeaders, mapper);
-    } catch (IOException e) {
-      throw new RestException("Failed to call GET on " + urlString, e);
-    } finally {
-      if (conn != null) {
-        conn.disconnect();
-      }
-    }
+  public void setHttpCache(HttpCache httpCache) {
+    this.httpCache = httpCache;
   }
 
   /**
-   * Executes a HTTP POST request.
+   * @return the max time to establish a connection or null if the engine default is used (the default)
+   */
+  public Duration getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * Set the max time to establish a connection, a {@link RestTimeoutException} is thrown if it expires.
+   * The {@link HttpClientEngine} does not support a connect timeout per request, set it on its HttpClient.
    *
-   * @param urlString the url for the target resource
-   * @param payload the content Java object to send to the server as json (json conversion is done for you)
-   * @return a response object with the header, body and response code
-   * @throws RestException if something goes wrong
+   * @param connectTimeout the connect timeout or null to use the engine default (no timeout for the
+   *                       HttpURLConnection engine)
    */
-  public Response post(String urlString, Object payload) throws RestException {
-    return post(urlString, payload, null);
+  public void setConnectTimeout(Duration connectTimeout) {
+    this.connectTimeout = connectTimeout;
   }
 
   /**
-   * Executes a HTTP POST request.
+   * @return the max time to wait for data from the server or null if the engine default is used (the default)
+   */
+  public Duration getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * Set the max time to wait for data from the server, i.e. for the response headers and between the parts
+   * of the response body. A {@link RestTimeoutException} is thrown if it expires.
    *
-   * @param urlString the url for the target resource
-   * @param payload the content Java object to send to the server as json (json conversion is done for you)
-   * @param requestHeaders  Map of the headers to add to the request
-   * @return a response object with the header, body and response code
-   * @throws RestException if something goes wrong
+   * @param readTimeout the read timeout or null to use the engine default (no timeout for both engines)
    */
-  public Response post(String urlString, Object payload, Map<String, String> requestHeaders) throws RestException {
-    return putPost(urlString, payload, requestHeaders, POST);
+  public void setReadTimeout(Duration readTimeout) {
+    this.readTimeout = readTimeout;
   }
 
+  /**
+   * @return the max time of a whole call or null if there is no limit (the default)
+   */
+  public Duration getCallTimeout() {
+    return callTimeout;
+  }
 
   /**
-   * Executes a HTTP PUT request.
+   * Set the deadline of a call, i.e. the max time from connecting, through sending the request, until the
+   * response body has been read. When it expires the connection is aborted and a {@link RestTimeoutException}
+   * is thrown. Note that the streaming methods (getStream, getContentToPath etc.) read the body within
+   * the deadline as well.
    *
-   * @param urlString the url for the target resource
-   * @param payload the content Java object to send to the server as json (json conversion is done for you)
-   * @return a response object with the header, body and response code
-   * @throws RestException if something goes wrong
+   * @param callTimeout the call timeout or null for no limit
    */
-  public Response put(String urlString, Object payload) throws RestException {
-    return put(urlString, payload, null);
+  public void setCallTimeout(Duration callTimeout) {
+    this.callTimeout = callTimeout;
   }
 
   /**
-   * Executes a HTTP PUT request.
+   * Create a client using other timeouts for the calls that need them, e.g.
+   * <code>restClient.withTimeouts(null, null, Duration.ofMillis(200)).get(url)</code>.
+   * The new client shares the engine, the object mapper, the cache and the async executor (and max in-flight
+   * limit) with this client and copies the other settings; later changes to this client are not reflected.
    *
-   * @param urlString the url for the target resource
-   * @param payload the content Java object to send to the server as json (json conversion is done for you)
-   * @param requestHeaders  Map of the headers to add to the request
-   * @return a response object with the header, body and response code
-   * @throws RestException if something goes wrong
+   * @param connectTimeout the connect timeout or null to use the engine default
+   * @param readTimeout the read timeout or null to use the engine default
+   * @param callTimeout the call timeout or null for no limit
+   * @return a new client with the timeouts given
    */
-  public Response put(String urlString, Object payload, Map<String, String> requestHeaders) throws RestException {
-    return putPost(urlString, payload, requestHeaders, PUT);
+  public RestClient withTimeouts(Duration connectTimeout, Duration readTimeout, Duration callTimeout) {
+    RestClient client = new RestClient(this);
+    client.connectTimeout = connectTimeout;
+    client.readTimeout = readTimeout;
+    client.callTimeout = callTimeout;
+    return client;
   }
 
   /**
-   * Executes a HTTP DELETE request.
+   * @return the policy deciding which failed calls are retried or null if calls are not retried (the default)
+   */
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * Retry failed calls according to the policy, e.g.
+   * <code>restClient.setRetryPolicy(new RetryPolicy(3, Duration.ofMillis(100), Duration.ofSeconds(2)));</code>
+   * The attempts share the call timeout (if set): each attempt gets the time left of it and no retry is made
+   * once the time left is shorter than the delay before the retry.
    *
-   * @param urlString the url for the target resource
-   * @return a Response containing headers and status code and, possibly, the body content
-   * @throws RestException if something goes wrong
+   * @param retryPolicy the policy to use or null to disable retries
    */
-  public Response delete(String urlString) throws RestException {
-    return delete(urlString, null);
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
   }
 
   /**
-   * Executes a HTTP DELETE request.
+   * @return counters of the retries made by this client, per host
+   */
+  public RetryStats getRetryStats() {
+    return retryStats;
+  }
+
+  /**
+   * @return the circuit breaker failing calls to unhealthy hosts fast or null if there is none (the default)
+   */
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Fail calls to a host fast with a {@link CircuitBreakerOpenException} while its circuit is open, e.g.
+   * <code>restClient.setCircuitBreaker(new CircuitBreaker().withOpenDuration(Duration.ofSeconds(10), 2));</code>
+   * Each attempt of a retried call counts as a call.
    *
-   * @param urlString the url for the target resource
-   * @param requestHeaders  Map of the headers to add to the request
-   * @return a Response containing headers and status code and, possibly, the body content
-   * @throws RestException if something goes wrong
+   * @param circuitBreaker the circuit breaker to use or null to disable it
    */
-  public Response delete(String urlString, Map<String, String> requestHeaders) throws RestException {
-    HttpURLConnection conn = null;
-    try {
-      URL url = new URL(urlString);
-      conn = openConnection(url);
-      conn.setDoOutput(false);
-      conn.setRequestMethod(DELETE);
-      if (requestHeaders == null || !requestHeaders.containsKey(CONTENT_TYPE)) {
-        conn.setRequestProperty(CONTENT_TYPE, MediaType.APPLICATION_JSON.getValue());
-      }
-      if (requestHeaders != null) {
-        requestHeaders.forEach(conn::setRequestProperty);
-      }
-      conn.connect();
-      int responseCode = conn.getResponseCode();
-      var headers = conn.getHeaderFields();
+  public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
 
-      try {
-        String body = readAnyBody(conn);
-        return new Response(body, responseCode, headers, mapper);
-      } catch (IOException e) {
-        return new Response("", responseCode, headers, mapper);
-      }
-    } catch (IOException e) {
-      throw new RestException("Failed to call DELETE on " + urlString, e);
-    } finally {
-      if (conn != null) {
-        conn.disconnect();
-      }
-    }
+  /**
+   * @return the policy deciding when GET and HEAD calls are hedged or null if calls are not hedged (the default)
+   */
+  public HedgePolicy getHedgePolicy() {
+    return hedgePolicy;
   }
 
   /**
-   * Executes a HTTP HEAD request.
+   * Hedge slow GET and HEAD calls: if the response has not arrived within the hedge delay an identical request
+   * is sent and the first response is used, e.g.
+   * <code>restClient.setHedgePolicy(new HedgePolicy(Duration.ofMillis(50), 0.05).withPercentile(0.95));</code>
+   * The calls run on the async executor (see {@link #setAsyncExecutor(Executor)}). Only use this for servers where
+   * sending a request twice is harmless.
    *
-   * @param urlString the url for the target resource
-   * @return a Response containing headers and status code, no body content (there SHOULD not be any)
-   * @throws RestException if something goes wrong
+   * @param hedgePolicy the policy to use or null to disable hedging
    */
-  public Response head(String urlString) throws RestException {
-    return head(urlString, null);
+  public void setHedgePolicy(HedgePolicy hedgePolicy) {
+    this.hedgePolicy = hedgePolicy;
   }
 
   /**
-   * Executes a HTTP HEAD request.
+   * @return counters of the hedge requests made by this client and how often they won
+   */
+  public HedgeStats getHedgeStats() {
+    return hedgeStats;
+  }
+
+  /**
+   * @return the rate and concurrency limits of the calls or null if calls are not limited (the default)
+   */
+  public RequestLimits getRequestLimits() {
+    return requestLimits;
+  }
+
+  /**
+   * Limit the rate and concurrency of the calls per host and/or in total, e.g.
+   * <code>restClient.setRequestLimits(new RequestLimits().withHostRate(10, 5).withHostConcurrency(4));</code>
+   * Calls exceeding the limits wait for a permit or fail with a {@link LimitExceededException}
+   * depending on the {@link RequestLimits.Mode}.
    *
-   * @param urlString the url for the target resource
-   * @param requestHeaders  Map of the headers to add to the request
-   * @return a Response containing headers and status code, no body content (there SHOULD not be any)
-   * @throws RestException if something goes wrong
+   * @param requestLimits the limits to use or null to disable them
    */
-  public Response head(String urlString, Map<String, String> requestHeaders) throws RestException {
-    return headersRequest(urlString, requestHeaders, HEAD);
+  public void setRequestLimits(RequestLimits requestLimits) {
+    this.requestLimits = requestLimits;
   }
 
   /**
-   * Executes a HTTP OPTIONS request.
+   * @return the listener receiving the metrics of the calls, {@link MetricsListener#NONE} by default
+   */
+  public MetricsListener getMetricsListener() {
+    return metricsListener;
+  }
+
+  /**
+   * Report the timings, sizes and outcome of each request, and the time spent converting json responses,
+   * to the listener given.
    *
-   * @param urlString the url for the target resource
-   * @return a Response containing headers and status code, no body content (there SHOULD not be any)
-   * @throws RestException @throws RestException if something goes wrong
+   * @param metricsListener the listener or null (or {@link MetricsListener#NONE}) to disable the instrumentation
    */
-  public Response options(String urlString) throws RestException {
-    return options(urlString, null);
+  public void setMetricsListener(MetricsListener metricsListener) {
+    this.metricsListener = metricsListener == null ? MetricsListener.NONE : metricsListener;
+    updateResponseListener();
   }
 
   /**
-   * Executes a HTTP OPTIONS request.
+   * @return the tracing of the calls or null if calls are not traced (the default)
+   */
+  public Tracing getTracing() {
+    return tracing;
+  }
+
+  /**
+   * Trace the calls: each request gets a client span and propagates its trace context in the traceparent
+   * and tracestate headers, json conversions get spans of their own, e.g.
+   * <code>restClient.setTracing(new Tracing(exporter).withSampleRatio(0.1));</code>
    *
-   * @param urlString the url for the target resource
-   * @param requestHeaders  Map of the headers to add to the request
-   * @return a Response containing headers and status code, no body content (there SHOULD not be any)
-   * @throws RestException @throws RestException if something goes wrong
+   * @param tracing the tracing to use or null to disable it
    */
-  public Response options(String urlString, Map<String, String> requestHeaders) throws RestException {
-    return headersRequest(urlString, requestHeaders, OPTIONS);
+  public void setTracing(Tracing tracing) {
+    this.tracing = tracing;
+    updateResponseListener();
   }
 
-  private Response headersRequest(String urlString, Map<String, String> requestHeaders, String method) throws RestException {
-    String accept = MediaType.APPLICATION_JSON.getValue();
+  /**
+   * @return an unmodifiable list of the interceptors of the calls, in the order they are applied
+   */
+  public List<Interceptor> getInterceptors() {
+    return interceptors;
+  }
 
-    try {
-      URL url = new URL(urlString);
-      HttpURLConnection conn = openConnection(url);
-      conn.setRequestMethod(method);
-      conn.setRequestProperty("Accept", accept);
-      if (requestHeaders != null) {
-        requestHeaders.forEach(conn::setRequestProperty);
-      }
-      conn.connect();
-      int responseCode = conn.getResponseCode();
-      var responseHeaders = conn.getHeaderFields();
-      conn.disconnect();
-      return new Response("", responseCode, responseHeaders, mapper);
-    } catch (IOException e) {
-      throw new RestException("Failed to call " + method + " on " + urlString, e);
+  /**
+   * Add an interceptor to the end of the chain of interceptors each call passes through, e.g. to add headers,
+   * log or short-circuit calls. The first interceptor added is the outermost one.
+   *
+   * @param interceptor the interceptor to add
+   */
+  public synchronized void addInterceptor(Interceptor interceptor) {
+    if (interceptor == null) {
+      throw new IllegalArgumentException("interceptor must not be null");
     }
+    List<Interceptor> chain = new ArrayList<>(interceptors);
+    chain.add(interceptor);
+    interceptors = List.copyOf(chain);
   }
 
-  private Response putPost(String urlString, Object payload, Map<String, String> requestHeaders, String method) throws RestException {
-    HttpURLConnection conn = null;
-    try {
-      URL url = new URL(urlString);
-      conn = openConnection(url);
-      conn.setRequestMethod(method);
-      if (requestHeaders == null || !requestHeaders.containsKey(CONTENT_TYPE)) {
-        conn.setRequestProperty(CONTENT_TYPE, MediaType.APPLICATION_JSON.getValue());
-      }
-      if (requestHeaders != null) {
-        requestHeaders.forEach(conn::setRequestProperty);
-      }
+  /**
+   * @param interceptor the interceptor to remove
+   * @return true if the interceptor was removed, false if it was not added
+   */
+  public synchronized boolean removeInterceptor(Interceptor interceptor) {
+    List<Interceptor> chain = new ArrayList<>(interceptors);
+    boolean removed = chain.remove(interceptor);
+    interceptors = List.copyOf(chain);
+    return removed;
+  }
 
-      if (payload != null) {
-        conn.setDoOutput(true);
-        String input;
-        if (payload instanceof CharSequence) {
-          input = String.valueOf(payload);
-        } else {
-          input = mapper.writeValueAsString(payload);
-        }
-        conn.connect();
-        try (OutputStream os = conn.getOutputStream()) {
-          os.write(input.getBytes(StandardCharsets.UTF_8));
-          os.flush();
-        }
-      } else {
-        conn.connect();
-      }
+  /**
+   * @return the provider of the bearer tokens sent or null if no token is added (the default)
+   */
+  public TokenProvider getTokenProvider() {
+    return tokenProvider;
+  }
 
-      int responseCode = conn.getResponseCode();
-      var headers = conn.getHeaderFields();
-      String body = "";
-      try {
-        body = readAnyBody(conn);
-      } catch (IOException e) {
-        // no content
-      }
-      return new Response(body, responseCode, headers, mapper);
+  /**
+   * Send a bearer token from the provider given in the Authorization header of each call that does not have an
+   * Authorization header already, e.g.
+   * <code>restClient.setTokenProvider(new ClientCredentialsTokenProvider(tokenUrl, clientId, secret));</code>
+   * If the server responds with 401 Unauthorized the token is invalidated and the call is sent once more with
+   * a new token (if the body of the request can be sent again).
+   *
+   * @param tokenProvider the token provider to use or null to disable it
+   */
+  public void setTokenProvider(TokenProvider tokenProvider) {
+    this.tokenProvider = tokenProvider;
+  }
 
-    } catch (IOException e) {
-      throw new RestException("Failed to call " + method + " on " + urlString, e);
-    } finally {
-      if (conn != null) {
-        conn.disconnect();
-      }
-    }
+  /**
+   * @return the headers sent with every call, empty by default
+   */
+  public Headers getDefaultHeaders() {
+    return defaultHeaders;
   }
 
-  HttpURLConnection openConnection(URL url)
-      throws RestException {
-    try {
-      HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-      if (conn instanceof HttpsURLConnection) {
-        ((HttpsURLConnection) conn).setSSLSocketFactory(sslSocketFactory);
-      }
-      return conn;
-    } catch (IOException e) {
-      throw new RestException("Failed to open connection to " + url, e);
-    }
+  /**
+   * Send the headers given with every call, e.g. a precomputed
+   * <code>restClient.setDefaultHeaders(Headers.basicAuth(username, password).with("User-Agent", "my-app"));</code>
+   * A header given to a call replaces the default header with the same name.
+   *
+   * @param defaultHeaders the headers to send or null to send none
+   */
+  public void setDefaultHeaders(Headers defaultHeaders) {
+    this.defaultHeaders = defaultHeaders == null ? Headers.EMPTY : defaultHeaders;
   }
 
-  private String readAnyBody(HttpURLConnection conn) throws IOException {
-    try {
-      return readBody(conn.getInputStream());
-    } catch (IOException e) {
-      InputStream errorStream = conn.getErrorStream();
-      if (errorStream == null) {
-        throw e;
-      }
-      return readBody(errorStream);
-    }
+  private synchronized void updateResponseListener() {
+    Tracing current = tracing;
+    responseListener = current == null ? metricsListener : current.responseListener(metricsListener);
   }
 
-  private String readErrorBody(HttpURLConnection conn) throws IOException {
-    InputStream errorStream = conn.getErrorStream();
-    return readBody(errorStream);
+  /**
+   * @return true if concurrent identical GET and HEAD requests share one call to the server
+   */
+  public boolean isCoalesceRequests() {
+    return coalesceRequests;
+  }
+
+  /**
+   * Let concurrent identical GET and HEAD requests (same url and headers, without a payload) share one
+   * call to the server: while a request is in flight, identical requests wait for it and get a copy of its
+   * response (or its exception) instead of calling the server themselves. This protects the server from
+   * stampedes, e.g. when many threads ask for the same resource at once. Disabled by default.
+   * Streaming and download methods (getStream, getContentToPath etc.) and requests sent with credentials
+   * (an Authorization header or a token provider) are not coalesced. A caller waits for the identical request
+   * at most its call timeout.
+   *
+   * @param coalesceRequests true to coalesce identical concurrent requests
+   */
+  public void setCoalesceRequests(boolean coalesceRequests) {
+    this.coalesceRequests = coalesceRequests;
+  }
+
+  /**
+   * @return the number of GET and HEAD requests that shared the response of an identical request in flight
+   */
+  public long getCoalescedRequests() {
+    return singleFlight.getShared();
+  }
+
+  /**
+   * The executor used by the async and batch methods unless another one is set with
+   * {@link #setAsyncExecutor(Executor)}. On java 21 and later each call runs on a new virtual thread,
+   * on java 17 a cached pool of daemon platform threads is used. The executor is shared by all clients
+   * and must not be shut down.
+   *
+   * @return the default executor of the async methods
+   */
+  public static Executor virtualThreadExecutor() {
+    return AsyncDispatcher.defaultExecutor();
+  }
+
+  /**
+   * @return true if the {@link #virtualThreadExecutor()} runs the calls on virtual threads (java 21+)
+   */
+  public static boolean isVirtualThreadsSupported() {
+    return VirtualThreads.isSupported();
+  }
+
+  /**
+   * @return the executor running the calls of the async methods (getAsync, postAsync etc.)
+   */
+  public Executor getAsyncExecutor() {
+    return asyncDispatcher.getExecutor();
+  }
+
+  /**
+   * Set the executor used to run the calls of the async methods (getAsync, postAsync etc.).
+   * If not set, the {@link #virtualThreadExecutor()} is used.
+   *
+   * @param executor the executor to use
+   */
+  public void setAsyncExecutor(Executor executor) {
+    asyncDispatcher.setExecutor(executor);
+  }
+
+  /**
+   * @return the max number of async calls running at the same time
+   */
+  public int getMaxInFlight() {
+    return asyncDispatcher.getMaxInFlight();
+  }
+
+  /**
+   * Limit the number of async calls running at the same time. Calls above the limit are queued
+   * (without occupying a thread) until a running call completes. The default is no limit.
+   *
+   * @param maxInFlight the max number of concurrently running async calls
+   */
+  public void setMaxInFlight(int maxInFlight) {
+    asyncDispatcher.setMaxInFlight(maxInFlight);
+  }
+
+  /**
+   * Although not RESTful, streaming raw images is commonly encountered in REST applications in the wild.
+   * This method checks if the url looks like it is serving an image
+   *
+   * @param urlString the url to verify
+   * @return true if the url exists and if the content type claims it to be an image otherwise false
+   */
+  public boolean urlExistsAndIsImage(String urlString) {
+    try (EngineResponse response = execute(new Request(GET, urlString, null))) {
+      String contentType = HeaderIndex.firstValue(response.getHeaders(), CONTENT_TYPE);
+      return response.getResponseCode() == 200 && contentType != null && contentType.startsWith("image");
+    } catch (IOException | RestException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Encode the binary content that the url is pointing to into a Base64 string.
+   *
+   * @param urlString the resource
+   * @return a base 64 encoded string
+   * @throws RestException if something goes wrong
+   */
+  public String getContentAsBase64(String urlString) throws RestException {
+    return Base64.getEncoder().encodeToString(getContentAsBytes(urlString));
+  }
+
+  /**
+   * Fetch the binary content that the url is pointing to into a byte[].
+   *
+   * @param urlString the resource
+   * @return a byte[] of the content
+   * @throws RestException if something goes wrong
+   */
+  public byte[] getContentAsBytes(String urlString) throws RestException {
+    try (EngineResponse response = execute(new Request(GET, urlString, null))) {
+      failOnContentError(response, urlString, 200);
+      return readBytes(response.getBody());
+    }
+    catch (IOException e) {
+      throw failure("Failed to get content as bytes from " + urlString, e);
+    }
+  }
+
+  /**
+   * Download the content that the url is pointing to into a file, streaming it to disk with bounded memory.
+   * An existing file is replaced.
+   *
+   * @param urlString the resource
+   * @param target the file to write to
+   * @return the result with the response code, headers and number of bytes written
+   * @throws RestException if something goes wrong
+   */
+  public DownloadResult getContentToPath(String urlString, Path target) throws RestException {
+    return getContentToPath(urlString, target, false);
+  }
+
+  /**
+   * Download the content that the url is pointing to into a file, streaming it to disk with bounded memory.
+   *
+   * @param urlString the resource
+   * @param target the file to write to
+   * @param resume if true and the file exists, only the remaining part is requested (using a Range header)
+   *               and appended to the file. If the server does not support ranges, or the range it sends does not
+   *               start at the end of the file (e.g. the content changed), the file is replaced.
+   * @return the result with the response code, headers and number of bytes written
+   * @throws RestException if something goes wrong
+   */
+  public DownloadResult getContentToPath(String urlString, Path target, boolean resume) throws RestException {
+    try {
+      long existing = resume && Files.exists(target) ? Files.size(target) : 0;
+      return download(urlString, target, existing);
+    } catch (IOException e) {
+      throw failure("Failed to get content from " + urlString + " to " + target, e);
+    }
+  }
+
+  /**
+   * @param existing the number of bytes of the file to keep, 0 to replace the file
+   */
+  private DownloadResult download(String urlString, Path target, long existing) throws IOException, RestException {
+    Map<String, String> headers = null;
+    if (existing > 0) {
+      // a range of compressed content cannot be appended to the uncompressed file
+      headers = Map.of(RANGE, "bytes=" + existing + "-", ACCEPT_ENCODING, "identity");
+    }
+    try (EngineResponse response = execute(new Request(GET, urlString, headers))) {
+      int responseCode = response.getResponseCode();
+      if (existing > 0 && responseCode == 416) {
+        // the body of a 416 is not read, some servers send a Content-Length but no body
+        if (contentRangeTotal(response) == existing) {
+          // the range starts at the end of the content, i.e. the file is already complete
+          return new DownloadResult(responseCode, response.getHeaders(), 0, true);
+        }
+      }
+      boolean resumed = existing > 0 && responseCode == 206;
+      if (existing > 0 && (responseCode == 416 || resumed && contentRangeStart(response) != existing)) {
+        // the content changed (or the server sent another range), appending would corrupt the file
+        response.close();
+        return download(urlString, target, 0);
+      }
+      failOnContentError(response, urlString, existing > 0 ? 206 : 200);
+      try (InputStream is = response.getBody();
+           FileChannel channel = resumed
+               ? FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+               : FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+               StandardOpenOption.TRUNCATE_EXISTING)) {
+        long position = resumed ? existing : 0;
+        long transferred = 0;
+        if (is != null) {
+          ReadableByteChannel source = Channels.newChannel(is);
+          long n;
+          while ((n = channel.transferFrom(source, position + transferred, Long.MAX_VALUE)) > 0) {
+            transferred += n;
+          }
+        }
+        return new DownloadResult(responseCode, response.getHeaders(), transferred, resumed);
+      }
+    }
+  }
+
+  /**
+   * @return the first byte position of the Content-Range header (bytes first-last/total) or -1 if there is none
+   */
+  private static long contentRangeStart(EngineResponse response) {
+    String range = contentRange(response);
+    int dash = range == null ? -1 : range.indexOf('-');
+    return dash < 0 ? -1 : parseLong(range.substring(0, dash));
+  }
+
+  /**
+   * @return the total length of the Content-Range header (bytes first-last/total or bytes *&#47;total) or -1 if
+   * there is none or it is unknown
+   */
+  private static long contentRangeTotal(EngineResponse response) {
+    String range = contentRange(response);
+    int slash = range == null ? -1 : range.indexOf('/');
+    return slash < 0 ? -1 : parseLong(range.substring(slash + 1));
+  }
+
+  /**
+   * @return the value of the Content-Range header without the bytes unit or null if there is none
+   */
+  private static String contentRange(EngineResponse response) {
+    String range = HeaderIndex.firstValue(response.getHeaders(), CONTENT_RANGE);
+    if (range == null) {
+      return null;
+    }
+    range = range.trim();
+    return range.regionMatches(true, 0, "bytes ", 0, 6) ? range.substring(6).trim() : null;
+  }
+
+  private static long parseLong(String value) {
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Stream the content that the url is pointing to into a channel using a bounded buffer.
+   * The channel is not closed.
+   *
+   * @param urlString the resource
+   * @param target the channel to write to
+   * @return the result with the response code, headers and number of bytes written
+   * @throws RestException if something goes wrong
+   */
+  public DownloadResult getContentToChannel(String urlString, WritableByteChannel target) throws RestException {
+    return streamContent(urlString, is -> {
+      long transferred = 0;
+      ReadableByteChannel source = Channels.newChannel(is);
+      ByteBuffer buffer = ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+      while (source.read(buffer) >= 0) {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+          transferred += target.write(buffer);
+        }
+        buffer.clear();
+      }
+      return transferred;
+    });
+  }
+
+  /**
+   * Stream the binary content that the url is pointing to, Base64 encoded, into the output stream.
+   * The content is encoded while it is read so neither the content nor the encoded string is held in memory.
+   * The output stream is not closed.
+   *
+   * @param urlString the resource
+   * @param out the stream to write the Base64 encoded content to
+   * @return the result with the response code, headers and number of (unencoded) bytes read
+   * @throws RestException if something goes wrong
+   */
+  public DownloadResult getContentAsBase64(String urlString, OutputStream out) throws RestException {
+    return streamContent(urlString, is -> {
+      // closing the encoder writes the final padding, the shield keeps the caller's stream open
+      try (OutputStream encoder = Base64.getEncoder().wrap(new FilterOutputStream(out) {
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+          flush();
+        }
+      })) {
+        return is.transferTo(encoder);
+      }
+    });
+  }
+
+  /**
+   * Stream the binary content that the url is pointing to, Base64 encoded, into the writer.
+   * The writer is not closed.
+   *
+   * @param urlString the resource
+   * @param writer the writer to write the Base64 encoded content to
+   * @return the result with the response code, headers and number of (unencoded) bytes read
+   * @throws RestException if something goes wrong
+   */
+  public DownloadResult getContentAsBase64(String urlString, Writer writer) throws RestException {
+    return getContentAsBase64(urlString, new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        writer.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        // Base64 is plain ascii so the bytes map directly to chars
+        writer.write(new String(b, off, len, StandardCharsets.ISO_8859_1));
+      }
+
+      @Override
+      public void flush() throws IOException {
+        writer.flush();
+      }
+    });
+  }
+
+  /**
+   * Write the binary content that the url is pointing to as a Base64 encoded json string value at the
+   * current position of the generator, e.g. after <code>generator.writeFieldName("image")</code>.
+   * The content is encoded by Jackson while it is read, without any intermediate String.
+   *
+   * @param urlString the resource
+   * @param generator the json generator to write the value with
+   * @return the result with the response code, headers and number of (unencoded) bytes read
+   * @throws RestException if something goes wrong
+   */
+  public DownloadResult getContentAsBase64(String urlString, JsonGenerator generator) throws RestException {
+    return streamContent(urlString, is -> generator.writeBinary(is, -1));
+  }
+
+  /**
+   * Create a value that, when serialized by Jackson, is written as the Base64 encoded content of the url.
+   * Use it as a field in an object sent with post or put to inline e.g. images in a json payload: the content
+   * is then streamed from the source url, encoded and sent without ever being held in memory.
+   *
+   * @param urlString the resource
+   * @return a json serializable value of the Base64 encoded content
+   */
+  public JsonSerializable base64Content(String urlString) {
+    return new JsonSerializable.Base() {
+      @Override
+      public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        try {
+          getContentAsBase64(urlString, gen);
+        } catch (RestException e) {
+          throw new IOException(e.getMessage(), e);
+        }
+      }
+
+      @Override
+      public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer)
+          throws IOException {
+        serialize(gen, serializers);
+      }
+    };
+  }
+
+  private DownloadResult streamContent(String urlString, ContentWriter contentWriter) throws RestException {
+    try (EngineResponse response = execute(new Request(GET, urlString, null))) {
+      failOnContentError(response, urlString, 200);
+      long transferred = 0;
+      try (InputStream is = response.getBody()) {
+        if (is != null) {
+          transferred = contentWriter.write(is);
+        }
+      }
+      return new DownloadResult(response.getResponseCode(), response.getHeaders(), transferred, false);
+    } catch (IOException e) {
+      throw failure("Failed to get content from " + urlString, e);
+    }
+  }
+
+  /** Writes the content read from the input stream somewhere, returning the number of bytes read */
+  @FunctionalInterface
+  private interface ContentWriter {
+    long write(InputStream is) throws IOException;
+  }
+
+  private void failOnContentError(EngineResponse response, String urlString, int expectedCode)
+      throws IOException, RestException {
+    int responseCode = response.getResponseCode();
+    if (responseCode != expectedCode && responseCode != 200) {
+      String errorBody = readBody(response.getBody());
+      if (!errorBody.isEmpty()) {
+        throw new RestException("GET call to " + urlString + " failed: HTTP error code = "
+            + responseCode + ", body: " + errorBody.trim());
+      }
+      throw new RestException("GET call to " + urlString + " failed: HTTP error code = " + responseCode);
+    }
+  }
+
+  /**
+   * Executes a HTTP GET request.
+   *
+   * @param urlString the url for the target resource
+   * @param acceptType optional parameter if you want to set something other than application/json (you should not have to)
+   * @return a response object with the header, body and response code
+   * @throws RestException if something goes wrong
+   */
+  public Response get(String urlString, String... acceptType) throws RestException {
+    return get(urlString, null, acceptType);
+  }
+
+  /**
+   * Executes a HTTP GET request.
+   *
+   * @param urlString the url for the target resource
+   * @param headers a Map of the headers to add to the request
+   * @param acceptType optional parameter if you want to set something other than application/json (you should not have to)
+   * @return a response object with the header, body and response code
+   * @throws RestException if something goes wrong
+   */
+  public Response get(String urlString, Map<String, String> headers, String... acceptType) throws RestException {
+    return get(urlString, null, headers, acceptType);
+  }
+
+  /**
+   * Executes a HTTP GET request.
+   *
+   * @param urlString the url for the target resource
+   * @param payload the content Java object to send to the server as json (json conversion is done for you).
+   *                Note: it is generally a BAD idea to send a payload with a get request. The Http 1.1 spec says:
+   *                "A payload within a GET request message has no defined semantics;
+   *                sending a payload body on a GET request might cause some existing implementations to reject the request."
+   * @param headers a Map of the headers to add to the request
+   * @param acceptType optional parameter if you want to set something other than application/json (you should not have to)
+   * @return a response object with the header, body and response code
+   * @throws RestException if something goes wrong
+   */
+  public Response get(String urlString, Object payload, Map<String, String> headers, String... acceptType) throws RestException {
+    String accept = acceptType.length > 0 ? acceptType[0] : MediaType.APPLICATION_JSON.getValue();
+    try {
+      Headers defaults = acceptType.length > 0 ? Headers.of(ACCEPT, accept) : ACCEPT_JSON;
+      RequestBody body = null;
+      if (payload != null) {
+        body = toBody(payload);
+        defaults = defaults.with(CONTENT_TYPE, contentType(payload));
+      }
+      Headers requestHeaders = defaults.withAll(headers);
+      if (body == null && coalesceRequests && !isAuthenticated(requestHeaders)) {
+        return singleFlight.execute(SingleFlight.key(GET, urlString, requestHeaders),
+            () -> getResponse(urlString, requestHeaders, null, accept), callTimeout);
+      }
+      return getResponse(urlString, requestHeaders, body, accept);
+    } catch (IOException e) {
+      throw failure("Failed to call GET on " + urlString, e);
+    }
+  }
+
+  private Response getResponse(String urlString, Map<String, String> requestHeaders, RequestBody body, String accept)
+      throws RestException {
+    try {
+      HttpCache cache = httpCache;
+      if (cache != null && body == null && !isAuthenticated(requestHeaders)) {
+        return cachedGet(cache, urlString, requestHeaders, accept);
+      }
+      Request request = traced(new Request(GET, urlString, requestHeaders, body));
+      try (EngineResponse response = execute(request)) {
+        failOnErrorStatus(response, urlString);
+        byte[] responseBody = readBytes(response.getBody());
+        return metered(new Response(response.getResponseCode(), response.getHeaders(), responseBody, mapper),
+            request);
+      }
+    } catch (IOException e) {
+      throw failure("Failed to call GET on " + urlString, e);
+    }
+  }
+
+  /**
+   * Executes a HTTP GET request and converts the json response into a Java object.
+   * The json is parsed directly from the response stream, so the body is never held as a String.
+   *
+   * @param urlString the url for the target resource
+   * @param returnClass the type of Java Object to return
+   * @param <T> the type of Java Object to return
+   * @return the java Object corresponding to the response body or null if there is no content
+   * @throws RestException if the call fails or the server responds with an error code
+   * @throws JsonProcessingException if the conversion failed
+   */
+  public <T> T get(String urlString, Class<T> returnClass) throws RestException, JsonProcessingException {
+    return get(urlString, returnClass, null);
+  }
+
+  /**
+   * Executes a HTTP GET request and converts the json response into a Java object.
+   * The json is parsed directly from the response stream, so the body is never held as a String.
+   *
+   * @param urlString the url for the target resource
+   * @param returnClass the type of Java Object to return
+   * @param headers a Map of the headers to add to the request
+   * @param <T> the type of Java Object to return
+   * @return the java Object corresponding to the response body or null if there is no content
+   * @throws RestException if the call fails or the server responds with an error code
+   * @throws JsonProcessingException if the conversion failed
+   */
+  public <T> T get(String urlString, Class<T> returnClass, Map<String, String> headers)
+      throws RestException, JsonProcessingException {
+    return getValue(urlString, headers, mapper.readerFor(returnClass));
+  }
+
+  /**
+   * Executes a HTTP GET request and converts the json response into the type referenced, e.g.
+   * <code>Map&lt;String, List&lt;String&gt;&gt; info = restClient.get(url, new TypeReference&lt;&gt;() {});</code>
+   * The json is parsed directly from the response stream, so the body is never held as a String.
+   *
+   * @param urlString the url for the target resource
+   * @param type the type reference to use when mapping
+   * @param <T> the type of Java Object to return
+   * @return an Object of the class defined in the TypeReference or null if there is no content
+   * @throws RestException if the call fails or the server responds with an error code
+   * @throws JsonProcessingException if the conversion failed
+   */
+  public <T> T get(String urlString, TypeReference<T> type) throws RestException, JsonProcessingException {
+    return get(urlString, type, null);
+  }
+
+  /**
+   * Executes a HTTP GET request and converts the json response into the type referenced.
+   * The json is parsed directly from the response stream, so the body is never held as a String.
+   *
+   * @param urlString the url for the target resource
+   * @param type the type reference to use when mapping
+   * @param headers a Map of the headers to add to the request
+   * @param <T> the type of Java Object to return
+   * @return an Object of the class defined in the TypeReference or null if there is no content
+   * @throws RestException if the call fails or the server responds with an error code
+   * @throws JsonProcessingException if the conversion failed
+   */
+  public <T> T get(String urlString, TypeReference<T> type, Map<String, String> headers)
+      throws RestException, JsonProcessingException {
+    return getValue(urlString, headers, mapper.readerFor(type));
+  }
+
+  /**
+   * Executes a HTTP POST request.
+   *
+   * @param urlString the url for the target resource
+   * @param payload the content Java object to send to the server as json (json conversion is done for you)
+   * @return a response object with the header, body and response code
+   * @throws RestException if something goes wrong
+   */
+  public Response post(String urlString, Object payload) throws RestException {
+    return post(urlString, payload, null);
+  }
+
+  /**
+   * Executes a HTTP POST request.
+   *
+   * @param urlString the url for the target resource
+   * @param payload the content Java object to send to the server as json (json conversion is done for you)
+   * @param requestHeaders  Map of the headers to add to the request
+   * @return a response object with the header, body and response code
+   * @throws RestException if something goes wrong
+   */
+  public Response post(String urlString, Object payload, Map<String, String> requestHeaders) throws RestException {
+    return putPost(urlString, payload, requestHeaders, POST);
+  }
+
+
+  /**
+   * Executes a HTTP PUT request.
+   *
+   * @param urlString the url for the target resource
+   * @param payload the content Java object to send to the server as json (json conversion is done for you)
+   * @return a response object with the header, body and response code
+   * @throws RestException if something goes wrong
+   */
+  public Response put(String urlString, Object payload) throws RestException {
+    return put(urlString, payload, null);
+  }
+
+  /**
+   * Executes a HTTP PUT request.
+   *
+   * @param urlString the url for the target resource
+   * @param payload the content Java object to send to the server as json (json conversion is done for you)
+   * @param requestHeaders  Map of the headers to add to the request
+   * @return a response object with the header, body and response code
+   * @throws RestException if something goes wrong
+   */
+  public Response put(String urlString, Object payload, Map<String, String> requestHeaders) throws RestException {
+    return putPost(urlString, payload, requestHeaders, PUT);
+  }
+
+  /**
+   * Executes a HTTP DELETE request.
+   *
+   * @param urlString the url for the target resource
+   * @return a Response containing headers and status code and, possibly, the body content
+   * @throws RestException if something goes wrong
+   */
+  public Response delete(String urlString) throws RestException {
+    return delete(urlString, null);
+  }
+
+  /**
+   * Executes a HTTP DELETE request.
+   *
+   * @param urlString the url for the target resource
+   * @param requestHeaders  Map of the headers to add to the request
+   * @return a Response containing headers and status code and, possibly, the body content
+   * @throws RestException if something goes wrong
+   */
+  public Response delete(String urlString, Map<String, String> requestHeaders) throws RestException {
+    Headers headers = CONTENT_TYPE_JSON.withAll(requestHeaders);
+    Request request = traced(new Request(DELETE, urlString, headers));
+    try (EngineResponse response = execute(request)) {
+      int responseCode = response.getResponseCode();
+      try {
+        byte[] body = readBytes(response.getBody());
+        return metered(new Response(responseCode, response.getHeaders(), body, mapper), request);
+      } catch (IOException e) {
+        return new Response("", responseCode, response.getHeaders(), mapper);
+      }
+    } catch (IOException e) {
+      throw failure("Failed to call DELETE on " + urlString, e);
+    }
+  }
+
+  /**
+   * Executes a HTTP HEAD request.
+   *
+   * @param urlString the url for the target resource
+   * @return a Response containing headers and status code, no body content (there SHOULD not be any)
+   * @throws RestException if something goes wrong
+   */
+  public Response head(String urlString) throws RestException {
+    return head(urlString, null);
+  }
+
+  /**
+   * Executes a HTTP HEAD request.
+   *
+   * @param urlString the url for the target resource
+   * @param requestHeaders  Map of the headers to add to the request
+   * @return a Response containing headers and status code, no body content (there SHOULD not be any)
+   * @throws RestException if something goes wrong
+   */
+  public Response head(String urlString, Map<String, String> requestHeaders) throws RestException {
+    return headersRequest(urlString, requestHeaders, HEAD);
+  }
+
+  /**
+   * Executes a HTTP OPTIONS request.
+   *
+   * @param urlString the url for the target resource
+   * @return a Response containing headers and status code, no body content (there SHOULD not be any)
+   * @throws RestException @throws RestException if something goes wrong
+   */
+  public Response options(String urlString) throws RestException {
+    return options(urlString, null);
+  }
+
+  /**
+   * Executes a HTTP OPTIONS request.
+   *
+   * @param urlString the url for the target resource
+   * @param requestHeaders  Map of the headers to add to the request
+   * @return a Response containing headers and status code, no body content (there SHOULD not be any)
+   * @throws RestException @throws RestException if something goes wrong
+   */
+  public Response options(String urlString, Map<String, String> requestHeaders) throws RestException {
+    return headersRequest(urlString, requestHeaders, OPTIONS);
+  }
+
+  /**
+   * Executes a HTTP GET request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> getAsync(String urlString) {
+    return getAsync(urlString, null);
+  }
+
+  /**
+   * Executes a HTTP GET request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @param headers a Map of the headers to add to the request
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> getAsync(String urlString, Map<String, String> headers) {
+    return submitAsync(urlString, () -> get(urlString, headers));
+  }
+
+  /**
+   * Executes a HTTP POST request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @param payload the content Java object to send to the server as json (json conversion is done for you)
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> postAsync(String urlString, Object payload) {
+    return postAsync(urlString, payload, null);
+  }
+
+  /**
+   * Executes a HTTP POST request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @param payload the content Java object to send to the server as json (json conversion is done for you)
+   * @param requestHeaders  Map of the headers to add to the request
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> postAsync(String urlString, Object payload, Map<String, String> requestHeaders) {
+    return submitAsync(urlString, () -> post(urlString, payload, requestHeaders));
+  }
+
+  /**
+   * Executes a HTTP PUT request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @param payload the content Java object to send to the server as json (json conversion is done for you)
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> putAsync(String urlString, Object payload) {
+    return putAsync(urlString, payload, null);
+  }
+
+  /**
+   * Executes a HTTP PUT request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @param payload the content Java object to send to the server as json (json conversion is done for you)
+   * @param requestHeaders  Map of the headers to add to the request
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> putAsync(String urlString, Object payload, Map<String, String> requestHeaders) {
+    return submitAsync(urlString, () -> put(urlString, payload, requestHeaders));
+  }
+
+  /**
+   * Executes a HTTP DELETE request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> deleteAsync(String urlString) {
+    return deleteAsync(urlString, null);
+  }
+
+  /**
+   * Executes a HTTP DELETE request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @param requestHeaders  Map of the headers to add to the request
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> deleteAsync(String urlString, Map<String, String> requestHeaders) {
+    return submitAsync(urlString, () -> delete(urlString, requestHeaders));
+  }
+
+  /**
+   * Executes a HTTP HEAD request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> headAsync(String urlString) {
+    return headAsync(urlString, null);
+  }
+
+  /**
+   * Executes a HTTP HEAD request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @param requestHeaders  Map of the headers to add to the request
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> headAsync(String urlString, Map<String, String> requestHeaders) {
+    return submitAsync(urlString, () -> head(urlString, requestHeaders));
+  }
+
+  /**
+   * Executes a HTTP OPTIONS request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> optionsAsync(String urlString) {
+    return optionsAsync(urlString, null);
+  }
+
+  /**
+   * Executes a HTTP OPTIONS request asynchronously.
+   *
+   * @param urlString the url for the target resource
+   * @param requestHeaders  Map of the headers to add to the request
+   * @return a future completing with the response or exceptionally with a RestException if something goes wrong
+   */
+  public CompletableFuture<Response> optionsAsync(String urlString, Map<String, String> requestHeaders) {
+    return submitAsync(urlString, () -> options(urlString, requestHeaders));
+  }
+
+  /**
+   * Executes HTTP GET requests for all the urls concurrently (limited by the max in-flight setting)
+   * and waits for all of them to complete.
+   *
+   * @param urlStrings the urls for the target resources
+   * @return the responses in the same order as the urls
+   * @throws RestException if any of the calls fails
+   */
+  public List<Response> getAll(List<String> urlStrings) throws RestException {
+    return getAll(urlStrings, null);
+  }
+
+  /**
+   * Executes HTTP GET requests for all the urls concurrently (limited by the max in-flight setting)
+   * and waits for all of them to complete.
+   *
+   * @param urlStrings the urls for the target resources
+   * @param headers a Map of the headers to add to each request
+   * @return the responses in the same order as the urls
+   * @throws RestException if any of the calls fails
+   */
+  public List<Response> getAll(List<String> urlStrings, Map<String, String> headers) throws RestException {
+    List<CompletableFuture<Response>> futures = new ArrayList<>(urlStrings.size());
+    for (String urlString : urlStrings) {
+      futures.add(getAsync(urlString, headers));
+    }
+    List<Response> responses = new ArrayList<>(futures.size());
+    try {
+      for (CompletableFuture<Response> future : futures) {
+        responses.add(future.join());
+      }
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RestException re) {
+        throw re;
+      }
+      throw new RestException("Failed to call GET", e.getCause());
+    }
+    return responses;
+  }
+
+  /**
+   * Executes a HTTP GET request for a json array and streams the elements as they are read from the connection.
+   * Only one element at a time is held in memory so arbitrarily large arrays can be processed.
+   * The stream holds on to the connection and MUST be closed, e.g.
+   * <code>try (Stream&lt;Company&gt; companies = restClient.getStream(url, Company.class)) { ... }</code>
+   * Conversion errors while streaming are thrown as a
+   * com.fasterxml.jackson.databind.RuntimeJsonMappingException.
+   *
+   * @param urlString the url for the target resource
+   * @param elementClass the type of the elements in the array
+   * @param <T> the type of the elements in the array
+   * @return a Stream of the elements, closing it closes the connection
+   * @throws RestException if the call fails or the server responds with an error code
+   */
+  public <T> Stream<T> getStream(String urlString, Class<T> elementClass) throws RestException {
+    return getStream(urlString, elementClass, null);
+  }
+
+  /**
+   * Executes a HTTP GET request for a json array and streams the elements as they are read from the connection.
+   * Only one element at a time is held in memory so arbitrarily large arrays can be processed.
+   * The stream holds on to the connection and MUST be closed.
+   *
+   * @param urlString the url for the target resource
+   * @param elementClass the type of the elements in the array
+   * @param headers a Map of the headers to add to the request
+   * @param <T> the type of the elements in the array
+   * @return a Stream of the elements, closing it closes the connection
+   * @throws RestException if the call fails or the server responds with an error code
+   */
+  public <T> Stream<T> getStream(String urlString, Class<T> elementClass, Map<String, String> headers)
+      throws RestException {
+    Headers requestHeaders = ACCEPT_JSON.withAll(headers);
+    EngineResponse response = null;
+    try {
+      response = execute(new Request(GET, urlString, requestHeaders));
+      failOnErrorStatus(response, urlString);
+      InputStream body = response.getBody();
+      if (body == null || response.getResponseCode() == 204) {
+        response.close();
+        return Stream.empty();
+      }
+      MappingIterator<T> it = mapper.readerFor(elementClass).readValues(body);
+      EngineResponse engineResponse = response;
+      return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED), false)
+          .onClose(() -> {
+            try {
+              it.close();
+            } catch (IOException e) {
+              // the connection is released below regardless
+            } finally {
+              engineResponse.close();
+            }
+          });
+    } catch (IOException e) {
+      closeQuietly(response);
+      throw failure("Failed to call GET on " + urlString, e);
+    } catch (RestException | RuntimeException e) {
+      closeQuietly(response);
+      throw e;
+    }
+  }
+
+  private static void closeQuietly(EngineResponse response) {
+    if (response != null) {
+      response.close();
+    }
+  }
+
+  /**
+   * @return true if the request is sent with credentials, its response is for one user only and is neither cached
+   * (the cache can be shared by clients calling as different users) nor shared with coalesced calls
+   */
+  private boolean isAuthenticated(Map<String, String> requestHeaders) {
+    return tokenProvider != null || defaultHeaders.containsKey(AUTHORIZATION)
+        || Headers.of(requestHeaders).containsKey(AUTHORIZATION);
+  }
+
+  private Response cachedGet(HttpCache cache, String urlString, Map<String, String> requestHeaders, String accept)
+      throws IOException, RestException {
+    String key = GET + " " + urlString + " " + accept;
+    // the headers sent, to pick the variant of a response with a Vary header
+    Headers sentHeaders = defaultHeaders.withAll(requestHeaders);
+    CacheEntry entry = cache.get(key);
+    if (entry != null && !entry.matches(sentHeaders)) {
+      // another variant of the resource, replaced by the response to this request
+      entry = null;
+    }
+    boolean noCache = CacheEntry.hasDirective(HeaderIndex.find(requestHeaders, CACHE_CONTROL), "no-cache");
+    if (entry != null && !noCache && entry.isFresh(System.currentTimeMillis())) {
+      cache.hit();
+      return metered(entry.toResponse(mapper), new Request(GET, urlString, requestHeaders));
+    }
+    Headers conditional = Headers.of(requestHeaders);
+    if (entry != null) {
+      if (entry.getETag() != null && !conditional.containsKey(IF_NONE_MATCH)) {
+        conditional = conditional.with(IF_NONE_MATCH, entry.getETag());
+      }
+      if (entry.getLastModified() != null && !conditional.containsKey(IF_MODIFIED_SINCE)) {
+        conditional = conditional.with(IF_MODIFIED_SINCE, entry.getLastModified());
+      }
+    }
+    Request request = traced(new Request(GET, urlString, conditional));
+    try (EngineResponse response = execute(request)) {
+      long now = System.currentTimeMillis();
+      if (entry != null && response.getResponseCode() == 304) {
+        CacheEntry revalidated = entry.revalidated(response.getHeaders(), now);
+        cache.put(revalidated);
+        cache.revalidated();
+        return metered(revalidated.toResponse(mapper), request);
+      }
+      cache.miss();
+      failOnErrorStatus(response, urlString);
+      byte[] responseBody = readBytes(response.getBody());
+      CacheEntry updated = CacheEntry.of(key, response.getResponseCode(), response.getHeaders(), responseBody, now,
+          sentHeaders);
+      if (updated != null) {
+        cache.put(updated);
+      } else if (entry != null) {
+        cache.remove(key);
+      }
+      return metered(new Response(response.getResponseCode(), response.getHeaders(), responseBody, mapper),
+          request);
+    }
+  }
+
+  private void deserialized(ObjectReader reader, Request request, long start, Throwable failure) {
+    MetricsListener listener = responseListener(request);
+    if (listener == MetricsListener.NONE || start == 0) {
+      // not instrumented, or the listener was set during the conversion
+      return;
+    }
+    try {
+      listener.onDeserialization(MetricTags.of(GET, request.getUrl(), listener), reader.getValueType(),
+          Duration.ofNanos(System.nanoTime() - start), failure);
+    } catch (RuntimeException e) {
+      // a broken listener must not break the call
+    }
+  }
+
+  /**
+   * @return the response reporting its json conversions to the metrics listener (if there is one)
+   */
+  private Response metered(Response response, Request request) {
+    MetricsListener listener = responseListener(request);
+    if (listener == MetricsListener.NONE) {
+      return response;
+    }
+    return response.metered(listener, MetricTags.of(request.getMethod(), request.getUrl(), listener));
+  }
+
+  /**
+   * @return the request recording the trace context of its CLIENT span if the calls are traced, so that the json
+   *     conversions of its response are traced as children of that span
+   */
+  private Request traced(Request request) {
+    return tracing == null ? request : request.withCallSpan(new Tracing.CallSpan());
+  }
+
+  /**
+   * @return the listener of the json conversions of the response to the request
+   */
+  private MetricsListener responseListener(Request request) {
+    Tracing current = tracing;
+    TraceContext clientContext = request.getTraceContext();
+    if (current == null || clientContext == null) {
+      return responseListener;
+    }
+    return current.responseListener(metricsListener, clientContext);
+  }
+
+  private <T> T getValue(String urlString, Map<String, String> headers, ObjectReader reader)
+      throws RestException, JsonProcessingException {
+    if (httpCache != null || coalesceRequests) {
+      Response response = get(urlString, headers);
+      byte[] body = response.getPayloadBytes();
+      if (body.length == 0 || response.getResponseCode() == 204) {
+        return null;
+      }
+      try {
+        // reported by the response, as a child of the CLIENT span of the call that fetched it
+        return response.readValue(reader);
+      } catch (JsonProcessingException e) {
+        throw e;
+      } catch (IOException e) {
+        throw new RestException("Failed to parse the response of GET on " + urlString, e);
+      }
+    }
+    Headers requestHeaders = ACCEPT_JSON.withAll(headers);
+    Request request = traced(new Request(GET, urlString, requestHeaders));
+    try (EngineResponse response = execute(request)) {
+      failOnErrorStatus(response, urlString);
+      InputStream body = response.getBody();
+      if (body == null || response.getResponseCode() == 204) {
+        return null;
+      }
+      PushbackInputStream in = new PushbackInputStream(body, 1);
+      int first = in.read();
+      if (first == -1) {
+        // no content, same as the buffered path
+        in.close();
+        return null;
+      }
+      in.unread(first);
+      long start = responseListener == MetricsListener.NONE ? 0 : System.nanoTime();
+      try (InputStream is = in) {
+        T value = reader.readValue(is);
+        deserialized(reader, request, start, null);
+        return value;
+      } catch (IOException | RuntimeException e) {
+        deserialized(reader, request, start, e);
+        throw e;
+      }
+    } catch (JsonProcessingException e) {
+      // jackson wraps the failures of the stream it reads from
+      if (e.getCause() instanceof IOException cause && isTimeout(cause)) {
+        throw failure("Failed to call GET on " + urlString, cause);
+      }
+      throw e;
+    } catch (IOException e) {
+      throw failure("Failed to call GET on " + urlString, e);
+    }
+  }
+
+  private void failOnErrorStatus(EngineResponse response, String urlString) throws IOException, RestException {
+    int responseCode = response.getResponseCode();
+    if (responseCode >= 400) {
+      String errorBody = readBody(response.getBody());
+      if (!errorBody.isEmpty()) {
+        throw new RestException("Failed to call GET on " + urlString + ": HTTP error code = "
+            + responseCode + ", body: " + errorBody.trim());
+      }
+      throw new RestException("Failed to call GET on " + urlString + ": HTTP error code = " + responseCode);
+    }
+  }
+
+  private Response headersRequest(String urlString, Map<String, String> requestHeaders, String method) throws RestException {
+    Headers headers = ACCEPT_JSON.withAll(requestHeaders);
+    if (HEAD.equals(method) && coalesceRequests && !isAuthenticated(headers)) {
+      return singleFlight.execute(SingleFlight.key(method, urlString, headers),
+          () -> executeHeadersRequest(method, urlString, headers), callTimeout);
+    }
+    return executeHeadersRequest(method, urlString, headers);
+  }
+
+  private Response executeHeadersRequest(String method, String urlString, Map<String, String> headers) throws RestException {
+    try (EngineResponse response = execute(new Request(method, urlString, headers))) {
+      return new Response("", response.getResponseCode(), response.getHeaders(), mapper);
+    } catch (IOException e) {
+      throw failure("Failed to call " + method + " on " + urlString, e);
+    }
+  }
+
+  private Response putPost(String urlString, Object payload, Map<String, String> requestHeaders, String method) throws RestException {
+    Headers headers = (isBinary(payload) ? CONTENT_TYPE_OCTET_STREAM : CONTENT_TYPE_JSON).withAll(requestHeaders);
+    try {
+      int threshold = requestCompressionThreshold;
+      // json up to the threshold is serialized up front so that its size decides if it is compressed
+      RequestBody body = payload == null ? null : toBody(payload, threshold);
+      if (body != null && threshold >= 0 && !headers.containsKey(CONTENT_ENCODING)
+          && (body.contentLength() < 0 || body.contentLength() >= threshold)) {
+        body = ContentEncoding.gzip(body);
+        headers = headers.with(CONTENT_ENCODING, ContentEncoding.GZIP);
+      }
+      Request request = traced(new Request(method, urlString, headers, body));
+      try (EngineResponse response = execute(request)) {
+        byte[] responseBody = EMPTY_BODY;
+        try {
+          responseBody = readBytes(response.getBody());
+        } catch (IOException e) {
+          if (isTimeout(e)) {
+            throw e;
+          }
+          // no content
+        }
+        return metered(new Response(response.getResponseCode(), response.getHeaders(), responseBody, mapper),
+            request);
+      }
+    } catch (IOException e) {
+      throw failure("Failed to call " + method + " on " + urlString, e);
+    }
+  }
+
+  /**
+   * Run the call on the async executor, in the ASYNC limit mode only once the permits to call the url are
+   * taken so that the call does not occupy a thread while waiting.
+   */
+  private <T> CompletableFuture<T> submitAsync(String urlString, AsyncDispatcher.RestCall<T> call) {
+    RequestLimits limits = requestLimits;
+    if (limits == null || limits.getMode() != RequestLimits.Mode.ASYNC) {
+      return asyncDispatcher.submit(call);
+    }
+    return limits.acquireAsync(host(urlString))
+        .thenCompose(permit -> asyncDispatcher.submit(() -> limits.callAdmitted(permit, call)));
+  }
+
+  private EngineResponse execute(Request request) throws IOException, RestException {
+    Headers defaults = defaultHeaders;
+    if (!defaults.isEmpty()) {
+      request = request.withDefaultHeaders(defaults);
+    }
+    if (acceptCompressed && !request.getHeaders().containsKey(ACCEPT_ENCODING)) {
+      request = request.withHeader(ACCEPT_ENCODING, ContentEncoding.SUPPORTED);
+    }
+    request = request.withTimeouts(connectTimeout, readTimeout, callTimeout);
+    List<Interceptor> chain = interceptors;
+    if (chain.isEmpty()) {
+      return authorize(request);
+    }
+    return InterceptorChain.proceed(chain, request, this::authorize);
+  }
+
+  private EngineResponse authorize(Request request) throws IOException, RestException {
+    TokenProvider provider = tokenProvider;
+    if (provider == null || request.getHeaders().containsKey(AUTHORIZATION)) {
+      return sendWithRetries(request);
+    }
+    String token = provider.getToken();
+    EngineResponse response = sendWithRetries(request.withHeader(AUTHORIZATION, CommonHeaders.bearer(token)));
+    RequestBody body = request.getBody();
+    if (response.getResponseCode() != 401 || (body != null && !body.isRepeatable())) {
+      return response;
+    }
+    provider.invalidate(token);
+    String renewed;
+    try {
+      renewed = provider.getToken();
+    } catch (RestException e) {
+      // keep the 401 response, it says more than the failure to get a new token
+      return response;
+    }
+    if (renewed.equals(token)) {
+      return response;
+    }
+    closeQuietly(response);
+    return sendWithRetries(request.withHeader(AUTHORIZATION, CommonHeaders.bearer(renewed)));
+  }
+
+  private EngineResponse sendWithRetries(Request request) throws IOException, RestException {
+    RetryPolicy policy = retryPolicy;
+    if (policy == null) {
+      return dispatch(request);
+    }
+    RetryBudget budget = policy.getBudget();
+    if (budget != null) {
+      budget.requestSent();
+    }
+    // the attempts share the call timeout, each one gets the time left of it
+    Duration callTimeout = request.getCallTimeout();
+    long deadline = callTimeout == null ? 0 : System.nanoTime() + callTimeout.toNanos();
+    for (int attempt = 1; ; attempt++) {
+      Duration delay;
+      EngineResponse response = null;
+      IOException failure = null;
+      try {
+        response = dispatch(attempt == 1 || callTimeout == null ? request : request.withTimeouts(
+            request.getConnectTimeout(), request.getReadTimeout(), Duration.ofNanos(deadline - System.nanoTime())));
+        if (attempt >= policy.getMaxAttempts() || !policy.isRetryable(request, response.getResponseCode())) {
+          return response;
+        }
+        delay = policy.delay(attempt, HeaderIndex.firstValue(response.getHeaders(), RETRY_AFTER));
+        if (delay == null) {
+          return response;
+        }
+      } catch (IOException e) {
+        if (attempt >= policy.getMaxAttempts() || !policy.isRetryable(request, e)) {
+          throw e;
+        }
+        delay = policy.backoff(attempt);
+        failure = e;
+      }
+      if (callTimeout != null && deadline - System.nanoTime() <= delay.toNanos()) {
+        // the call timeout expires before the retry could be made, this includes a failure caused by its expiry
+        if (failure != null) {
+          throw failure;
+        }
+        return response;
+      }
+      if (budget != null && !budget.tryRetry()) {
+        retryStats.budgetExhausted();
+        if (failure != null) {
+          throw failure;
+        }
+        return response;
+      }
+      closeQuietly(response);
+      retryStats.retried(host(request.getUrl()));
+      sleep(delay, request);
+    }
+  }
+
+  private EngineResponse dispatch(Request request) throws IOException, RestException {
+    HedgePolicy policy = hedgePolicy;
+    if (policy == null || !(GET.equals(request.getMethod()) || HEAD.equals(request.getMethod()))) {
+      return send(request);
+    }
+    return HedgedCall.execute(request, policy, hedgeStats, asyncDispatcher.getExecutor(), this::send);
+  }
+
+  private EngineResponse send(Request request) throws IOException, RestException {
+    CircuitBreaker breaker = circuitBreaker;
+    RequestLimits limits = requestLimits;
+    if (breaker == null && limits == null) {
+      return transmit(request);
+    }
+    String host = host(request.getUrl());
+    CircuitBreaker.Call circuit = breaker == null ? null : breaker.acquire(host);
+    // a trial call of a half open circuit that ends without a result must give back its trial permit
+    boolean reported = false;
+    try {
+      RequestLimits.Permit permit = limits == null ? RequestLimits.Permit.NONE : limits.acquire(host);
+      long start = System.nanoTime();
+      EngineResponse response;
+      try {
+        response = transmit(request);
+      } catch (IOException | RuntimeException e) {
+        long latency = System.nanoTime() - start;
+        // the losing call of a hedged request says nothing about the health of the host
+        boolean cancelled = request.isCancelled();
+        permit.release(latency, !cancelled);
+        if (circuit != null && !cancelled) {
+          circuit.onResult(true, latency);
+          reported = true;
+        }
+        throw e;
+      }
+      long latency = System.nanoTime() - start;
+      int responseCode = response.getResponseCode();
+      if (circuit != null) {
+        circuit.onResult(responseCode >= 500, latency);
+        reported = true;
+      }
+      return permit.releaseOnClose(response, latency, responseCode == 429 || responseCode == 503);
+    } finally {
+      if (circuit != null && !reported) {
+        circuit.onCancelled();
+      }
+    }
+  }
+
+  private EngineResponse transmit(Request request) throws IOException {
+    MetricsListener listener = metricsListener;
+    Tracing current = tracing;
+    if (current != null) {
+      return current.execute(request, listener, this::exchange);
+    }
+    if (listener == MetricsListener.NONE) {
+      return exchange(request);
+    }
+    return MeteredCall.execute(request, listener, this::exchange);
+  }
+
+  private EngineResponse exchange(Request request) throws IOException {
+    if (!acceptCompressed) {
+      return engine.execute(request);
+    }
+    return ContentEncoding.decode(engine.execute(request));
+  }
+
+  private static void sleep(Duration delay, Request request) throws InterruptedIOException {
+    try {
+      Thread.sleep(delay.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException ie = new InterruptedIOException("Interrupted while waiting to retry " + request);
+      ie.initCause(e);
+      throw ie;
+    }
+  }
+
+  private static String host(String url) {
+    try {
+      return new URL(url).getHost();
+    } catch (MalformedURLException e) {
+      return url;
+    }
+  }
+
+  /**
+   * @return a {@link RestTimeoutException} if the call failed because a timeout expired otherwise a RestException
+   */
+  private static RestException failure(String message, IOException e) {
+    if (isTimeout(e)) {
+      return new RestTimeoutException(message + ": " + e.getMessage(), e);
+    }
+    return new RestException(message, e);
+  }
+
+  private static boolean isTimeout(IOException e) {
+    return e instanceof SocketTimeoutException || e instanceof HttpTimeoutException;
+  }
+
+  private RequestBody toBody(Object payload) throws IOException {
+    return toBody(payload, -1);
+  }
+
+  /**
+   * @param jsonBufferSize the max number of bytes of json to serialize up front if more than the default
+   */
+  private RequestBody toBody(Object payload, int jsonBufferSize) throws IOException {
+    if (payload instanceof RequestBody body) {
+      return body;
+    }
+    if (payload instanceof CharSequence) {
+      return RequestBody.ofBytes(String.valueOf(payload).getBytes(StandardCharsets.UTF_8));
+    }
+    if (payload instanceof InputStream is) {
+      return RequestBody.ofInputStream(is, -1);
+    }
+    if (payload instanceof Path path) {
+      return RequestBody.ofPath(path);
+    }
+    if (payload instanceof ReadableByteChannel channel) {
+      return RequestBody.ofChannel(channel, -1);
+    }
+    return JsonBody.of(mapper, payload, Math.max(JsonBody.BUFFER_SIZE, jsonBufferSize));
+  }
+
+  private static String contentType(Object payload) {
+    return isBinary(payload) ? MediaType.APPLICATION_OCTET_STREAM.getValue() : MediaType.APPLICATION_JSON.getValue();
+  }
+
+  private static boolean isBinary(Object payload) {
+    return payload instanceof InputStream || payload instanceof Path || payload instanceof ReadableByteChannel;
+  }
+
+  private byte[] readBytes(InputStream inputStream) throws IOException {
+    if (inputStream == null) {
+      return EMPTY_BODY;
+    }
+    try (InputStream is = inputStream) {
+      return is.readAllBytes();
+    }
   }
 
   private String readBody(InputStream inputStream) throws IOException {
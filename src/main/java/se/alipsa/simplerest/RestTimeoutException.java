@@ -0,0 +1,19 @@
+package se.alipsa.simplerest;
+
+/**
+ * The exception thrown when a call fails because a timeout expired, i.e. connecting took longer than the
+ * connect timeout, the server did not send anything within the read timeout or the whole call took longer
+ * than the call timeout.
+ */
+public class RestTimeoutException extends RestException {
+
+  /**
+   * Create a rest timeout exception.
+   *
+   * @param message the message indicating the issue
+   * @param cause the cause of the exception
+   */
+  public RestTimeoutException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,76 @@
+package se.alipsa.simplerest;
+
+/**
+ * Caps the number of retries relative to the number of requests so that retries cannot amplify an outage:
+ * when most requests fail, a client retrying every request several times would multiply the load on a
+ * server that is already struggling.
+ * <p>
+ * Each request adds the retry ratio (e.g. 0.1) to the budget and each retry spends 1 from it, so in the long run
+ * at most 10% of the requests are retried. The budget saves up at most max retries, which is also the initial
+ * allowance so that retries are possible before the traffic has built up a balance.
+ */
+public class RetryBudget {
+
+  private final double retryRatio;
+  private final int maxRetries;
+  private double balance;
+
+  /**
+   * Create a retry budget.
+   *
+   * @param retryRatio the max number of retries per request, e.g. 0.1 to cap the retries at 10% of the requests
+   * @param maxRetries the max number of retries that can be saved up (and spent in a burst)
+   */
+  public RetryBudget(double retryRatio, int maxRetries) {
+    if (retryRatio < 0) {
+      throw new IllegalArgumentException("retryRatio must not be negative but was " + retryRatio);
+    }
+    if (maxRetries < 0) {
+      throw new IllegalArgumentException("maxRetries must not be negative but was " + maxRetries);
+    }
+    this.retryRatio = retryRatio;
+    this.maxRetries = maxRetries;
+    this.balance = maxRetries;
+  }
+
+  /**
+   * @return the max number of retries per request
+   */
+  public double getRetryRatio() {
+    return retryRatio;
+  }
+
+  /**
+   * @return the max number of retries that can be saved up
+   */
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * @return the number of retries currently allowed
+   */
+  public synchronized double getBalance() {
+    return balance;
+  }
+
+  synchronized void requestSent() {
+    balance = Math.min(maxRetries, balance + retryRatio);
+  }
+
+  /**
+   * @return true if a retry may be made (and is then taken from the budget), false if the budget is exhausted
+   */
+  synchronized boolean tryRetry() {
+    if (balance < 1) {
+      return false;
+    }
+    balance -= 1;
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "retryRatio=" + retryRatio + ", maxRetries=" + maxRetries + ", balance=" + getBalance();
+  }
+}
@@ -0,0 +1,222 @@
+package se.alipsa.simplerest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.net.ssl.SSLHandshakeException;
+
+/**
+ * Decides if and when a failed call is retried, enable it with {@link RestClient#setRetryPolicy(RetryPolicy)}.
+ * <p>
+ * A call is retried when it fails with an IOException (e.g. a refused or reset connection) or the server responds
+ * with one of the retryable status codes (by default 408, 429, 500, 502, 503 and 504), up to max attempts.
+ * Only idempotent requests (see {@link RequestMethod#isIdempotent(String)}) with a body that can be resent
+ * are retried unless non idempotent retries are enabled.
+ * The delay before a retry is chosen at random between zero and an exponentially growing backoff
+ * ("full jitter") so that clients failing at the same time do not retry at the same time.
+ * A Retry-After header from the server is honored; if it asks for a longer delay than the max delay, the
+ * response is returned rather than retried. The retries of the client are capped by a {@link RetryBudget}.
+ * <p>
+ * Subclass and override {@link #isRetryable(Request, int)}, {@link #isRetryable(Request, IOException)} or
+ * {@link #backoff(int)} to customize the policy.
+ */
+public class RetryPolicy {
+
+  /** The status codes retried by default */
+  public static final Set<Integer> DEFAULT_RETRY_STATUS = Set.of(408, 429, 500, 502, 503, 504);
+
+  private final int maxAttempts;
+  private final Duration baseDelay;
+  private final Duration maxDelay;
+  private final Set<Integer> retryStatus;
+  private final boolean retryNonIdempotent;
+  private final RetryBudget budget;
+
+  /**
+   * Create a retry policy retrying idempotent requests with a retry budget of 10% of the requests
+   * (with up to 10 retries saved up).
+   *
+   * @param maxAttempts the max number of attempts, including the first one, e.g. 3 for at most 2 retries
+   * @param baseDelay the backoff of the first retry, it is doubled for each subsequent retry
+   * @param maxDelay the max backoff
+   */
+  public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay) {
+    this(maxAttempts, baseDelay, maxDelay, DEFAULT_RETRY_STATUS, false, new RetryBudget(0.1, 10));
+  }
+
+  private RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay, Set<Integer> retryStatus,
+                      boolean retryNonIdempotent, RetryBudget budget) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("maxAttempts must be at least 1 but was " + maxAttempts);
+    }
+    this.maxAttempts = maxAttempts;
+    this.baseDelay = baseDelay;
+    this.maxDelay = maxDelay;
+    this.retryStatus = Set.copyOf(retryStatus);
+    this.retryNonIdempotent = retryNonIdempotent;
+    this.budget = budget;
+  }
+
+  /**
+   * @param retryStatus the response codes to retry
+   * @return a copy of this policy retrying the response codes given
+   */
+  public RetryPolicy withRetryStatus(Set<Integer> retryStatus) {
+    return new RetryPolicy(maxAttempts, baseDelay, maxDelay, retryStatus, retryNonIdempotent, budget);
+  }
+
+  /**
+   * @param retryNonIdempotent true to also retry POST (and other non idempotent) requests. Only do this if the
+   *                           server can handle duplicate requests, e.g. by using an idempotency key.
+   * @return a copy of this policy retrying non idempotent requests as specified
+   */
+  public RetryPolicy withRetryNonIdempotent(boolean retryNonIdempotent) {
+    return new RetryPolicy(maxAttempts, baseDelay, maxDelay, retryStatus, retryNonIdempotent, budget);
+  }
+
+  /**
+   * @param budget the budget capping the retries or null for no cap. Note that the budget is shared by all
+   *               clients using the policy.
+   * @return a copy of this policy using the budget given
+   */
+  public RetryPolicy withBudget(RetryBudget budget) {
+    return new RetryPolicy(maxAttempts, baseDelay, maxDelay, retryStatus, retryNonIdempotent, budget);
+  }
+
+  /**
+   * @return the max number of attempts, including the first one
+   */
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @return the backoff of the first retry
+   */
+  public Duration getBaseDelay() {
+    return baseDelay;
+  }
+
+  /**
+   * @return the max backoff (and the max Retry-After delay honored)
+   */
+  public Duration getMaxDelay() {
+    return maxDelay;
+  }
+
+  /**
+   * @return the response codes retried
+   */
+  public Set<Integer> getRetryStatus() {
+    return retryStatus;
+  }
+
+  /**
+   * @return true if non idempotent requests are retried
+   */
+  public boolean isRetryNonIdempotent() {
+    return retryNonIdempotent;
+  }
+
+  /**
+   * @return the budget capping the retries or null if retries are not capped
+   */
+  public RetryBudget getBudget() {
+    return budget;
+  }
+
+  /**
+   * @param request the request that was sent
+   * @param responseCode the response code from the server
+   * @return true if the request should be retried
+   */
+  public boolean isRetryable(Request request, int responseCode) {
+    return retryStatus.contains(responseCode) && canResend(request);
+  }
+
+  /**
+   * @param request the request that failed
+   * @param e the exception thrown when sending the request or waiting for the response
+   * @return true if the request should be retried
+   */
+  public boolean isRetryable(Request request, IOException e) {
+    if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+      // the calling thread was interrupted, it wants us to stop
+      return false;
+    }
+    if (e instanceof UnknownHostException || e instanceof MalformedURLException || e instanceof SSLHandshakeException) {
+      // retrying will not change the outcome
+      return false;
+    }
+    return canResend(request);
+  }
+
+  private boolean canResend(Request request) {
+    RequestBody body = request.getBody();
+    return (retryNonIdempotent || RequestMethod.isIdempotent(request.getMethod()))
+        && (body == null || body.isRepeatable());
+  }
+
+  /**
+   * @param retry the retry number, 1 for the first retry
+   * @return the delay before the retry, a random duration between 0 and min(max delay, base delay * 2^(retry-1))
+   */
+  public Duration backoff(int retry) {
+    long backoff = (long) Math.min(maxDelay.toMillis(), baseDelay.toMillis() * Math.pow(2, retry - 1));
+    return Duration.ofMillis(backoff <= 0 ? 0 : ThreadLocalRandom.current().nextLong(backoff + 1));
+  }
+
+  /**
+   * @param retry the retry number, 1 for the first retry
+   * @param retryAfter the value of the Retry-After header or null if there was none
+   * @return the delay before the retry or null if the server asked for a longer delay than the max delay
+   */
+  Duration delay(int retry, String retryAfter) {
+    long retryAfterMillis = retryAfterMillis(retryAfter, System.currentTimeMillis());
+    if (retryAfterMillis < 0) {
+      return backoff(retry);
+    }
+    if (retryAfterMillis > maxDelay.toMillis()) {
+      return null;
+    }
+    return Duration.ofMillis(retryAfterMillis);
+  }
+
+  /**
+   * @param retryAfter the Retry-After header value, either a number of seconds or a http date
+   * @param now the current time in millis
+   * @return the number of millis to wait or -1 if the value is missing or invalid
+   */
+  static long retryAfterMillis(String retryAfter, long now) {
+    if (retryAfter == null || retryAfter.isBlank()) {
+      return -1;
+    }
+    String value = retryAfter.trim();
+    try {
+      long seconds = Long.parseLong(value);
+      return seconds < 0 ? -1 : seconds * 1000;
+    } catch (NumberFormatException e) {
+      // not a number of seconds, try a date
+    }
+    try {
+      long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+      return Math.max(0, at - now);
+    } catch (DateTimeParseException e) {
+      return -1;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "maxAttempts=" + maxAttempts + ", baseDelay=" + baseDelay + ", maxDelay=" + maxDelay
+        + ", retryStatus=" + retryStatus + ", retryNonIdempotent=" + retryNonIdempotent + ", budget=" + budget;
+  }
+}
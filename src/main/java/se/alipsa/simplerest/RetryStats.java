@@ -0,0 +1,66 @@
+package se.alipsa.simplerest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters showing how often the calls of a {@link RestClient} are retried, see
+ * {@link RestClient#setRetryPolicy(RetryPolicy)}.
+ */
+public class RetryStats {
+
+  private final Map<String, LongAdder> retriesByHost = new ConcurrentHashMap<>();
+  private final AtomicLong budgetExhausted = new AtomicLong();
+
+  void retried(String host) {
+    retriesByHost.computeIfAbsent(host, h -> new LongAdder()).increment();
+  }
+
+  void budgetExhausted() {
+    budgetExhausted.incrementAndGet();
+  }
+
+  /**
+   * @return the total number of retries
+   */
+  public long getRetries() {
+    long retries = 0;
+    for (LongAdder count : retriesByHost.values()) {
+      retries += count.sum();
+    }
+    return retries;
+  }
+
+  /**
+   * @param host the host name, e.g. api.example.com
+   * @return the number of retries of calls to the host
+   */
+  public long getRetries(String host) {
+    LongAdder count = retriesByHost.get(host);
+    return count == null ? 0 : count.sum();
+  }
+
+  /**
+   * @return the number of retries per host (sorted by host name)
+   */
+  public Map<String, Long> getRetriesByHost() {
+    Map<String, Long> retries = new TreeMap<>();
+    retriesByHost.forEach((host, count) -> retries.put(host, count.sum()));
+    return retries;
+  }
+
+  /**
+   * @return the number of retries not made because the retry budget was exhausted
+   */
+  public long getBudgetExhausted() {
+    return budgetExhausted.get();
+  }
+
+  @Override
+  public String toString() {
+    return "retries=" + getRetriesByHost() + ", budgetExhausted=" + getBudgetExhausted();
+  }
+}
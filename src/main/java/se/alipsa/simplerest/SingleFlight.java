@@ -0,0 +1,105 @@
+package se.alipsa.simplerest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets concurrent identical requests share one in-flight call: the first caller executes the call and
+ * the callers arriving while it is running wait for, and get a copy of, its response.
+ */
+final class SingleFlight {
+
+  private final Map<String, CompletableFuture<Response>> inFlight = new ConcurrentHashMap<>();
+  private final AtomicLong shared = new AtomicLong();
+
+  /** A call producing a response */
+  interface Call {
+    Response execute() throws RestException;
+  }
+
+  /**
+   * @return the key identifying identical requests, the method, url and all headers (names case-insensitive)
+   */
+  static String key(String method, String url, Map<String, String> headers) {
+    Map<String, String> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    sorted.putAll(headers);
+    StringBuilder key = new StringBuilder(method).append(' ').append(url);
+    sorted.forEach((name, value) -> key.append('\n').append(name.toLowerCase()).append(": ").append(value));
+    return key.toString();
+  }
+
+  /**
+   * @param key the key of the request, see {@link #key(String, String, Map)}
+   * @param call the call to make unless an identical one is in flight
+   * @param timeout the max time to wait for an identical call in flight or null for no limit
+   * @return the response of the call or a copy of the response of the identical call
+   */
+  Response execute(String key, Call call, Duration timeout) throws RestException {
+    CompletableFuture<Response> own = new CompletableFuture<>();
+    CompletableFuture<Response> running = inFlight.putIfAbsent(key, own);
+    if (running != null) {
+      shared.incrementAndGet();
+      return await(running, timeout).copy();
+    }
+    try {
+      Response response = call.execute();
+      own.complete(response);
+      // the response in the future stays untouched, the callers get their own (mutable) copies
+      return response.copy();
+    } catch (RestException | RuntimeException | Error e) {
+      own.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, own);
+    }
+  }
+
+  private static Response await(CompletableFuture<Response> running, Duration timeout) throws RestException {
+    try {
+      return timeout == null ? running.get() : running.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      // the call in flight may have been made without a timeout, this caller still keeps its own deadline
+      throw new RestTimeoutException("Timed out after " + timeout.toMillis()
+          + " ms waiting for an identical request in flight", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RestException("Interrupted while waiting for an identical request in flight", e);
+    } catch (ExecutionException e) {
+      // the exception of the call is thrown by all the callers sharing it at once, so it is left untouched and
+      // each caller gets its own exception (with its own stack) wrapping it
+      Throwable cause = e.getCause();
+      if (cause instanceof Error error) {
+        throw error;
+      }
+      String message = cause.getMessage();
+      RestException failure;
+      if (cause instanceof RestTimeoutException) {
+        failure = new RestTimeoutException(message, cause);
+      } else if (cause instanceof CircuitBreakerOpenException open) {
+        failure = new CircuitBreakerOpenException(message, open.getHost());
+      } else if (cause instanceof LimitExceededException limit) {
+        failure = new LimitExceededException(message, limit.getHost());
+      } else {
+        failure = new RestException(message, cause);
+      }
+      if (failure.getCause() == null) {
+        failure.initCause(cause);
+      }
+      throw failure;
+    }
+  }
+
+  /**
+   * @return the number of calls that shared the response of an identical call instead of calling the server
+   */
+  long getShared() {
+    return shared.get();
+  }
+}
@@ -0,0 +1,116 @@
+package se.alipsa.simplerest;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A finished span handed to the {@link SpanExporter}: a CLIENT span for each request sent, and an INTERNAL span
+ * for each conversion of a json response into a java object.
+ * <p>
+ * The attributes follow the OpenTelemetry semantic conventions for http clients (http.request.method,
+ * server.address, url.template, http.response.status_code, http.request.body.size, http.response.body.size,
+ * error.type), the phases of the request are added as simplerest.connect_nanos,
+ * simplerest.time_to_first_byte_nanos and simplerest.body_read_nanos (when known).
+ */
+public final class SpanData {
+
+  /** The kind of span */
+  public enum Kind {
+    /** An outgoing request */
+    CLIENT,
+    /** Work done in the client, e.g. the json conversion */
+    INTERNAL
+  }
+
+  private final String name;
+  private final Kind kind;
+  private final TraceContext context;
+  private final String parentSpanId;
+  private final Instant start;
+  private final Duration duration;
+  private final Map<String, Object> attributes;
+  private final Throwable exception;
+
+  SpanData(String name, Kind kind, TraceContext context, String parentSpanId, Instant start, Duration duration,
+           Map<String, Object> attributes, Throwable exception) {
+    this.name = name;
+    this.kind = kind;
+    this.context = context;
+    this.parentSpanId = parentSpanId;
+    this.start = start;
+    this.duration = duration;
+    this.attributes = Collections.unmodifiableMap(attributes);
+    this.exception = exception;
+  }
+
+  /**
+   * @return the name of the span, e.g. GET /users/{id}
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the kind of span
+   */
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * @return the trace id, span id, flags and trace state of the span
+   */
+  public TraceContext getContext() {
+    return context;
+  }
+
+  /**
+   * @return the span id of the parent span or null if this is the root span of the trace
+   */
+  public String getParentSpanId() {
+    return parentSpanId;
+  }
+
+  /**
+   * @return the time the span started
+   */
+  public Instant getStart() {
+    return start;
+  }
+
+  /**
+   * @return the duration of the span
+   */
+  public Duration getDuration() {
+    return duration;
+  }
+
+  /**
+   * @return an unmodifiable map of the attributes of the span
+   */
+  public Map<String, Object> getAttributes() {
+    return attributes;
+  }
+
+  /**
+   * @return the exception that made the span fail or null
+   */
+  public Throwable getException() {
+    return exception;
+  }
+
+  /**
+   * @return true if the span failed, i.e. an exception was thrown or the server responded with an error status
+   */
+  public boolean isError() {
+    return attributes.containsKey("error.type");
+  }
+
+  @Override
+  public String toString() {
+    return kind + " " + name + " " + context + (parentSpanId == null ? "" : " parent=" + parentSpanId)
+        + " " + duration + " " + attributes;
+  }
+}
@@ -0,0 +1,18 @@
+package se.alipsa.simplerest;
+
+/**
+ * Receives the finished spans of the traced calls, see {@link Tracing}. Implement it to hand the spans to a
+ * tracing backend, e.g. by recreating them with the OpenTelemetry span builder, or to collect them in memory
+ * in a test.
+ * <p>
+ * The exporter is called from the thread finishing the span so it must be thread safe and quick.
+ * Exceptions thrown by the exporter are ignored.
+ */
+@FunctionalInterface
+public interface SpanExporter {
+
+  /**
+   * @param span the finished span
+   */
+  void export(SpanData span);
+}
@@ -0,0 +1,26 @@
+package se.alipsa.simplerest;
+
+/**
+ * Supplies the bearer tokens sent in the Authorization header of the calls of a {@link RestClient}, see
+ * {@link RestClient#setTokenProvider(TokenProvider)}. E.g. the {@link ClientCredentialsTokenProvider} fetching and
+ * caching OAuth2 access tokens.
+ */
+public interface TokenProvider {
+
+  /**
+   * Called for each call, so it should return a cached token without blocking whenever possible.
+   *
+   * @return the token to send (without the Bearer prefix)
+   * @throws RestException if no token could be obtained
+   */
+  String getToken() throws RestException;
+
+  /**
+   * Called when the server rejected the token given with a 401 Unauthorized, before the call is retried with the
+   * token returned by the next call to {@link #getToken()}. The default does nothing.
+   *
+   * @param token the rejected token
+   */
+  default void invalidate(String token) {
+  }
+}
@@ -0,0 +1,194 @@
+package se.alipsa.simplerest;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The W3C trace context of a span: the trace id, the span id, the sampled flag and the vendor specific trace
+ * state, as propagated in the traceparent and tracestate headers
+ * (see <a href="https://www.w3.org/TR/trace-context/">https://www.w3.org/TR/trace-context/</a>).
+ * <p>
+ * The ids are the lower case hex strings also used by OpenTelemetry, so a context can be created from
+ * an OpenTelemetry SpanContext with
+ * <code>TraceContext.of(ctx.getTraceId(), ctx.getSpanId(), ctx.isSampled(), null)</code>.
+ */
+public final class TraceContext {
+
+  /** The name of the header carrying the trace id, span id and flags */
+  public static final String TRACEPARENT = "traceparent";
+  /** The name of the header carrying the vendor specific trace state */
+  public static final String TRACESTATE = "tracestate";
+
+  private static final String INVALID_TRACE_ID = "00000000000000000000000000000000";
+  private static final String INVALID_SPAN_ID = "0000000000000000";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final String traceId;
+  private final String spanId;
+  private final boolean sampled;
+  private final String traceState;
+  private final String traceparent;
+
+  private TraceContext(String traceId, String spanId, boolean sampled, String traceState) {
+    this.traceId = traceId;
+    this.spanId = spanId;
+    this.sampled = sampled;
+    this.traceState = traceState;
+    this.traceparent = "00-" + traceId + "-" + spanId + (sampled ? "-01" : "-00");
+  }
+
+  /**
+   * Create a trace context.
+   *
+   * @param traceId the trace id, 32 lower case hex characters, not all zero
+   * @param spanId the span id, 16 lower case hex characters, not all zero
+   * @param sampled true if the span is recorded
+   * @param traceState the vendor specific trace state or null
+   * @return the trace context
+   * @throws IllegalArgumentException if the trace id or span id is invalid
+   */
+  public static TraceContext of(String traceId, String spanId, boolean sampled, String traceState) {
+    if (!isId(traceId, 32) || INVALID_TRACE_ID.equals(traceId)) {
+      throw new IllegalArgumentException("Invalid trace id: " + traceId);
+    }
+    if (!isId(spanId, 16) || INVALID_SPAN_ID.equals(spanId)) {
+      throw new IllegalArgumentException("Invalid span id: " + spanId);
+    }
+    return new TraceContext(traceId, spanId, sampled, emptyToNull(traceState));
+  }
+
+  /**
+   * Parse the traceparent and tracestate headers.
+   *
+   * @param traceparent the value of the traceparent header, e.g.
+   *                    00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01
+   * @param tracestate the value of the tracestate header or null
+   * @return the trace context or null if the traceparent is missing or invalid
+   */
+  public static TraceContext parse(String traceparent, String tracestate) {
+    if (traceparent == null) {
+      return null;
+    }
+    String value = traceparent.trim();
+    // version-traceId-spanId-flags, later versions may append fields
+    if (value.length() < 55 || value.charAt(2) != '-' || value.charAt(35) != '-' || value.charAt(52) != '-') {
+      return null;
+    }
+    String version = value.substring(0, 2);
+    if (!isId(version, 2) || "ff".equals(version) || ("00".equals(version) && value.length() != 55)
+        || (value.length() > 55 && value.charAt(55) != '-')) {
+      return null;
+    }
+    String flags = value.substring(53, 55);
+    if (!isId(flags, 2)) {
+      return null;
+    }
+    try {
+      return of(value.substring(3, 35), value.substring(36, 52), (Integer.parseInt(flags, 16) & 1) == 1,
+          tracestate);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param sampled true if the trace is recorded
+   * @return the context of the root span of a new trace
+   */
+  static TraceContext root(boolean sampled) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return new TraceContext(hex(random.nextLong(), random.nextLong() | 1), hex(random.nextLong() | 1),
+        sampled, null);
+  }
+
+  /**
+   * @return the context of a new span in the same trace with this span as parent
+   */
+  TraceContext child() {
+    return new TraceContext(traceId, hex(ThreadLocalRandom.current().nextLong() | 1), sampled, traceState);
+  }
+
+  /**
+   * @return the trace id, 32 lower case hex characters
+   */
+  public String getTraceId() {
+    return traceId;
+  }
+
+  /**
+   * @return the span id, 16 lower case hex characters
+   */
+  public String getSpanId() {
+    return spanId;
+  }
+
+  /**
+   * @return true if the span is recorded
+   */
+  public boolean isSampled() {
+    return sampled;
+  }
+
+  /**
+   * @return the vendor specific trace state or null if there is none
+   */
+  public String getTraceState() {
+    return traceState;
+  }
+
+  /**
+   * @return the value of the traceparent header for this context
+   */
+  public String toTraceparent() {
+    return traceparent;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof TraceContext other)) {
+      return false;
+    }
+    return traceparent.equals(other.traceparent) && Objects.equals(traceState, other.traceState);
+  }
+
+  @Override
+  public int hashCode() {
+    return traceparent.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return traceState == null ? traceparent : traceparent + " " + traceState;
+  }
+
+  private static boolean isId(String value, int length) {
+    if (value == null || value.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String emptyToNull(String value) {
+    return value == null || value.isBlank() ? null : value.trim();
+  }
+
+  private static String hex(long... values) {
+    char[] chars = new char[values.length * 16];
+    int pos = 0;
+    for (long value : values) {
+      for (int shift = 60; shift >= 0; shift -= 4) {
+        chars[pos++] = HEX[(int) (value >>> shift) & 0xf];
+      }
+    }
+    return new String(chars);
+  }
+}
@@ -0,0 +1,264 @@
+package se.alipsa.simplerest;
+
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Traces the calls of a {@link RestClient}, enable it with {@link RestClient#setTracing(Tracing)}.
+ * <p>
+ * Each request sent (i.e. each attempt of a retried or hedged call) gets a CLIENT span and its trace context is
+ * propagated to the server in the W3C traceparent and tracestate headers. The conversion of a json response into a
+ * java object gets an INTERNAL span of its own, a child of the CLIENT span of the request. The finished spans are
+ * handed to the {@link SpanExporter}.
+ * <p>
+ * The parent of the spans is the trace context of a traceparent header set on the request, or else the current
+ * context given by {@link #withParent(Supplier)}, e.g. to continue the traces of OpenTelemetry:
+ * <pre>
+ * new Tracing(exporter).withParent(() -&gt; {
+ *   SpanContext ctx = Span.current().getSpanContext();
+ *   return ctx.isValid() ? TraceContext.of(ctx.getTraceId(), ctx.getSpanId(), ctx.isSampled(), null) : null;
+ * });
+ * </pre>
+ * Without a parent a new trace is started for a share of the calls given by the sample ratio, with a parent its
+ * sampled flag decides. Calls that are not sampled create no spans (and, without a parent, add no headers).
+ */
+public final class Tracing {
+
+  private final SpanExporter exporter;
+  private final double sampleRatio;
+  private final Supplier<TraceContext> parent;
+
+  /**
+   * Trace all calls.
+   *
+   * @param exporter the exporter receiving the finished spans
+   */
+  public Tracing(SpanExporter exporter) {
+    this(exporter, 1.0, () -> null);
+  }
+
+  private Tracing(SpanExporter exporter, double sampleRatio, Supplier<TraceContext> parent) {
+    if (exporter == null) {
+      throw new IllegalArgumentException("exporter must not be null");
+    }
+    if (!(sampleRatio >= 0 && sampleRatio <= 1)) {
+      throw new IllegalArgumentException("sampleRatio must be >= 0 and <= 1 but was " + sampleRatio);
+    }
+    this.exporter = exporter;
+    this.sampleRatio = sampleRatio;
+    this.parent = parent == null ? () -> null : parent;
+  }
+
+  /**
+   * @param sampleRatio the share of the calls without a parent that start a new trace, e.g. 0.01 for 1%
+   * @return a new tracing with the sample ratio given
+   */
+  public Tracing withSampleRatio(double sampleRatio) {
+    return new Tracing(exporter, sampleRatio, parent);
+  }
+
+  /**
+   * @param parent supplies the current trace context (or null if there is none) of the thread making the call
+   * @return a new tracing using the parent given
+   */
+  public Tracing withParent(Supplier<TraceContext> parent) {
+    return new Tracing(exporter, sampleRatio, parent);
+  }
+
+  /**
+   * @return the exporter receiving the finished spans
+   */
+  public SpanExporter getExporter() {
+    return exporter;
+  }
+
+  /**
+   * @return the share of the calls without a parent that start a new trace
+   */
+  public double getSampleRatio() {
+    return sampleRatio;
+  }
+
+  /**
+   * Send the request in a CLIENT span (if sampled) propagating the trace context to the server.
+   *
+   * @param request the request to send
+   * @param listener the metrics listener of the client
+   * @param exchange sends the request to the server
+   * @return the response
+   */
+  EngineResponse execute(Request request, MetricsListener listener, MeteredCall.Exchange exchange)
+      throws IOException {
+    Map<String, String> headers = request.getHeaders();
+    TraceContext parentContext = TraceContext.parse(HeaderIndex.find(headers, TraceContext.TRACEPARENT),
+        HeaderIndex.find(headers, TraceContext.TRACESTATE));
+    boolean headerSet = parentContext != null;
+    if (parentContext == null) {
+      parentContext = currentContext();
+    }
+    if (parentContext == null ? !sample() : !parentContext.isSampled()) {
+      if (parentContext != null && !headerSet) {
+        request = propagate(request, parentContext);
+      }
+      return listener == MetricsListener.NONE ? exchange.execute(request)
+          : MeteredCall.execute(request, listener, exchange);
+    }
+    TraceContext context = parentContext == null ? TraceContext.root(true) : parentContext.child();
+    String parentSpanId = parentContext == null ? null : parentContext.getSpanId();
+    request.traced(context);
+    return MeteredCall.execute(propagate(request, context),
+        new TracingListener(this, listener, context, parentSpanId, Instant.now(), null), exchange);
+  }
+
+  /**
+   * @param listener the metrics listener of the client
+   * @return a listener tracing the json conversions and forwarding to the metrics listener
+   */
+  MetricsListener responseListener(MetricsListener listener) {
+    return responseListener(listener, null);
+  }
+
+  /**
+   * @param listener the metrics listener of the client
+   * @param clientContext the trace context of the CLIENT span of the request or null if it was not traced
+   * @return a listener tracing the json conversions of the response as children of the CLIENT span
+   */
+  MetricsListener responseListener(MetricsListener listener, TraceContext clientContext) {
+    return new TracingListener(this, listener, null, null, null, clientContext);
+  }
+
+  private TraceContext currentContext() {
+    try {
+      return parent.get();
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  private boolean sample() {
+    return sampleRatio >= 1 || (sampleRatio > 0 && ThreadLocalRandom.current().nextDouble() < sampleRatio);
+  }
+
+  private void export(SpanData span) {
+    try {
+      exporter.export(span);
+    } catch (RuntimeException e) {
+      // a broken exporter must not break the call
+    }
+  }
+
+  private static Request propagate(Request request, TraceContext context) {
+    return request.withHeader(TraceContext.TRACEPARENT, context.toTraceparent())
+        .withHeader(TraceContext.TRACESTATE, context.getTraceState());
+  }
+
+  private static Map<String, Object> tagAttributes(MetricTags tags) {
+    Map<String, Object> attributes = new LinkedHashMap<>();
+    attributes.put("http.request.method", tags.getMethod());
+    attributes.put("server.address", tags.getHost());
+    attributes.put("url.template", tags.getUriTemplate());
+    return attributes;
+  }
+
+  @Override
+  public String toString() {
+    return "sampleRatio=" + sampleRatio + ", exporter=" + exporter;
+  }
+
+  /** The trace context of the CLIENT span of the last attempt to send a request, shared by the copies of it */
+  static final class CallSpan {
+
+    private volatile TraceContext context;
+
+    void record(TraceContext context) {
+      this.context = context;
+    }
+
+    TraceContext context() {
+      return context;
+    }
+  }
+
+  /** Exports the spans and forwards the metrics to the listener of the client */
+  private static final class TracingListener implements MetricsListener {
+
+    private final Tracing tracing;
+    private final MetricsListener delegate;
+    private final TraceContext context;
+    private final String parentSpanId;
+    private final Instant start;
+    /** the parent of the deserialization spans, the CLIENT span of the request or null for the current context */
+    private final TraceContext clientContext;
+
+    TracingListener(Tracing tracing, MetricsListener delegate, TraceContext context, String parentSpanId,
+                    Instant start, TraceContext clientContext) {
+      this.tracing = tracing;
+      this.delegate = delegate;
+      this.context = context;
+      this.parentSpanId = parentSpanId;
+      this.start = start;
+      this.clientContext = clientContext;
+    }
+
+    @Override
+    public void onRequest(RequestMetrics metrics) {
+      if (context != null) {
+        MetricTags tags = metrics.getTags();
+        Map<String, Object> attributes = tagAttributes(tags);
+        if (metrics.getStatus() >= 0) {
+          attributes.put("http.response.status_code", metrics.getStatus());
+        }
+        attributes.put("http.request.body.size", metrics.getBytesSent());
+        attributes.put("http.response.body.size", metrics.getBytesReceived());
+        putNanos(attributes, "simplerest.connect_nanos", metrics.getConnectTime());
+        putNanos(attributes, "simplerest.time_to_first_byte_nanos", metrics.getTimeToFirstByte());
+        putNanos(attributes, "simplerest.body_read_nanos", metrics.getBodyReadTime());
+        if (metrics.getException() != null) {
+          attributes.put("error.type", metrics.getException().getClass().getName());
+        } else if (metrics.getStatus() >= 400) {
+          attributes.put("error.type", String.valueOf(metrics.getStatus()));
+        }
+        tracing.export(new SpanData(tags.getMethod() + " " + tags.getUriTemplate(), SpanData.Kind.CLIENT,
+            context, parentSpanId, start, metrics.getTotalTime(), attributes, metrics.getException()));
+      }
+      delegate.onRequest(metrics);
+    }
+
+    @Override
+    public void onDeserialization(MetricTags tags, Type type, Duration duration, Throwable failure) {
+      TraceContext parentContext = clientContext != null ? clientContext : tracing.currentContext();
+      if (parentContext == null ? tracing.sample() : parentContext.isSampled()) {
+        Map<String, Object> attributes = tagAttributes(tags);
+        String typeName = type instanceof JavaType javaType ? javaType.toCanonical() : type.getTypeName();
+        attributes.put("simplerest.type", typeName);
+        if (failure != null) {
+          attributes.put("error.type", failure.getClass().getName());
+        }
+        tracing.export(new SpanData("deserialize " + typeName, SpanData.Kind.INTERNAL,
+            parentContext == null ? TraceContext.root(true) : parentContext.child(),
+            parentContext == null ? null : parentContext.getSpanId(), Instant.now().minus(duration), duration,
+            attributes, failure));
+      }
+      delegate.onDeserialization(tags, type, duration, failure);
+    }
+
+    @Override
+    public String uriTemplate(String url) {
+      return delegate.uriTemplate(url);
+    }
+
+    private static void putNanos(Map<String, Object> attributes, String name, Duration duration) {
+      if (duration != null) {
+        attributes.put(name, duration.toNanos());
+      }
+    }
+  }
+}
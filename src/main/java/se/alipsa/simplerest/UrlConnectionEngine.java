@@ -0,0 +1,240 @@
+package se.alipsa.simplerest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A {@link HttpEngine} based on HttpURLConnection. This is the default engine of the RestClient.
+ * It speaks HTTP/1.1 and uses one connection per in-flight request.
+ * <p>
+ * By default, the connection is disconnected after each request which means that every call pays for a
+ * new TCP (and TLS) handshake. Enable keep-alive with {@link #setKeepAlive(boolean)} to drain and close the
+ * response streams instead so that the connection is returned to the JDK keep-alive cache and reused.
+ * <p>
+ * The keep-alive cache is shared by all HttpURLConnections in the JVM and is configured with the system properties
+ * http.maxConnections (the max number of idle connections kept per host, 5 by default) and, on java 20 and later,
+ * http.keepAlive.time.server and http.keepAlive.time.proxy (the idle timeout in seconds). The JDK reads them only
+ * once, so they must be set (e.g. with -D on the command line) before the first connection is made.
+ */
+public class UrlConnectionEngine implements HttpEngine {
+
+  /** The max number of bytes left unread in a response that we drain to be able to reuse the connection */
+  private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+  /** The chunk size used when sending a body of unknown length */
+  private static final int CHUNK_SIZE = 8192;
+
+  private final SSLSocketFactory sslSocketFactory;
+  private final ConnectionStats connectionStats = new ConnectionStats();
+  private volatile boolean keepAlive;
+
+  /**
+   * Create a HttpURLConnection based engine.
+   *
+   * @param sslSocketFactory the socket factory to use for https connections
+   */
+  public UrlConnectionEngine(SSLSocketFactory sslSocketFactory) {
+    this.sslSocketFactory = new CountingSSLSocketFactory(sslSocketFactory, connectionStats);
+  }
+
+  /**
+   * @return true if connections are kept alive for reuse, false if they are disconnected after each request
+   */
+  public boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  /**
+   * @param keepAlive if true, the response streams are drained and closed after each request so that the
+   *                  connection can be reused, if false (the default) the connection is disconnected
+   */
+  public void setKeepAlive(boolean keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  /**
+   * @return counters for new and reused connections, only https connections are counted
+   */
+  public ConnectionStats getConnectionStats() {
+    return connectionStats;
+  }
+
+  @Override
+  public EngineResponse execute(Request request) throws IOException {
+    HttpURLConnection conn = openConnection(new URL(request.getUrl()));
+    applyTimeouts(conn, request);
+    Watchdog watchdog = Watchdog.start(request.getCallTimeout(), conn::disconnect);
+    request.onCancel(conn::disconnect);
+    try {
+      conn.setRequestMethod(request.getMethod());
+      request.getHeaders().forEach(conn::setRequestProperty);
+      RequestBody body = request.getBody();
+      if (body != null) {
+        conn.setDoOutput(true);
+        // without a streaming mode HttpURLConnection buffers the whole body in memory
+        long contentLength = body.contentLength();
+        if (contentLength >= 0) {
+          conn.setFixedLengthStreamingMode(contentLength);
+        } else {
+          conn.setChunkedStreamingMode(CHUNK_SIZE);
+        }
+        connect(conn, request);
+        try (OutputStream os = conn.getOutputStream()) {
+          body.writeTo(os);
+          os.flush();
+        }
+      } else {
+        connect(conn, request);
+      }
+      int responseCode = conn.getResponseCode();
+      if (conn instanceof HttpsURLConnection) {
+        connectionStats.requestSent();
+      }
+      return new UrlConnectionResponse(conn, responseCode, conn.getHeaderFields(), keepAlive, watchdog);
+    } catch (IOException e) {
+      watchdog.cancel();
+      conn.disconnect();
+      throw watchdog.translate(e);
+    } catch (RuntimeException e) {
+      watchdog.cancel();
+      conn.disconnect();
+      throw e;
+    }
+  }
+
+  private static void connect(HttpURLConnection conn, Request request) throws IOException {
+    if (!request.isTimed()) {
+      conn.connect();
+      return;
+    }
+    long start = System.nanoTime();
+    conn.connect();
+    request.connected(System.nanoTime() - start);
+  }
+
+  private static void applyTimeouts(HttpURLConnection conn, Request request) {
+    Duration callTimeout = request.getCallTimeout();
+    Duration connectTimeout = shortest(request.getConnectTimeout(), callTimeout);
+    if (connectTimeout != null) {
+      conn.setConnectTimeout(toMillis(connectTimeout));
+    }
+    Duration readTimeout = shortest(request.getReadTimeout(), callTimeout);
+    if (readTimeout != null) {
+      conn.setReadTimeout(toMillis(readTimeout));
+    }
+  }
+
+  static Duration shortest(Duration timeout, Duration other) {
+    if (timeout == null) {
+      return other;
+    }
+    return other == null || timeout.compareTo(other) <= 0 ? timeout : other;
+  }
+
+  private static int toMillis(Duration timeout) {
+    // 0 means no timeout for HttpURLConnection, so a (sub) millisecond timeout is rounded up
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeout.toMillis()));
+  }
+
+  HttpURLConnection openConnection(URL url) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    if (conn instanceof HttpsURLConnection) {
+      ((HttpsURLConnection) conn).setSSLSocketFactory(sslSocketFactory);
+    }
+    return conn;
+  }
+
+  private static class UrlConnectionResponse implements EngineResponse {
+
+    private final HttpURLConnection conn;
+    private final int responseCode;
+    private final Map<String, List<String>> headers;
+    private final boolean keepAlive;
+    private final Watchdog watchdog;
+    private BodyStream body;
+
+    UrlConnectionResponse(HttpURLConnection conn, int responseCode, Map<String, List<String>> headers,
+                          boolean keepAlive, Watchdog watchdog) {
+      this.conn = conn;
+      this.responseCode = responseCode;
+      this.headers = headers;
+      this.keepAlive = keepAlive;
+      this.watchdog = watchdog;
+    }
+
+    @Override
+    public int getResponseCode() {
+      return responseCode;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+      return headers;
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      if (body != null) {
+        return body;
+      }
+      try {
+        body = new BodyStream(watchdog.guard(conn.getInputStream()));
+      } catch (IOException e) {
+        InputStream errorStream = conn.getErrorStream();
+        if (errorStream == null) {
+          throw watchdog.translate(e);
+        }
+        body = new BodyStream(watchdog.guard(errorStream));
+      }
+      return body;
+    }
+
+    @Override
+    public void close() {
+      watchdog.cancel();
+      if (!keepAlive || watchdog.isExpired()) {
+        conn.disconnect();
+        return;
+      }
+      if (body != null && body.closed) {
+        return;
+      }
+      // Reading the body to the end and closing it hands the connection back to the keep-alive cache
+      try (InputStream is = getBody()) {
+        byte[] buffer = new byte[4096];
+        int drained = 0;
+        int n;
+        while (drained < MAX_DRAIN_BYTES && (n = is.read(buffer)) > 0) {
+          drained += n;
+        }
+      } catch (IOException e) {
+        // no body or a broken connection, in either case there is nothing to reuse
+        conn.disconnect();
+      }
+    }
+  }
+
+  private static class BodyStream extends FilterInputStream {
+
+    private boolean closed;
+
+    BodyStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+}
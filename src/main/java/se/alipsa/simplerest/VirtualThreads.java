@@ -0,0 +1,35 @@
+package se.alipsa.simplerest;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executor for the blocking work of the async and batch api.
+ * This is the java 17 version which uses a cached pool of platform (daemon) threads. On java 21 and later
+ * the version in META-INF/versions/21 of the multi-release jar is used instead, running each call
+ * on a virtual thread.
+ */
+final class VirtualThreads {
+
+  private static final AtomicInteger threadCount = new AtomicInteger();
+
+  private VirtualThreads() {
+    // utility class
+  }
+
+  /**
+   * @return true if the executor runs its tasks on virtual threads
+   */
+  static boolean isSupported() {
+    return false;
+  }
+
+  static ExecutorService newExecutor() {
+    return Executors.newCachedThreadPool(r -> {
+      Thread thread = new Thread(r, "simple-rest-async-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+}
@@ -0,0 +1,124 @@
+package se.alipsa.simplerest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Enforces the call timeout of a request: when the timeout expires the abort action (e.g. disconnecting the
+ * connection) is run, which makes any blocked write or read fail. Such failures are then reported as a
+ * {@link SocketTimeoutException}.
+ */
+final class Watchdog {
+
+  private static final Watchdog NONE = new Watchdog(null);
+
+  private final Duration timeout;
+  private final AtomicBoolean expired = new AtomicBoolean();
+  private volatile ScheduledFuture<?> task;
+
+  private Watchdog(Duration timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * @param timeout the call timeout or null if the call has no timeout
+   * @param abort the action aborting the call
+   * @return a started watchdog, call {@link #cancel()} when the call is done
+   */
+  static Watchdog start(Duration timeout, Runnable abort) {
+    if (timeout == null) {
+      return NONE;
+    }
+    Watchdog watchdog = new Watchdog(timeout);
+    watchdog.task = Scheduler.INSTANCE.schedule(() -> {
+      watchdog.expired.set(true);
+      abort.run();
+    }, Math.max(timeout.toNanos(), 1), TimeUnit.NANOSECONDS);
+    return watchdog;
+  }
+
+  /**
+   * Run a task on the watchdog thread after a delay, the task must be short and must not block.
+   *
+   * @param task the task to run
+   * @param delayNanos the delay before running the task
+   * @return the scheduled task, cancel it if it is no longer needed
+   */
+  static ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+    return Scheduler.INSTANCE.schedule(task, Math.max(delayNanos, 0), TimeUnit.NANOSECONDS);
+  }
+
+  boolean isExpired() {
+    return expired.get();
+  }
+
+  void cancel() {
+    ScheduledFuture<?> t = task;
+    if (t != null) {
+      t.cancel(false);
+    }
+  }
+
+  /**
+   * @param e the exception thrown by the call
+   * @return a SocketTimeoutException if the call failed because it was aborted by this watchdog, otherwise e
+   */
+  IOException translate(IOException e) {
+    if (!isExpired() || e instanceof SocketTimeoutException) {
+      return e;
+    }
+    SocketTimeoutException timeoutException = new SocketTimeoutException(
+        "Call timeout of " + timeout.toMillis() + " ms exceeded");
+    timeoutException.initCause(e);
+    return timeoutException;
+  }
+
+  /**
+   * @return the stream translating failures caused by the expiry of the call timeout
+   */
+  InputStream guard(InputStream in) {
+    if (this == NONE || in == null) {
+      return in;
+    }
+    return new FilterInputStream(in) {
+      @Override
+      public int read() throws IOException {
+        try {
+          return super.read();
+        } catch (IOException e) {
+          throw translate(e);
+        }
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        try {
+          return super.read(b, off, len);
+        } catch (IOException e) {
+          throw translate(e);
+        }
+      }
+    };
+  }
+
+  /** Lazily created so that clients not using call timeouts never start the thread */
+  private static final class Scheduler {
+    static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread t = new Thread(r, "simple-rest-watchdog");
+      t.setDaemon(true);
+      return t;
+    });
+
+    static {
+      // most calls complete in time, do not keep their cancelled tasks around until they would have expired
+      INSTANCE.setRemoveOnCancelPolicy(true);
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package se.alipsa.simplerest;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor for the blocking work of the async and batch api.
+ * This is the java 21 version which starts a new virtual thread for each call.
+ */
+final class VirtualThreads {
+
+  private VirtualThreads() {
+    // utility class
+  }
+
+  /**
+   * @return true if the executor runs its tasks on virtual threads
+   */
+  static boolean isSupported() {
+    return true;
+  }
+
+  static ExecutorService newExecutor() {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("simple-rest-virtual-", 1).factory());
+  }
+}
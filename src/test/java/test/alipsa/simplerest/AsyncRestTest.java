@@ -0,0 +1,280 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import se.alipsa.simplerest.Headers;
+import se.alipsa.simplerest.Response;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+import se.alipsa.simplerest.RestTimeoutException;
+import test.alipsa.simplerest.model.Company;
+import test.alipsa.simplerest.servlets.SimpleServlet;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncRestTest {
+
+  private static Server server;
+  private static String serverUrl;
+  private static final AtomicInteger running = new AtomicInteger();
+  private static final AtomicInteger maxRunning = new AtomicInteger();
+  private static final AtomicInteger gatedRequests = new AtomicInteger();
+  private static final CountDownLatch gate = new CountDownLatch(1);
+
+  /** Keeps track of how many requests are handled at the same time */
+  public static class ConcurrencyRecordingServlet extends SimpleServlet {
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(10);
+        super.service(req, resp);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        running.decrementAndGet();
+      }
+    }
+  }
+
+  /** Holds the requests until the gate is opened */
+  public static class GatedServlet extends SimpleServlet {
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      gatedRequests.incrementAndGet();
+      try {
+        gate.await(10, TimeUnit.SECONDS);
+        super.service(req, resp);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Responds after half a second, with the Authorization header for /slow/user */
+  public static class SlowServlet extends SimpleServlet {
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      try {
+        Thread.sleep(500);
+        if (req.getRequestURI().endsWith("/user")) {
+          resp.setContentType("text/plain");
+          resp.getWriter().print(req.getHeader("Authorization"));
+          return;
+        }
+        super.service(req, resp);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(SimpleServlet.class, "/simple/*");
+    context.addServlet(ConcurrencyRecordingServlet.class, "/recording/*");
+    context.addServlet(GatedServlet.class, "/gated/*");
+    context.addServlet(SlowServlet.class, "/slow/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  public void testAsyncVerbs() throws RestException, JsonProcessingException {
+    RestClient restClient = new RestClient();
+    Company company = restClient.getAsync(serverUrl + "simple").join().getObject(Company.class);
+    assertEquals("ABC", company.getName());
+    Company posted = restClient.postAsync(serverUrl + "simple", new Company("Creative Design", 0))
+        .join().getObject(Company.class);
+    assertEquals(191919, posted.getNumber());
+    Company put = restClient.putAsync(serverUrl + "simple", new Company("Creative Design", 191919))
+        .join().getObject(Company.class);
+    assertEquals("Creative Design", put.getName());
+    assertEquals(204, restClient.deleteAsync(serverUrl + "simple/company/123").join().getResponseCode());
+    assertEquals("27", restClient.headAsync(serverUrl + "simple").join().getHeader("Content-Length"));
+    assertEquals(200, restClient.optionsAsync(serverUrl + "simple").join().getResponseCode());
+  }
+
+  @Test
+  public void testMaxInFlight() throws RestException {
+    ExecutorService pool = Executors.newFixedThreadPool(10);
+    try {
+      RestClient restClient = new RestClient();
+      restClient.setMaxInFlight(2);
+      restClient.setAsyncExecutor(pool);
+      List<CompletableFuture<Response>> futures = new ArrayList<>();
+      for (int i = 0; i < 30; i++) {
+        futures.add(restClient.getAsync(serverUrl + "recording"));
+      }
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+      for (CompletableFuture<Response> future : futures) {
+        assertEquals(200, future.join().getResponseCode());
+      }
+      assertTrue(maxRunning.get() <= 2, "max running calls was " + maxRunning.get());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testGetAll() throws RestException, JsonProcessingException {
+    RestClient restClient = new RestClient();
+    List<String> urls = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      urls.add(serverUrl + "simple");
+    }
+    List<Response> responses = restClient.getAll(urls);
+    assertEquals(50, responses.size());
+    for (Response response : responses) {
+      assertEquals("ABC", response.getObject(Company.class).getName());
+    }
+    urls.add("http://localhost:1/nothing");
+    assertThrows(RestException.class, () -> restClient.getAll(urls));
+  }
+
+  @Test
+  public void testAsyncFailure() throws RestException {
+    RestClient restClient = new RestClient();
+    var future = restClient.getAsync("http://localhost:1/nothing");
+    CompletionException e = assertThrows(CompletionException.class, future::join);
+    assertInstanceOf(RestException.class, e.getCause());
+  }
+
+  @Test
+  public void testCoalesceRequests() throws RestException, JsonProcessingException, InterruptedException {
+    ExecutorService pool = Executors.newFixedThreadPool(20);
+    try {
+      RestClient restClient = new RestClient();
+      restClient.setCoalesceRequests(true);
+      restClient.setAsyncExecutor(pool);
+      List<CompletableFuture<Response>> futures = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        futures.add(restClient.getAsync(serverUrl + "gated"));
+      }
+      long deadline = System.currentTimeMillis() + 10_000;
+      while (restClient.getCoalescedRequests() < 19 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      gate.countDown();
+      Set<Response> responses = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (CompletableFuture<Response> future : futures) {
+        Response response = future.join();
+        assertEquals("ABC", response.getObject(Company.class).getName());
+        responses.add(response);
+      }
+      assertEquals(20, responses.size(), "each caller gets its own response");
+      assertEquals(1, gatedRequests.get());
+      assertEquals(19, restClient.getCoalescedRequests());
+
+      restClient.get(serverUrl + "gated");
+      assertEquals(2, gatedRequests.get(), "completed calls are not reused");
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testCoalescedFailureKeepsType() throws RestException {
+    ExecutorService pool = Executors.newFixedThreadPool(10);
+    try {
+      RestClient restClient = new RestClient();
+      restClient.setCoalesceRequests(true);
+      restClient.setAsyncExecutor(pool);
+      restClient.setCallTimeout(Duration.ofMillis(200));
+      List<CompletableFuture<Response>> futures = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        futures.add(restClient.getAsync(serverUrl + "slow"));
+      }
+      Set<Throwable> failures = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (CompletableFuture<Response> future : futures) {
+        CompletionException e = assertThrows(CompletionException.class, future::join);
+        assertInstanceOf(RestTimeoutException.class, e.getCause(), "the callers sharing the call get its exception");
+        assertEquals(0, e.getCause().getSuppressed().length);
+        failures.add(e.getCause());
+      }
+      assertTrue(restClient.getCoalescedRequests() > 0);
+      assertEquals(10, failures.size(), "each caller gets its own exception");
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testCoalescedWaitWithinCallTimeout() throws Exception {
+    RestClient restClient = new RestClient();
+    restClient.setCoalesceRequests(true);
+    CompletableFuture<Response> slow = restClient.getAsync(serverUrl + "slow");
+    Thread.sleep(100);
+    // the call in flight has no timeout, the identical call made now has one
+    restClient.setCallTimeout(Duration.ofMillis(100));
+    long start = System.nanoTime();
+    assertThrows(RestTimeoutException.class, () -> restClient.get(serverUrl + "slow"));
+    assertTrue(System.nanoTime() - start < Duration.ofMillis(400).toNanos(), "waits at most the call timeout");
+    assertEquals(1, restClient.getCoalescedRequests());
+    assertEquals(200, slow.join().getResponseCode());
+  }
+
+  @Test
+  public void testAuthenticatedNotCoalesced() throws Exception {
+    RestClient restClient = new RestClient();
+    restClient.setCoalesceRequests(true);
+    restClient.setDefaultHeaders(Headers.of("Authorization", "Bearer a"));
+    CompletableFuture<Response> first = restClient.getAsync(serverUrl + "slow/user");
+    Thread.sleep(100);
+    restClient.setDefaultHeaders(Headers.of("Authorization", "Bearer b"));
+    assertEquals("Bearer b", restClient.get(serverUrl + "slow/user").getPayload());
+    assertEquals("Bearer a", first.join().getPayload());
+    assertEquals(0, restClient.getCoalescedRequests());
+  }
+}
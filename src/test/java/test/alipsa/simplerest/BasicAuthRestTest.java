@@ -11,6 +11,10 @@ import org.eclipse.jetty.util.security.Password;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.Headers;
+import se.alipsa.simplerest.HttpEngine;
 import se.alipsa.simplerest.Response;
 import se.alipsa.simplerest.RestClient;
 import se.alipsa.simplerest.RestException;
@@ -21,17 +25,24 @@ import static org.junit.jupiter.api.Assertions.*;
 import static se.alipsa.simplerest.CommonHeaders.*;
 
 import java.util.Map;
+import java.util.function.Function;
 
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
 public class BasicAuthRestTest {
 
   private static Server server;
   private static String serverUrl;
-  private static RestClient restClient;
+  private final RestClient restClient;
 
   private static final String userName = "per";
   private static final String password = "secret";
 
 
+  public BasicAuthRestTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+  }
+
   @BeforeAll
   public static void startJetty() throws Exception {
     //System.out.println("Starting BasicAuth jetty server");
@@ -52,7 +63,6 @@ public class BasicAuthRestTest {
     }
     int port = connector.getLocalPort();
     serverUrl = String.format("http://%s:%d/",host,port);
-    restClient = new RestClient();
   }
 
   @AfterAll
@@ -138,6 +148,16 @@ public class BasicAuthRestTest {
     assertEquals("GET, HEAD, POST, PUT, DELETE, TRACE, OPTIONS", response.getHeader(ALLOW));
   }
 
+  @Test
+  public void defaultHeadersTest() throws RestException, JsonProcessingException {
+    restClient.setDefaultHeaders(Headers.basicAuth(userName, password));
+    assertEquals("ABC", restClient.get(serverUrl + "basic", Company.class).getName());
+    assertEquals(200, restClient.get(serverUrl + "basic").getResponseCode());
+    assertEquals(204, restClient.delete(serverUrl + "basic/company/123").getResponseCode());
+    assertThrows(RestException.class, () -> restClient.get(serverUrl + "basic", Headers.basicAuth(userName, "wrong")),
+        "the header of the call replaces the default header");
+  }
+
   private static SecurityHandler basicAuthConfig() {
 
     HashLoginService loginService = new HashLoginService();
@@ -0,0 +1,313 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static se.alipsa.simplerest.CommonHeaders.AUTHORIZATION;
+import static se.alipsa.simplerest.CommonHeaders.CACHE_CONTROL;
+import static se.alipsa.simplerest.CommonHeaders.ETAG;
+import static se.alipsa.simplerest.CommonHeaders.IF_MODIFIED_SINCE;
+import static se.alipsa.simplerest.CommonHeaders.IF_NONE_MATCH;
+import static se.alipsa.simplerest.CommonHeaders.LAST_MODIFIED;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.Headers;
+import se.alipsa.simplerest.HttpCache;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.Response;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+import test.alipsa.simplerest.model.Company;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class CacheTest {
+
+  private static Server server;
+  private static String serverUrl;
+  private final RestClient restClient;
+  private final Function<RestClient, HttpEngine> engineFactory;
+
+  /**
+   * Serves a company per path with the caching headers given by the path, e.g. /cached/etag/1,
+   * and counts the requests (and not modified responses) per path.
+   */
+  public static class CachingServlet extends HttpServlet {
+
+    static final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    static final Map<String, AtomicInteger> notModified = new ConcurrentHashMap<>();
+    private static final String LAST_MODIFIED_DATE = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      String path = req.getPathInfo();
+      requests.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+      String etag = "\"v1\"";
+      if (path.startsWith("/maxage")) {
+        resp.setHeader(CACHE_CONTROL, "max-age=60");
+      } else if (path.startsWith("/etag")) {
+        resp.setHeader(CACHE_CONTROL, "no-cache");
+        resp.setHeader(ETAG, etag);
+        if (etag.equals(req.getHeader(IF_NONE_MATCH))) {
+          notModified.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+          resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+          return;
+        }
+      } else if (path.startsWith("/lastmodified")) {
+        resp.setHeader(LAST_MODIFIED, LAST_MODIFIED_DATE);
+        if (LAST_MODIFIED_DATE.equals(req.getHeader(IF_MODIFIED_SINCE))) {
+          notModified.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+          resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+          return;
+        }
+      } else if (path.startsWith("/nostore")) {
+        resp.setHeader(CACHE_CONTROL, "no-store, max-age=60");
+      } else if (path.startsWith("/private")) {
+        resp.setHeader(CACHE_CONTROL, "private, max-age=60");
+      } else if (path.startsWith("/user")) {
+        resp.setHeader(CACHE_CONTROL, "max-age=60");
+        path = path + " for " + req.getHeader(AUTHORIZATION);
+      } else if (path.startsWith("/vary")) {
+        resp.setHeader(CACHE_CONTROL, "max-age=60");
+        resp.setHeader("Vary", "Accept-Language");
+        path = path + " in " + req.getHeader("Accept-Language");
+      }
+      resp.setContentType("application/json");
+      resp.getWriter().print("{\"name\":\"Company " + path + "\",\"number\":1}");
+    }
+
+    static int requests(String path) {
+      return requests.getOrDefault(path, new AtomicInteger()).get();
+    }
+
+    static int notModified(String path) {
+      return notModified.getOrDefault(path, new AtomicInteger()).get();
+    }
+  }
+
+  public CacheTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+    this.engineFactory = engineFactory;
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(CachingServlet.class, "/cached/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/cached", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  /** A unique path per test run so that the engines do not share counters */
+  private String path(String prefix) {
+    return "/" + prefix + "/" + restClient.getEngine().getClass().getSimpleName();
+  }
+
+  @Test
+  public void testFreshResponse() throws RestException, JsonProcessingException {
+    HttpCache cache = new HttpCache(1024 * 1024);
+    restClient.setHttpCache(cache);
+    String path = path("maxage");
+    for (int i = 0; i < 5; i++) {
+      Response response = restClient.get(serverUrl + path);
+      assertEquals(200, response.getResponseCode());
+      assertEquals("Company " + path, response.getObject(Company.class).getName());
+    }
+    assertEquals("Company " + path, restClient.get(serverUrl + path, Company.class).getName());
+    assertEquals(1, CachingServlet.requests(path));
+    assertEquals(5, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    restClient.get(serverUrl + path, Map.of(CACHE_CONTROL, "no-cache"));
+    assertEquals(2, CachingServlet.requests(path), "no-cache request goes to the server");
+  }
+
+  @Test
+  public void testRevalidation() throws RestException, JsonProcessingException {
+    HttpCache cache = new HttpCache(1024 * 1024);
+    restClient.setHttpCache(cache);
+    String etagPath = path("etag");
+    String lastModifiedPath = path("lastmodified");
+    for (int i = 0; i < 3; i++) {
+      assertEquals("Company " + etagPath, restClient.get(serverUrl + etagPath).getObject(Company.class).getName());
+      Response response = restClient.get(serverUrl + lastModifiedPath);
+      assertEquals(200, response.getResponseCode());
+      assertEquals("Company " + lastModifiedPath, response.getObject(Company.class).getName());
+    }
+    assertEquals(3, CachingServlet.requests(etagPath));
+    assertEquals(2, CachingServlet.notModified(etagPath));
+    assertEquals(2, CachingServlet.notModified(lastModifiedPath));
+    assertEquals(4, cache.getRevalidations());
+    assertEquals(2, cache.getMisses());
+    assertEquals(0, cache.getHits());
+  }
+
+  @Test
+  public void testNoStore() throws RestException {
+    HttpCache cache = new HttpCache(1024 * 1024);
+    restClient.setHttpCache(cache);
+    String path = path("nostore");
+    restClient.get(serverUrl + path);
+    restClient.get(serverUrl + path);
+    assertEquals(2, CachingServlet.requests(path));
+    assertEquals(0, cache.getEntryCount());
+  }
+
+  @Test
+  public void testUsersNotShared() throws RestException, JsonProcessingException {
+    HttpCache cache = new HttpCache(1024 * 1024);
+    restClient.setHttpCache(cache);
+    // another client sharing the cache
+    RestClient other = Engines.withEngine(new RestClient(), engineFactory);
+    other.setHttpCache(cache);
+    String path = path("user");
+    Headers alice = Headers.basicAuth("alice", "secret");
+    Headers bob = Headers.basicAuth("bob", "secret");
+    assertEquals("Company " + path + " for " + alice.get(AUTHORIZATION),
+        restClient.get(serverUrl + path, alice).getObject(Company.class).getName());
+    assertEquals("Company " + path + " for " + bob.get(AUTHORIZATION),
+        other.get(serverUrl + path, bob).getObject(Company.class).getName());
+    other.setTokenProvider(() -> "token");
+    assertEquals("Company " + path + " for Bearer token",
+        other.get(serverUrl + path).getObject(Company.class).getName());
+    assertEquals(3, CachingServlet.requests(path));
+    assertEquals(0, cache.getEntryCount());
+  }
+
+  @Test
+  public void testPrivate() throws RestException {
+    HttpCache cache = new HttpCache(1024 * 1024);
+    restClient.setHttpCache(cache);
+    String path = path("private");
+    restClient.get(serverUrl + path);
+    restClient.get(serverUrl + path);
+    assertEquals(2, CachingServlet.requests(path));
+    assertEquals(0, cache.getEntryCount());
+  }
+
+  @Test
+  public void testVary() throws RestException, JsonProcessingException {
+    HttpCache cache = new HttpCache(1024 * 1024);
+    restClient.setHttpCache(cache);
+    String path = path("vary");
+    Map<String, String> english = Map.of("Accept-Language", "en");
+    Map<String, String> swedish = Map.of("Accept-Language", "sv");
+    assertEquals("Company " + path + " in en",
+        restClient.get(serverUrl + path, english).getObject(Company.class).getName());
+    assertEquals("Company " + path + " in en",
+        restClient.get(serverUrl + path, english).getObject(Company.class).getName());
+    assertEquals("Company " + path + " in sv",
+        restClient.get(serverUrl + path, swedish).getObject(Company.class).getName());
+    assertEquals(2, CachingServlet.requests(path));
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void testEvictionToDisk() throws RestException, IOException {
+    Path dir = Files.createTempDirectory("httpcache");
+    try {
+      String first = path("maxage") + "/first";
+      String second = path("maxage") + "/second";
+      HttpCache sizing = new HttpCache(1024 * 1024);
+      restClient.setHttpCache(sizing);
+      restClient.get(serverUrl + first);
+      // room for one entry in memory
+      long maxBytes = sizing.getSize() * 3 / 2;
+      HttpCache cache = new HttpCache(maxBytes, dir, 1024 * 1024);
+      restClient.setHttpCache(cache);
+      restClient.get(serverUrl + first);
+      restClient.get(serverUrl + second);
+      assertEquals(1, cache.getEntryCount());
+      assertTrue(cache.getSize() <= maxBytes);
+
+      assertEquals("Company " + first, restClient.get(serverUrl + first).getObject(Company.class).getName());
+      assertEquals("Company " + second, restClient.get(serverUrl + second).getObject(Company.class).getName());
+      assertEquals(2, CachingServlet.requests(first));
+      assertEquals(1, CachingServlet.requests(second));
+      assertEquals(2, cache.getHits());
+
+      cache.clear();
+      restClient.get(serverUrl + first);
+      assertEquals(3, CachingServlet.requests(first));
+    } finally {
+      try (Stream<Path> paths = Files.walk(dir)) {
+        paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  public void testDiskTrim() throws RestException, IOException {
+    Path dir = Files.createTempDirectory("httpcache");
+    try {
+      String first = path("maxage") + "/trim1";
+      String second = path("maxage") + "/trim2";
+      String third = path("maxage") + "/trim3";
+      HttpCache sizing = new HttpCache(1024 * 1024);
+      restClient.setHttpCache(sizing);
+      restClient.get(serverUrl + first);
+      // room for one entry in memory and one on disk
+      long maxBytes = sizing.getSize() * 3 / 2;
+      HttpCache cache = new HttpCache(maxBytes, dir, maxBytes);
+      restClient.setHttpCache(cache);
+      restClient.get(serverUrl + first);
+      restClient.get(serverUrl + second);
+      restClient.get(serverUrl + third);
+      try (Stream<Path> files = Files.list(dir)) {
+        assertEquals(1, files.count(), "the oldest file is trimmed");
+      }
+      restClient.get(serverUrl + second);
+      restClient.get(serverUrl + first);
+      assertEquals(3, CachingServlet.requests(first));
+      assertEquals(1, CachingServlet.requests(second));
+    } finally {
+      try (Stream<Path> paths = Files.walk(dir)) {
+        paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+      }
+    }
+  }
+}
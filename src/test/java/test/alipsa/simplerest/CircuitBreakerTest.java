@@ -0,0 +1,189 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.CircuitBreaker;
+import se.alipsa.simplerest.CircuitBreakerOpenException;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.Response;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class CircuitBreakerTest {
+
+  private static Server server;
+  private static String serverUrl;
+  private final RestClient restClient;
+  private final String engineName;
+
+  /**
+   * Responds with the status given by the status parameter (default 200) after sleeping the number of
+   * millis given by the sleep parameter, counting the requests per path.
+   */
+  public static class DegradedServlet extends HttpServlet {
+
+    static final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      requests.computeIfAbsent(req.getPathInfo(), p -> new AtomicInteger()).incrementAndGet();
+      String sleep = req.getParameter("sleep");
+      if (sleep != null) {
+        try {
+          Thread.sleep(Long.parseLong(sleep));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      String status = req.getParameter("status");
+      resp.setStatus(status == null ? 200 : Integer.parseInt(status));
+      resp.setContentType("application/json");
+      resp.getWriter().print("{\"name\":\"OK\"}");
+    }
+
+    static int requests(String path) {
+      return requests.getOrDefault(path, new AtomicInteger()).get();
+    }
+  }
+
+  public CircuitBreakerTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+    engineName = restClient.getEngine().getClass().getSimpleName();
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(DegradedServlet.class, "/degraded/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/degraded", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  public void testFailureRate() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker()
+        .withWindow(10, 4)
+        .withOpenDuration(Duration.ofMillis(300), 2);
+    restClient.setCircuitBreaker(breaker);
+    String path = "/failing/" + engineName;
+    assertEquals(200, restClient.head(serverUrl + path).getResponseCode());
+    assertEquals(200, restClient.head(serverUrl + path).getResponseCode());
+    assertEquals(500, restClient.head(serverUrl + path + "?status=500").getResponseCode());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("localhost"), "below the minimum number of calls");
+    assertEquals(503, restClient.head(serverUrl + path + "?status=503").getResponseCode());
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState("localhost"));
+
+    CircuitBreakerOpenException e = assertThrows(CircuitBreakerOpenException.class,
+        () -> restClient.get(serverUrl + path));
+    assertEquals("localhost", e.getHost());
+    assertEquals(4, DegradedServlet.requests(path), "an open circuit does not call the server");
+    assertEquals(1, breaker.getRejectedCalls());
+
+    Thread.sleep(350);
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState("localhost"));
+    assertEquals(200, restClient.head(serverUrl + path).getResponseCode());
+    assertEquals(500, restClient.head(serverUrl + path + "?status=500").getResponseCode());
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState("localhost"), "a failed trial call opens the circuit");
+
+    Thread.sleep(350);
+    assertEquals(200, restClient.head(serverUrl + path).getResponseCode());
+    assertEquals(200, restClient.head(serverUrl + path).getResponseCode());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("localhost"));
+    assertEquals(8, DegradedServlet.requests(path));
+  }
+
+  @Test
+  public void testConnectionFailures() {
+    CircuitBreaker breaker = new CircuitBreaker().withWindow(2, 2);
+    restClient.setCircuitBreaker(breaker);
+    assertThrows(RestException.class, () -> restClient.get("http://127.0.0.1:1/nothing"));
+    assertThrows(RestException.class, () -> restClient.get("http://127.0.0.1:1/nothing"));
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState("127.0.0.1"));
+    long start = System.nanoTime();
+    assertThrows(CircuitBreakerOpenException.class, () -> restClient.get("http://127.0.0.1:1/nothing"));
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 100, "fails fast");
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("localhost"), "circuits are per host");
+  }
+
+  @Test
+  public void testSlowCallRate() throws RestException {
+    CircuitBreaker breaker = new CircuitBreaker()
+        .withSlowCallRateThreshold(0.5, Duration.ofMillis(100))
+        .withWindow(4, 2);
+    restClient.setCircuitBreaker(breaker);
+    String path = "/slow/" + engineName;
+    assertEquals(200, restClient.head(serverUrl + path).getResponseCode());
+    assertEquals(200, restClient.head(serverUrl + path + "?sleep=300").getResponseCode());
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState("localhost"));
+    assertThrows(CircuitBreakerOpenException.class, () -> restClient.head(serverUrl + path));
+    assertEquals(2, DegradedServlet.requests(path));
+  }
+
+  @Test
+  public void testCallStartedBeforeOpenIsNoTrial() throws Exception {
+    CircuitBreaker breaker = new CircuitBreaker()
+        .withWindow(2, 2)
+        .withOpenDuration(Duration.ofMillis(300), 1);
+    restClient.setCircuitBreaker(breaker);
+    String path = "/straggler/" + engineName;
+    // started while the circuit is closed, fails when it is half open
+    CompletableFuture<Response> straggler = restClient.headAsync(serverUrl + path + "?status=500&sleep=700");
+    Thread.sleep(50);
+    assertEquals(500, restClient.head(serverUrl + path + "?status=500").getResponseCode());
+    assertEquals(500, restClient.head(serverUrl + path + "?status=500").getResponseCode());
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState("localhost"));
+
+    Thread.sleep(350);
+    // the trial call is still running when the straggler fails
+    assertEquals(200, restClient.head(serverUrl + path + "?sleep=400").getResponseCode());
+    assertEquals(500, straggler.get().getResponseCode());
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("localhost"), "only the trial call counts");
+  }
+}
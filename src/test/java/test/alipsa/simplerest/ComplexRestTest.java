@@ -8,23 +8,31 @@ import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.HttpEngine;
 import se.alipsa.simplerest.RestClient;
 import se.alipsa.simplerest.RestException;
 import test.alipsa.simplerest.servlets.ComplexServlet;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.fail;
 
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
 public class ComplexRestTest {
 
   private static Server server;
   private static String serverUrl;
-  private static RestClient restClient;
-
+  private final RestClient restClient;
 
+  public ComplexRestTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+  }
 
   @BeforeAll
   public static void startJetty() throws Exception {
@@ -46,7 +54,6 @@ public class ComplexRestTest {
     }
     int port = connector.getLocalPort();
     serverUrl = String.format("http://%s:%d/",host,port);
-    restClient = new RestClient();
   }
 
   @AfterAll
@@ -69,4 +76,11 @@ public class ComplexRestTest {
     assertEquals("bar", map.get("two").get(1));
   }
 
+  @Test
+  public void getTypedComplexReturn() throws RestException, JsonProcessingException {
+    Map<String, List<String>> map = restClient.get(serverUrl + "complex", new TypeReference<>() {});
+    assertEquals(2, map.size());
+    assertEquals("c", map.get("one").get(2));
+  }
+
 }
@@ -0,0 +1,190 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.fail;
+import static se.alipsa.simplerest.CommonHeaders.CONTENT_ENCODING;
+import static se.alipsa.simplerest.CommonHeaders.CONTENT_LENGTH;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.HttpCache;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.Response;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+import test.alipsa.simplerest.model.Company;
+import test.alipsa.simplerest.servlets.SimpleServlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class CompressionTest {
+
+  private static Server server;
+  private static String serverUrl;
+  private final RestClient restClient;
+
+  /** Responds with the content encoding and the (decompressed) size of the request body */
+  public static class EchoServlet extends HttpServlet {
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      String encoding = req.getHeader(CONTENT_ENCODING);
+      InputStream in = "gzip".equals(encoding) ? new GZIPInputStream(req.getInputStream()) : req.getInputStream();
+      long size = in.transferTo(OutputStream.nullOutputStream());
+      resp.setContentType("text/plain");
+      resp.getWriter().print(encoding + ";" + size);
+    }
+
+    @Override
+    protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      doPost(req, resp);
+    }
+  }
+
+  /** Responds with a gzip compressed json body of a known length, regardless of the Accept-Encoding */
+  public static class GzippedServlet extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+        gzip.write("{\"name\":\"compressed\"}".getBytes(StandardCharsets.UTF_8));
+      }
+      resp.setContentType("application/json");
+      resp.setHeader("Cache-Control", "max-age=60");
+      resp.setHeader(CONTENT_ENCODING, "gzip");
+      resp.setContentLength(compressed.size());
+      compressed.writeTo(resp.getOutputStream());
+    }
+  }
+
+  public CompressionTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(SimpleServlet.class, "/simple/*");
+    context.addServlet(EchoServlet.class, "/echo/*");
+    context.addServlet(GzippedServlet.class, "/gzipped/*");
+    GzipHandler gzipHandler = new GzipHandler();
+    gzipHandler.setIncludedMethods("GET", "POST");
+    gzipHandler.setHandler(context);
+    server.setHandler(gzipHandler);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  public void testCompressedResponse() throws RestException, JsonProcessingException {
+    String url = serverUrl + "simple/companies?count=1000";
+    Response response = restClient.get(url);
+    assertNull(response.getHeader(CONTENT_ENCODING), "the body is decoded");
+    List<Company> companies = response.getObjectList(Company.class);
+    assertEquals(1000, companies.size());
+    assertEquals("Company 999", companies.get(999).getName());
+
+    try (Stream<Company> stream = restClient.getStream(url, Company.class)) {
+      assertEquals(1000, stream.count());
+    }
+
+    restClient.setAcceptCompressed(false);
+    response = restClient.get(url);
+    assertNull(response.getHeader(CONTENT_ENCODING));
+    assertEquals(1000, response.getObjectList(Company.class).size());
+  }
+
+  @Test
+  public void testDecodedHeaders() throws RestException {
+    restClient.setHttpCache(new HttpCache(1024 * 1024));
+    String url = serverUrl + "gzipped/company";
+    for (int i = 0; i < 2; i++) {
+      // the second response is served from the cache
+      Response response = restClient.get(url);
+      assertEquals("{\"name\":\"compressed\"}", response.getPayload());
+      assertNull(response.getHeader(CONTENT_ENCODING), "the encoding of the compressed body");
+      assertNull(response.getHeader(CONTENT_LENGTH), "the length of the compressed body");
+      assertEquals(-1, response.getContentLength());
+      assertEquals("application/json", response.getContentType());
+    }
+  }
+
+  @Test
+  public void testCompressedRequest() throws RestException {
+    List<Company> companies = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      companies.add(new Company("Company " + i, i));
+    }
+    String json = "[" + "{\"name\":\"ABC\",\"number\":1},".repeat(99) + "{\"name\":\"ABC\",\"number\":1}]";
+
+    assertEquals("null;" + json.length(), restClient.post(serverUrl + "echo", json).getPayload());
+
+    restClient.setRequestCompressionThreshold(1024);
+    assertEquals("gzip;" + json.length(), restClient.post(serverUrl + "echo", json).getPayload());
+    assertEquals("null;2", restClient.post(serverUrl + "echo", "{}").getPayload(), "below threshold");
+    String large = restClient.put(serverUrl + "echo", companies).getPayload();
+    assertEquals("gzip", large.substring(0, large.indexOf(';')), "json above threshold");
+    assertEquals("null;25", restClient.post(serverUrl + "echo", new Company("ABC", 1)).getPayload(),
+        "json below threshold");
+  }
+
+  @Test
+  public void testThresholdAboveJsonBuffer() throws RestException {
+    List<Company> companies = new ArrayList<>();
+    for (int i = 0; i < 4000; i++) {
+      companies.add(new Company("Company " + i, i));
+    }
+    // about 130 KB of json, more than is serialized up front by default
+    restClient.setRequestCompressionThreshold(256 * 1024);
+    String response = restClient.post(serverUrl + "echo", companies).getPayload();
+    assertEquals("null", response.substring(0, response.indexOf(';')), "json below threshold");
+    restClient.setRequestCompressionThreshold(64 * 1024);
+    response = restClient.post(serverUrl + "echo", companies).getPayload();
+    assertEquals("gzip", response.substring(0, response.indexOf(';')), "json above threshold");
+  }
+}
@@ -0,0 +1,206 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.DownloadResult;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class DownloadTest {
+
+  private static Server server;
+  private static String serverUrl;
+  private static Path docRoot;
+  private static byte[] content;
+  private final RestClient restClient;
+
+  /** Ignores the start of the requested range, answering with the whole content as a 206 */
+  public static class WrongRangeServlet extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      if (req.getHeader("Range") != null) {
+        resp.setStatus(206);
+        resp.setHeader("Content-Range", "bytes 0-" + (content.length - 1) + "/" + content.length);
+      }
+      resp.setContentLength(content.length);
+      resp.getOutputStream().write(content);
+    }
+  }
+
+  public DownloadTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    docRoot = Files.createTempDirectory("docroot");
+    content = new byte[3 * 1024 * 1024 + 17];
+    new Random(42).nextBytes(content);
+    Files.write(docRoot.resolve("artifact.bin"), content);
+
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.setResourceBase(docRoot.toString());
+    context.addServlet(DefaultServlet.class, "/");
+    context.addServlet(WrongRangeServlet.class, "/wrongrange");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() throws IOException {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+    try (Stream<Path> paths = Files.walk(docRoot)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testGetContentToPath() throws RestException, IOException {
+    Path target = Files.createTempFile("download", ".bin");
+    try {
+      DownloadResult result = restClient.getContentToPath(serverUrl + "artifact.bin", target);
+      assertEquals(200, result.getResponseCode());
+      assertEquals(content.length, result.getBytesTransferred());
+      assertEquals(String.valueOf(content.length), result.getHeader("content-length"));
+      assertFalse(result.isResumed());
+      assertArrayEquals(content, Files.readAllBytes(target));
+    } finally {
+      Files.delete(target);
+    }
+  }
+
+  @Test
+  public void testResume() throws RestException, IOException {
+    Path target = Files.createTempFile("download", ".bin");
+    try {
+      int partial = 1_000_000;
+      Files.write(target, Arrays.copyOf(content, partial));
+      DownloadResult result = restClient.getContentToPath(serverUrl + "artifact.bin", target, true);
+      assertEquals(206, result.getResponseCode());
+      assertTrue(result.isResumed());
+      assertEquals(content.length - partial, result.getBytesTransferred());
+      assertArrayEquals(content, Files.readAllBytes(target));
+
+      // the server answers with a 416 with the Content-Length of the whole file but no body
+      for (int i = 0; i < 20; i++) {
+        result = restClient.getContentToPath(serverUrl + "artifact.bin", target, true);
+        assertEquals(416, result.getResponseCode());
+        assertEquals(0, result.getBytesTransferred(), "already complete");
+        assertArrayEquals(content, Files.readAllBytes(target));
+      }
+    } finally {
+      Files.delete(target);
+    }
+  }
+
+  @Test
+  public void testResumeChangedContent() throws RestException, IOException {
+    Path target = Files.createTempFile("download", ".bin");
+    try {
+      // longer than the content on the server
+      Files.write(target, new byte[content.length + 100]);
+      DownloadResult result = restClient.getContentToPath(serverUrl + "artifact.bin", target, true);
+      assertEquals(200, result.getResponseCode());
+      assertFalse(result.isResumed());
+      assertArrayEquals(content, Files.readAllBytes(target));
+    } finally {
+      Files.delete(target);
+    }
+  }
+
+  @Test
+  public void testResumeWrongRange() throws RestException, IOException {
+    Path target = Files.createTempFile("download", ".bin");
+    try {
+      Files.write(target, Arrays.copyOf(content, 1000));
+      DownloadResult result = restClient.getContentToPath(serverUrl + "wrongrange", target, true);
+      assertFalse(result.isResumed(), "a range not starting at the end of the file is not appended");
+      assertEquals(content.length, result.getBytesTransferred());
+      assertArrayEquals(content, Files.readAllBytes(target));
+    } finally {
+      Files.delete(target);
+    }
+  }
+
+  @Test
+  public void testGetContentToChannel() throws RestException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DownloadResult result = restClient.getContentToChannel(serverUrl + "artifact.bin", Channels.newChannel(out));
+    assertEquals(content.length, result.getBytesTransferred());
+    assertArrayEquals(content, out.toByteArray());
+    assertArrayEquals(content, restClient.getContentAsBytes(serverUrl + "artifact.bin"));
+    assertThrows(RestException.class,
+        () -> restClient.getContentToChannel(serverUrl + "missing.bin", Channels.newChannel(out)));
+  }
+
+  @Test
+  public void testStreamingBase64() throws RestException, IOException {
+    String expected = Base64.getEncoder().encodeToString(content);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DownloadResult result = restClient.getContentAsBase64(serverUrl + "artifact.bin", out);
+    assertEquals(content.length, result.getBytesTransferred());
+    assertEquals(expected, out.toString(StandardCharsets.US_ASCII));
+
+    StringWriter writer = new StringWriter();
+    restClient.getContentAsBase64(serverUrl + "artifact.bin", writer);
+    assertEquals(expected, writer.toString());
+
+    ObjectMapper mapper = new ObjectMapper();
+    String json = mapper.writeValueAsString(Map.of("image", restClient.base64Content(serverUrl + "artifact.bin")));
+    assertEquals(expected, mapper.readTree(json).get("image").asText());
+  }
+}
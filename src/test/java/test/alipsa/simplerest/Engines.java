@@ -0,0 +1,28 @@
+package test.alipsa.simplerest;
+
+import org.junit.jupiter.api.Named;
+import se.alipsa.simplerest.HttpClientEngine;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.UrlConnectionEngine;
+
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * The engines the rest tests are run against.
+ */
+public class Engines {
+
+  public static Stream<Named<Function<RestClient, HttpEngine>>> engines() {
+    return Stream.of(
+        Named.of("HttpURLConnection", rc -> new UrlConnectionEngine(rc.getSslContext().getSocketFactory())),
+        Named.of("HttpClient", rc -> new HttpClientEngine(rc.getSslContext()))
+    );
+  }
+
+  public static RestClient withEngine(RestClient restClient, Function<RestClient, HttpEngine> engineFactory) {
+    restClient.setEngine(engineFactory.apply(restClient));
+    return restClient;
+  }
+}
@@ -0,0 +1,72 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import se.alipsa.simplerest.CommonHeaders;
+import se.alipsa.simplerest.Headers;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HeadersTest {
+
+  @Test
+  public void testCaseInsensitive() {
+    Headers headers = Headers.of("Accept", "application/json", "X-Trace", "1");
+    assertEquals("application/json", headers.get("accept"));
+    assertTrue(headers.containsKey("x-trace"));
+    assertFalse(headers.containsKey("Content-Type"));
+
+    Headers replaced = headers.with("ACCEPT", "text/plain");
+    assertEquals(2, replaced.size());
+    assertEquals("text/plain", replaced.get("Accept"));
+    assertEquals("application/json", headers.get("Accept"), "headers are immutable");
+    assertEquals(List.of("ACCEPT", "X-Trace"), List.copyOf(replaced.keySet()));
+
+    assertEquals(Map.of("X-Trace", "1"), headers.with("accept", null));
+    assertSame(headers, headers.with("Content-Type", null));
+    assertThrows(UnsupportedOperationException.class, () -> headers.put("Content-Type", "text/plain"));
+    assertThrows(IllegalArgumentException.class, () -> Headers.of("Accept"));
+  }
+
+  @Test
+  public void testMerge() {
+    Headers defaults = Headers.basicAuth("per", "secret").with("User-Agent", "test");
+    assertEquals(CommonHeaders.basicAuth("per", "secret"), defaults.get(CommonHeaders.AUTHORIZATION));
+    assertSame(defaults, defaults.withAll(null));
+    assertSame(defaults, defaults.withAll(Map.of()));
+    Headers other = Headers.bearer("token");
+    assertSame(other, Headers.EMPTY.withAll(other));
+
+    Map<String, String> request = new LinkedHashMap<>();
+    request.put("authorization", "Bearer abc");
+    request.put("Accept", "application/json");
+    Headers merged = defaults.withAll(request);
+    assertEquals(3, merged.size());
+    assertEquals("Bearer abc", merged.get("Authorization"), "the later headers win");
+    assertEquals("test", merged.get("user-agent"));
+    assertEquals(2, defaults.size(), "merging creates new headers");
+  }
+
+  @Test
+  public void testOfMap() {
+    Map<String, String> map = new LinkedHashMap<>();
+    map.put("accept", "text/plain");
+    map.put("Accept", "application/json");
+    map.put("Range", "bytes=0-");
+    Headers headers = Headers.of(map);
+    assertEquals(2, headers.size());
+    assertEquals("application/json", headers.get("ACCEPT"));
+    assertSame(headers, Headers.of(headers));
+    assertSame(Headers.EMPTY, Headers.of((Map<String, String>) null));
+    StringBuilder names = new StringBuilder();
+    headers.forEach((name, value) -> names.append(name).append(';'));
+    assertEquals("accept;Range;", names.toString());
+  }
+}
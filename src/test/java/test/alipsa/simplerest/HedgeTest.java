@@ -0,0 +1,149 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.HedgePolicy;
+import se.alipsa.simplerest.HedgeStats;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.Response;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class HedgeTest {
+
+  private static Server server;
+  private static String serverUrl;
+  private final RestClient restClient;
+  private final String engineName;
+
+  /**
+   * Sleeps the number of millis given by the sleep parameter before responding to the first request for a path,
+   * later requests for the path are answered right away. The response tells which request answered.
+   */
+  public static class SlowReplicaServlet extends HttpServlet {
+
+    static final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      int count = requests.computeIfAbsent(req.getPathInfo(), p -> new AtomicInteger()).incrementAndGet();
+      String sleep = req.getParameter("sleep");
+      if (count == 1 && sleep != null) {
+        try {
+          Thread.sleep(Long.parseLong(sleep));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      resp.setContentType("application/json");
+      resp.getWriter().print("{\"name\":\"request\",\"number\":" + count + "}");
+    }
+
+    static int requests(String path) {
+      return requests.getOrDefault(path, new AtomicInteger()).get();
+    }
+  }
+
+  public HedgeTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+    engineName = restClient.getEngine().getClass().getSimpleName();
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(SlowReplicaServlet.class, "/replica/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/replica", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  public void testHedgeWins() throws RestException {
+    restClient.setHedgePolicy(new HedgePolicy(Duration.ofMillis(100), 1.0));
+    String path = "/slow/" + engineName;
+    long start = System.nanoTime();
+    Response response = restClient.get(serverUrl + path + "?sleep=3000");
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 2000, "the hedge response is used");
+    assertEquals("{\"name\":\"request\",\"number\":2}", response.getPayload());
+    assertEquals(2, SlowReplicaServlet.requests(path));
+
+    HedgeStats stats = restClient.getHedgeStats();
+    assertEquals(1, stats.getRequests());
+    assertEquals(1, stats.getHedges());
+    assertEquals(1, stats.getHedgeWins());
+
+    String fast = "/fast/" + engineName;
+    assertEquals(200, restClient.head(serverUrl + fast).getResponseCode());
+    assertEquals(1, SlowReplicaServlet.requests(fast), "fast calls are not hedged");
+    assertEquals(2, stats.getRequests());
+    assertEquals(1, stats.getHedges());
+  }
+
+  @Test
+  public void testHedgeCap() throws RestException {
+    restClient.setHedgePolicy(new HedgePolicy(Duration.ofMillis(50), 0.0));
+    String path = "/capped/" + engineName;
+    Response response = restClient.get(serverUrl + path + "?sleep=300");
+    assertEquals("{\"name\":\"request\",\"number\":1}", response.getPayload());
+    assertEquals(1, SlowReplicaServlet.requests(path));
+    assertEquals(0, restClient.getHedgeStats().getHedges());
+    assertEquals(1, restClient.getHedgeStats().getCapped());
+  }
+
+  @Test
+  public void testNotHedged() throws RestException {
+    restClient.setHedgePolicy(new HedgePolicy(Duration.ofMillis(50), 1.0));
+    String path = "/post/" + engineName;
+    assertEquals(200, restClient.post(serverUrl + path + "?sleep=300", "{}").getResponseCode());
+    assertEquals(1, SlowReplicaServlet.requests(path), "only GET and HEAD requests are hedged");
+    assertEquals(0, restClient.getHedgeStats().getRequests());
+
+    HedgePolicy adaptive = new HedgePolicy(Duration.ofMillis(50), 1.0).withPercentile(0.95);
+    assertEquals(Duration.ofMillis(50), adaptive.getDelay(), "the fixed delay is used until there are enough calls");
+  }
+}
@@ -0,0 +1,158 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.EngineResponse;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.Interceptor;
+import se.alipsa.simplerest.Response;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class InterceptorTest {
+
+  private static Server server;
+  private static String serverUrl;
+  private final RestClient restClient;
+
+  /** Responds with the X-Api-Key header it received */
+  public static class ApiKeyServlet extends HttpServlet {
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      resp.setContentType("text/plain");
+      resp.getWriter().write(req.getMethod() + " " + req.getHeader("X-Api-Key"));
+    }
+  }
+
+  /** A response made up by an interceptor */
+  static class CannedResponse implements EngineResponse {
+    private final String body;
+
+    CannedResponse(String body) {
+      this.body = body;
+    }
+
+    @Override
+    public int getResponseCode() {
+      return 200;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+      return Map.of("Content-Type", List.of("text/plain"));
+    }
+
+    @Override
+    public InputStream getBody() {
+      return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() {
+      // nothing to release
+    }
+  }
+
+  public InterceptorTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(ApiKeyServlet.class, "/intercepted/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/intercepted", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  public void testAddHeader() throws RestException {
+    restClient.addInterceptor(chain -> chain.proceed(chain.request().withHeader("X-Api-Key", "secret")));
+    assertEquals("GET secret", restClient.get(serverUrl + "/items").getPayload());
+    assertEquals("DELETE secret", restClient.delete(serverUrl + "/items/1").getPayload());
+    assertEquals("POST secret", restClient.post(serverUrl + "/items", "{}").getPayload());
+  }
+
+  @Test
+  public void testOrder() throws RestException {
+    List<String> calls = new CopyOnWriteArrayList<>();
+    restClient.addInterceptor(chain -> {
+      calls.add("outer " + chain.request().getHeaders().get("X-Api-Key"));
+      EngineResponse response = chain.proceed(chain.request().withHeader("X-Api-Key", "outer"));
+      calls.add("outer done");
+      return response;
+    });
+    restClient.addInterceptor(chain -> {
+      calls.add("inner " + chain.request().getHeaders().get("X-Api-Key"));
+      return chain.proceed(chain.request().withHeader("x-api-key", "inner"));
+    });
+    assertEquals("GET inner", restClient.get(serverUrl + "/items").getPayload(), "the inner header replaces the outer");
+    assertEquals(List.of("outer null", "inner outer", "outer done"), calls);
+  }
+
+  @Test
+  public void testShortCircuit() throws RestException {
+    Interceptor offline = chain -> chain.request().getUrl().endsWith("/offline")
+        ? new CannedResponse("from the interceptor")
+        : chain.proceed(chain.request());
+    restClient.addInterceptor(offline);
+    Response response = restClient.get(serverUrl + "/offline");
+    assertEquals("from the interceptor", response.getPayload());
+    assertEquals("GET null", restClient.get(serverUrl + "/online").getPayload());
+
+    assertEquals(List.of(offline), restClient.getInterceptors());
+    assertThrows(UnsupportedOperationException.class, () -> restClient.getInterceptors().clear());
+    assertTrue(restClient.removeInterceptor(offline));
+    assertFalse(restClient.removeInterceptor(offline));
+    assertEquals("GET null", restClient.get(serverUrl + "/offline").getPayload());
+  }
+}
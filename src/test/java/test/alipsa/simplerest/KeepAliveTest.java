@@ -0,0 +1,102 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+import se.alipsa.simplerest.UrlConnectionEngine;
+import test.alipsa.simplerest.servlets.SimpleServlet;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class KeepAliveTest {
+
+  private static Server server;
+  private static String serverUrl;
+  private static final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+  /** Keeps track of the client side ports, a new port means a new connection */
+  public static class PortRecordingServlet extends SimpleServlet {
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      clientPorts.add(req.getRemotePort());
+      super.service(req, resp);
+    }
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(PortRecordingServlet.class, "/simple/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @BeforeEach
+  public void resetPorts() {
+    clientPorts.clear();
+  }
+
+  @Test
+  public void testKeepAliveReusesConnection() throws RestException {
+    RestClient restClient = new RestClient();
+    UrlConnectionEngine engine = new UrlConnectionEngine(restClient.getSslContext().getSocketFactory());
+    engine.setKeepAlive(true);
+    restClient.setEngine(engine);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(200, restClient.get(serverUrl + "simple").getResponseCode());
+      assertEquals(404, restClient.delete(serverUrl + "simple/company/345").getResponseCode());
+      assertEquals(200, restClient.head(serverUrl + "simple").getResponseCode());
+      assertEquals(200, restClient.options(serverUrl + "simple").getResponseCode());
+      assertFalse(restClient.urlExistsAndIsImage(serverUrl + "simple"));
+    }
+    assertEquals(1, clientPorts.size(), "connections opened");
+    assertEquals(0, engine.getConnectionStats().getRequests(), "only https connections are counted");
+  }
+
+  @Test
+  public void testDisconnectOpensNewConnections() throws RestException {
+    RestClient restClient = new RestClient();
+    for (int i = 0; i < 5; i++) {
+      // the body is never read so disconnecting throws away the connection
+      assertFalse(restClient.urlExistsAndIsImage(serverUrl + "simple"));
+    }
+    assertEquals(5, clientPorts.size(), "connections opened");
+  }
+}
@@ -0,0 +1,268 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.LimitExceededException;
+import se.alipsa.simplerest.RateLimiter;
+import se.alipsa.simplerest.RequestLimits;
+import se.alipsa.simplerest.Response;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class LimitsTest {
+
+  private static Server server;
+  private static String serverUrl;
+  private final RestClient restClient;
+  private final String engineName;
+
+  /**
+   * Sleeps the number of millis given by the sleep parameter before responding and keeps track of the max
+   * number of concurrent requests per path.
+   */
+  public static class ConcurrencyServlet extends HttpServlet {
+
+    static final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+    static final Map<String, AtomicInteger> maxRunning = new ConcurrentHashMap<>();
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      String path = req.getPathInfo();
+      int current = running.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+      maxRunning.computeIfAbsent(path, p -> new AtomicInteger()).accumulateAndGet(current, Math::max);
+      try {
+        String sleep = req.getParameter("sleep");
+        if (sleep != null) {
+          Thread.sleep(Long.parseLong(sleep));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        running.get(path).decrementAndGet();
+      }
+      resp.setContentType("application/json");
+      resp.getWriter().print("{\"name\":\"OK\"}");
+    }
+
+    static int maxRunning(String path) {
+      return maxRunning.getOrDefault(path, new AtomicInteger()).get();
+    }
+  }
+
+  public LimitsTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+    engineName = restClient.getEngine().getClass().getSimpleName();
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(ConcurrencyServlet.class, "/limits/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/limits", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  public void testTokenBucket() {
+    RateLimiter limiter = new RateLimiter(1, 3);
+    assertTrue(limiter.tryAcquire());
+    assertTrue(limiter.tryAcquire());
+    assertTrue(limiter.tryAcquire());
+    assertFalse(limiter.tryAcquire(), "the burst is used up");
+    assertTrue(limiter.timeUntilAvailable().toMillis() > 500);
+    assertTrue(limiter.reserve().toMillis() > 500);
+  }
+
+  @Test
+  public void testRateLimitBlocking() throws RestException {
+    restClient.setRequestLimits(new RequestLimits().withHostRate(20, 1));
+    String url = serverUrl + "/rate/" + engineName;
+    long start = System.nanoTime();
+    for (int i = 0; i < 5; i++) {
+      assertEquals(200, restClient.head(url).getResponseCode());
+    }
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 150, "4 waits of 50 ms");
+  }
+
+  @Test
+  public void testRateLimitFailFast() throws RestException {
+    restClient.setRequestLimits(new RequestLimits().withGlobalRate(1, 2).withMode(RequestLimits.Mode.FAIL_FAST,
+        Duration.ZERO));
+    String url = serverUrl + "/failfast/" + engineName;
+    assertEquals(200, restClient.head(url).getResponseCode());
+    assertEquals(200, restClient.head(url).getResponseCode());
+    LimitExceededException e = assertThrows(LimitExceededException.class, () -> restClient.get(url));
+    assertEquals("localhost", e.getHost());
+    assertEquals(1, restClient.getRequestLimits().getRejected());
+  }
+
+  @Test
+  public void testConcurrencyLimit() throws Exception {
+    for (RequestLimits.Mode mode : List.of(RequestLimits.Mode.BLOCK, RequestLimits.Mode.ASYNC)) {
+      restClient.setRequestLimits(new RequestLimits().withHostConcurrency(2).withMode(mode, Duration.ofSeconds(10)));
+      String path = "/concurrency/" + mode + "/" + engineName;
+      List<CompletableFuture<Response>> futures = new ArrayList<>();
+      for (int i = 0; i < 6; i++) {
+        futures.add(restClient.getAsync(serverUrl + path + "?sleep=100"));
+      }
+      for (CompletableFuture<Response> future : futures) {
+        assertEquals(200, future.get().getResponseCode());
+      }
+      assertEquals(2, ConcurrencyServlet.maxRunning(path), mode.toString());
+      assertEquals(0, restClient.getRequestLimits().getConcurrencyLimiter("localhost").getInFlight());
+    }
+  }
+
+  @Test
+  public void testConcurrencyLimitFailFast() throws Exception {
+    restClient.setRequestLimits(new RequestLimits().withGlobalConcurrency(1)
+        .withMode(RequestLimits.Mode.FAIL_FAST, Duration.ZERO));
+    String url = serverUrl + "/concurrencyfailfast/" + engineName + "?sleep=300";
+    List<CompletableFuture<Response>> futures = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      futures.add(restClient.getAsync(url));
+    }
+    int rejected = 0;
+    for (CompletableFuture<Response> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        assertInstanceOf(LimitExceededException.class, e.getCause());
+        rejected++;
+      }
+    }
+    assertTrue(rejected >= 1, "at most one call at a time");
+    assertEquals(rejected, restClient.getRequestLimits().getRejected());
+  }
+
+  @Test
+  public void testFailFastRefundsRate() throws Exception {
+    restClient.setRequestLimits(new RequestLimits().withGlobalRate(0.5, 2).withHostConcurrency(1)
+        .withMode(RequestLimits.Mode.FAIL_FAST, Duration.ZERO));
+    String url = serverUrl + "/failfastrefund/" + engineName;
+    CompletableFuture<Response> slow = restClient.getAsync(url + "?sleep=300");
+    Thread.sleep(50);
+    // rejected by the concurrency limit, the rate permit it took must be given back
+    assertThrows(LimitExceededException.class, () -> restClient.head(url));
+    assertEquals(200, slow.get().getResponseCode());
+    assertEquals(200, restClient.head(url).getResponseCode());
+    assertEquals(1, restClient.getRequestLimits().getRejected());
+  }
+
+  @Test
+  public void testAsyncWaiterAfterTimedOutWaiter() throws Exception {
+    restClient.setRequestLimits(new RequestLimits().withGlobalConcurrency(1)
+        .withMode(RequestLimits.Mode.ASYNC, Duration.ofMillis(500)));
+    String url = serverUrl + "/asyncwaiters/" + engineName;
+    CompletableFuture<Response> slow = restClient.getAsync(url + "?sleep=1000");
+    Thread.sleep(50);
+    CompletableFuture<Response> timedOut = restClient.getAsync(url);
+    ExecutionException e = assertThrows(ExecutionException.class, timedOut::get);
+    assertInstanceOf(LimitExceededException.class, e.getCause());
+    Thread.sleep(100);
+    // waits until the slow call releases its permit, a release must not be spent on the waiter that gave up
+    CompletableFuture<Response> waiting = restClient.getAsync(url);
+    assertEquals(200, slow.get().getResponseCode());
+    assertEquals(200, waiting.get().getResponseCode());
+  }
+
+  @Test
+  public void testAsyncRateWithoutThreads() throws Exception {
+    ExecutorService pool = Executors.newCachedThreadPool();
+    AtomicLong busyNanos = new AtomicLong();
+    try {
+      restClient.setAsyncExecutor(task -> pool.execute(() -> {
+        long start = System.nanoTime();
+        try {
+          task.run();
+        } finally {
+          busyNanos.addAndGet(System.nanoTime() - start);
+        }
+      }));
+      String url = serverUrl + "/asyncrate/" + engineName;
+      // warm up the engine so that the time measured is the time the calls wait
+      assertEquals(200, restClient.get(url).getResponseCode());
+      restClient.setRequestLimits(new RequestLimits().withGlobalRate(10, 1)
+          .withMode(RequestLimits.Mode.ASYNC, Duration.ofSeconds(2)));
+      List<CompletableFuture<Response>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(restClient.getAsync(url));
+      }
+      for (CompletableFuture<Response> future : futures) {
+        assertEquals(200, future.get().getResponseCode());
+      }
+      // the calls are started 100 ms apart when their turn comes instead of waiting for it in a thread
+      long busy = Duration.ofNanos(busyNanos.get()).toMillis();
+      assertTrue(busy < 150, "the threads were busy for " + busy + " ms, 8 calls waiting 700 ms in total");
+      assertEquals(0, restClient.getRequestLimits().getRejected());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testAdaptiveConcurrencyLimit() throws RestException {
+    restClient.setRequestLimits(new RequestLimits().withAdaptiveHostConcurrency(10, 2, 20, Duration.ofMillis(50)));
+    String url = serverUrl + "/adaptive/" + engineName;
+    assertEquals(200, restClient.head(url + "?sleep=150").getResponseCode());
+    assertEquals(200, restClient.head(url + "?sleep=150").getResponseCode());
+    int limit = restClient.getRequestLimits().getConcurrencyLimiter("localhost").getLimit();
+    assertTrue(limit < 10, "slow calls decrease the limit but was " + limit);
+  }
+}
@@ -0,0 +1,182 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.MetricTags;
+import se.alipsa.simplerest.MetricsListener;
+import se.alipsa.simplerest.RequestMetrics;
+import se.alipsa.simplerest.Response;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+import se.alipsa.simplerest.UrlConnectionEngine;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class MetricsTest {
+
+  private static final String ITEM = "{\"name\":\"item\",\"number\":42}";
+  private static Server server;
+  private static String serverUrl;
+  private final RestClient restClient;
+  private final RecordingListener listener = new RecordingListener();
+
+  /** Serves an item for GET and echoes the body of other requests */
+  public static class ItemServlet extends HttpServlet {
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      resp.setContentType("application/json");
+      if ("GET".equals(req.getMethod())) {
+        resp.getOutputStream().write(ITEM.getBytes(StandardCharsets.UTF_8));
+      } else {
+        req.getInputStream().transferTo(resp.getOutputStream());
+      }
+    }
+  }
+
+  static class RecordingListener implements MetricsListener {
+    final List<RequestMetrics> requests = new CopyOnWriteArrayList<>();
+    final List<Type> deserialized = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void onRequest(RequestMetrics metrics) {
+      requests.add(metrics);
+    }
+
+    @Override
+    public void onDeserialization(MetricTags tags, Type type, Duration duration, Throwable failure) {
+      assertEquals("/metrics/items/{id}", tags.getUriTemplate());
+      assertNull(failure);
+      deserialized.add(type);
+    }
+  }
+
+  public MetricsTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+    restClient.setMetricsListener(listener);
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(ItemServlet.class, "/metrics/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/metrics", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  public void testRequestMetrics() throws Exception {
+    Response response = restClient.get(serverUrl + "/items/42?verbose=true");
+    assertEquals(1, listener.requests.size());
+    RequestMetrics metrics = listener.requests.get(0);
+    assertEquals("GET", metrics.getTags().getMethod());
+    assertEquals("localhost", metrics.getTags().getHost());
+    assertEquals("/metrics/items/{id}", metrics.getTags().getUriTemplate());
+    assertEquals(200, metrics.getStatus());
+    assertNull(metrics.getException());
+    assertEquals(ITEM.length(), metrics.getBytesReceived());
+    assertEquals(0, metrics.getBytesSent());
+    assertNotNull(metrics.getTimeToFirstByte());
+    assertNotNull(metrics.getBodyReadTime());
+    assertTrue(metrics.getTotalTime().compareTo(metrics.getTimeToFirstByte()) >= 0);
+    if (restClient.getEngine() instanceof UrlConnectionEngine) {
+      assertNotNull(metrics.getConnectTime());
+    } else {
+      assertNull(metrics.getConnectTime(), "the HttpClient does not report the connect time");
+    }
+
+    assertEquals("item", response.getObject(Map.class).get("name"));
+    assertEquals(1, listener.deserialized.size());
+    assertEquals(Map.class, ((com.fasterxml.jackson.databind.JavaType) listener.deserialized.get(0)).getRawClass());
+
+    assertEquals(42, restClient.get(serverUrl + "/items/7", Map.class).get("number"));
+    assertEquals(2, listener.deserialized.size(), "typed gets report the conversion");
+    assertEquals(2, listener.requests.size());
+  }
+
+  @Test
+  public void testFailedRequest() {
+    assertThrows(RestException.class, () -> restClient.post("http://127.0.0.1:1/items", "{}"));
+    RequestMetrics failed = listener.requests.get(0);
+    assertEquals(-1, failed.getStatus());
+    assertNotNull(failed.getException());
+    assertNull(failed.getTimeToFirstByte());
+    assertEquals("127.0.0.1", failed.getTags().getHost());
+  }
+
+  @Test
+  public void testPost() throws RestException {
+    String payload = "{\"name\":\"posted\"}";
+    Response response = restClient.post(serverUrl + "/items", payload);
+    assertEquals(payload, response.getPayload());
+    RequestMetrics metrics = listener.requests.get(0);
+    assertEquals("POST", metrics.getTags().getMethod());
+    assertEquals(payload.length(), metrics.getBytesSent());
+    assertEquals(payload.length(), metrics.getBytesReceived());
+  }
+
+  @Test
+  public void testUriTemplate() {
+    assertEquals("/users/{id}/orders/{id}",
+        MetricTags.defaultUriTemplate("https://api.example.com/users/42/orders/3f2504e0-4f89-11d3-9a0c-0305e82c3301"));
+    assertEquals("/users/me", MetricTags.defaultUriTemplate("https://api.example.com/users/me?page=2"));
+    assertEquals("/", MetricTags.defaultUriTemplate("https://api.example.com"));
+  }
+
+  @Test
+  public void testNoOpListener() throws RestException {
+    restClient.setMetricsListener(null);
+    assertSame(MetricsListener.NONE, restClient.getMetricsListener());
+    restClient.get(serverUrl + "/items/1");
+    assertTrue(listener.requests.isEmpty());
+  }
+}
@@ -3,12 +3,17 @@ package test.alipsa.simplerest;
 import org.junit.jupiter.api.Test;
 import se.alipsa.simplerest.Response;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 public class ResponseTest {
 
@@ -19,6 +24,13 @@ public class ResponseTest {
     assertNotEquals(nullPayload, stringNullPayload);
   }
 
+  @Test
+  public void testPayloadBytes() {
+    Response response = new Response("{\"name\":\"Åke\"}", 200, Map.of());
+    assertArrayEquals("{\"name\":\"Åke\"}".getBytes(StandardCharsets.UTF_8), response.getPayloadBytes());
+    assertNull(new Response(null, 200, Map.of()).getPayloadBytes());
+  }
+
   @Test
   public void testHeaderLookupCaseInsensitive() {
     Response response = new Response("", 200, Map.of("content-type", List.of("application/json")));
@@ -30,4 +42,46 @@ public class ResponseTest {
     Response response = new Response();
     assertNull(response.getHeader("Content-Type"));
   }
+
+  @Test
+  public void testHeaderIndex() {
+    Map<String, List<String>> headers = new HashMap<>();
+    headers.put(null, List.of("HTTP/1.1 200 OK"));
+    headers.put("set-cookie", List.of("a=1"));
+    headers.put("Set-Cookie", List.of("b=2"));
+    headers.put("X-Trace", List.of("abc"));
+    Response response = new Response("", 200, headers);
+    assertEquals("HTTP/1.1 200 OK", response.getStatusLine());
+    assertEquals(2, response.getHeaderValues("SET-COOKIE").size(), "names differing in case are merged");
+    assertEquals("abc", response.getHeader("x-trace"));
+    assertEquals(List.of(), response.getHeaderValues("X-Missing"));
+    assertNull(response.getHeader(null));
+
+    response.setHeaders(Map.of("X-Trace", List.of("def")));
+    assertEquals("def", response.getHeader("x-trace"), "the index is rebuilt when the headers change");
+    assertNull(response.getStatusLine());
+  }
+
+  @Test
+  public void testTypedHeaders() {
+    Response response = new Response("", 200, Map.of(
+        "content-length", List.of("1024"),
+        "content-type", List.of("application/json; charset=utf-8"),
+        "etag", List.of("\"33a64df5\""),
+        "date", List.of("Wed, 21 Oct 2015 07:28:00 GMT")));
+    assertEquals(1024, response.getContentLength());
+    assertEquals("application/json; charset=utf-8", response.getContentType());
+    assertEquals("\"33a64df5\"", response.getETag());
+    Instant date = response.getDate();
+    assertEquals(Instant.parse("2015-10-21T07:28:00Z"), date);
+    assertSame(date, response.getDate(), "the parsed date is cached");
+
+    Response invalid = new Response("", 200, Map.of(
+        "Content-Length", List.of("many"),
+        "Date", List.of("yesterday")));
+    assertEquals(-1, invalid.getContentLength());
+    assertNull(invalid.getDate());
+    assertNull(invalid.getETag());
+    assertEquals(-1, new Response().getContentLength());
+  }
 }
@@ -0,0 +1,194 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static se.alipsa.simplerest.CommonHeaders.RETRY_AFTER;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+import se.alipsa.simplerest.RestTimeoutException;
+import se.alipsa.simplerest.RetryBudget;
+import se.alipsa.simplerest.RetryPolicy;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class RetryTest {
+
+  private static Server server;
+  private static String serverUrl;
+  private final RestClient restClient;
+  private final String engineName;
+
+  /**
+   * Responds with the status given by the status parameter (default 503) to the first N (the failures parameter)
+   * requests for a path and with 200 after that. The retryAfter parameter is sent as the Retry-After header and
+   * the failures are delayed by the millis of the sleep parameter.
+   */
+  public static class FlakyServlet extends HttpServlet {
+
+    static final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      int count = requests.computeIfAbsent(req.getPathInfo(), p -> new AtomicInteger()).incrementAndGet();
+      int failures = Integer.parseInt(req.getParameter("failures"));
+      if (count <= failures) {
+        if (req.getParameter("sleep") != null) {
+          try {
+            Thread.sleep(Long.parseLong(req.getParameter("sleep")));
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        String status = req.getParameter("status");
+        resp.setStatus(status == null ? 503 : Integer.parseInt(status));
+        if (req.getParameter("retryAfter") != null) {
+          resp.setHeader(RETRY_AFTER, req.getParameter("retryAfter"));
+        }
+        return;
+      }
+      resp.setContentType("application/json");
+      resp.getWriter().print("{\"name\":\"OK\",\"number\":" + count + "}");
+    }
+
+    static int requests(String path) {
+      return requests.getOrDefault(path, new AtomicInteger()).get();
+    }
+  }
+
+  public RetryTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+    restClient.setRetryPolicy(new RetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(100)));
+    engineName = restClient.getEngine().getClass().getSimpleName();
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(FlakyServlet.class, "/flaky/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/flaky", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  public void testRetryStatus() throws RestException {
+    String path = "/status/" + engineName;
+    assertEquals(200, restClient.get(serverUrl + path + "?failures=2").getResponseCode());
+    assertEquals(3, FlakyServlet.requests(path));
+    assertEquals(2, restClient.getRetryStats().getRetries("localhost"));
+
+    String exhausted = "/exhausted/" + engineName;
+    assertEquals(503, restClient.head(serverUrl + exhausted + "?failures=5").getResponseCode());
+    assertEquals(3, FlakyServlet.requests(exhausted), "max attempts");
+
+    String notRetryable = "/notretryable/" + engineName;
+    assertEquals(501, restClient.delete(serverUrl + notRetryable + "?failures=1&status=501").getResponseCode());
+    assertEquals(1, FlakyServlet.requests(notRetryable));
+  }
+
+  @Test
+  public void testIdempotentOnly() throws RestException {
+    String path = "/post/" + engineName;
+    assertEquals(503, restClient.post(serverUrl + path + "?failures=1", "{}").getResponseCode());
+    assertEquals(1, FlakyServlet.requests(path));
+
+    restClient.setRetryPolicy(restClient.getRetryPolicy().withRetryNonIdempotent(true));
+    assertEquals(200, restClient.post(serverUrl + path + "?failures=2", "{}").getResponseCode());
+    assertEquals(3, FlakyServlet.requests(path));
+
+    String put = "/put/" + engineName;
+    assertEquals(200, restClient.put(serverUrl + put + "?failures=1", Map.of("name", "retried")).getResponseCode());
+    assertEquals(2, FlakyServlet.requests(put));
+  }
+
+  @Test
+  public void testRetryAfter() throws RestException {
+    String path = "/retryafter/" + engineName;
+    long start = System.nanoTime();
+    assertEquals(429, restClient.head(serverUrl + path + "?failures=1&status=429&retryAfter=5").getResponseCode());
+    assertEquals(1, FlakyServlet.requests(path), "Retry-After longer than the max delay is not retried");
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 2000);
+
+    String retried = "/retryafterzero/" + engineName;
+    assertEquals(200, restClient.get(serverUrl + retried + "?failures=1&status=429&retryAfter=0").getResponseCode());
+    assertEquals(2, FlakyServlet.requests(retried));
+  }
+
+  @Test
+  public void testRetryBudget() throws RestException {
+    restClient.setRetryPolicy(restClient.getRetryPolicy().withBudget(new RetryBudget(0, 1)));
+    String first = "/budget1/" + engineName;
+    String second = "/budget2/" + engineName;
+    assertEquals(200, restClient.get(serverUrl + first + "?failures=1").getResponseCode());
+    assertThrows(RestException.class, () -> restClient.get(serverUrl + second + "?failures=1"));
+    assertEquals(1, FlakyServlet.requests(second));
+    assertEquals(1, restClient.getRetryStats().getRetries());
+    assertEquals(1, restClient.getRetryStats().getBudgetExhausted());
+  }
+
+  @Test
+  public void testRetryConnectionFailure() {
+    assertThrows(RestException.class, () -> restClient.get("http://127.0.0.1:1/nothing"));
+    assertEquals(2, restClient.getRetryStats().getRetries("127.0.0.1"));
+  }
+
+  @Test
+  public void testRetryWithinCallTimeout() {
+    restClient.setCallTimeout(Duration.ofMillis(300));
+    String path = "/calltimeout/" + engineName;
+    long start = System.nanoTime();
+    // the first attempt takes 200 ms, the retry gets the 100 ms left and is not retried when it times out
+    assertThrows(RestTimeoutException.class, () -> restClient.get(serverUrl + path + "?failures=5&sleep=200"));
+    long millis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+    assertTrue(millis < 550, "the retries share the call timeout but took " + millis + " ms");
+    assertEquals(2, FlakyServlet.requests(path));
+
+    String expired = "/calltimeoutexpired/" + engineName;
+    assertThrows(RestTimeoutException.class, () -> restClient.get(serverUrl + expired + "?failures=5&sleep=400"));
+    assertEquals(1, FlakyServlet.requests(expired), "the expiry of the call timeout is not retried");
+  }
+}
@@ -1,6 +1,7 @@
 package test.alipsa.simplerest;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.fail;
 import static se.alipsa.simplerest.CommonHeaders.ALLOW;
 import static se.alipsa.simplerest.CommonHeaders.CONTENT_LENGTH;
@@ -13,18 +14,41 @@ import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.HttpEngine;
 import se.alipsa.simplerest.Response;
 import se.alipsa.simplerest.RestClient;
 import se.alipsa.simplerest.RestException;
 import test.alipsa.simplerest.model.Company;
 import test.alipsa.simplerest.servlets.SimpleServlet;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
 public class SimpleRestTest {
 
   private static Server server;
   private static String serverUrl;
-  private static RestClient restClient;
+  private final RestClient restClient;
+  private final Function<RestClient, HttpEngine> engineFactory;
 
+  public SimpleRestTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    this.engineFactory = engineFactory;
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+  }
 
   @BeforeAll
   public static void startJetty() throws Exception {
@@ -46,7 +70,6 @@ public class SimpleRestTest {
     }
     int port = connector.getLocalPort();
     serverUrl = String.format("http://%s:%d/", host, port);
-    restClient = new RestClient();
   }
 
   @AfterAll
@@ -67,6 +90,40 @@ public class SimpleRestTest {
     assertEquals(123, company.getNumber(), "company number");
   }
 
+  @Test
+  public void payloadBytesTest() throws RestException, JsonProcessingException {
+    var response = restClient.get(serverUrl + "simple");
+    assertEquals(27, response.getPayloadBytes().length, "payload bytes");
+    assertEquals("ABC", response.getObject(Company.class).getName(), "Company name from bytes");
+    assertEquals(new String(response.getPayloadBytes(), StandardCharsets.UTF_8), response.getPayload());
+  }
+
+  @Test
+  public void typedGetTest() throws RestException, JsonProcessingException {
+    Company company = restClient.get(serverUrl + "simple", Company.class);
+    assertEquals("ABC", company.getName(), "Company name");
+    assertEquals(123, company.getNumber(), "company number");
+  }
+
+  @Test
+  public void typedGetEmptyBodyTest() throws RestException, JsonProcessingException {
+    assertNull(restClient.get(serverUrl + "simple/empty", Company.class), "streamed");
+    restClient.setCoalesceRequests(true);
+    assertNull(restClient.get(serverUrl + "simple/empty", Company.class), "buffered");
+  }
+
+  @Test
+  public void streamTest() throws RestException {
+    try (Stream<Company> companies = restClient.getStream(serverUrl + "simple/companies?count=5000", Company.class)) {
+      AtomicInteger count = new AtomicInteger();
+      companies.forEach(c -> assertEquals("Company " + count.getAndIncrement(), c.getName()));
+      assertEquals(5000, count.get());
+    }
+    try (Stream<Company> companies = restClient.getStream(serverUrl + "simple/companies?count=100", Company.class)) {
+      assertEquals(3, companies.limit(3).count(), "stream closed before the end");
+    }
+  }
+
   @Test
   public void getComplexReturn() {
 
@@ -86,6 +143,40 @@ public class SimpleRestTest {
     }
   }
 
+  @Test
+  public void streamingPostTest() throws RestException, IOException {
+    Path file = Files.createTempFile("upload", ".bin");
+    try {
+      byte[] chunk = new byte[1024 * 1024];
+      for (int i = 0; i < 5; i++) {
+        Files.write(file, chunk, StandardOpenOption.APPEND);
+      }
+      var response = restClient.post(serverUrl + "simple/upload", file);
+      assertEquals("application/octet-stream;5242880", response.getPayload());
+      try (InputStream is = Files.newInputStream(file)) {
+        response = restClient.post(serverUrl + "simple/upload", is, Map.of(CONTENT_TYPE, "image/png"));
+      }
+      assertEquals("image/png;5242880", response.getPayload());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void jsonFramingTest() throws RestException {
+    Company company = new Company("Creative Design", 191919);
+    var response = restClient.post(serverUrl + "simple/framing", company);
+    assertEquals("42;null;42", response.getPayload(), "small json is sent with a Content-Length");
+
+    List<Company> companies = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      companies.add(new Company("Company " + i, i));
+    }
+    String[] framing = restClient.post(serverUrl + "simple/framing", companies).getPayload().split(";");
+    assertEquals("-1", framing[0], "large json is streamed");
+    assertEquals("chunked", framing[1]);
+  }
+
   @Test
   public void simplePutTest() throws JsonProcessingException {
     try {
@@ -138,10 +229,10 @@ public class SimpleRestTest {
     try {
       // Should work both with all trusted and OS trusted CA
       var url = "https://www.sunet.se";
-      var rcOs = new RestClient(false);
+      var rcOs = Engines.withEngine(new RestClient(false), engineFactory);
       var osResponse = rcOs.get(url);
 
-      var rcAll = new RestClient(true);
+      var rcAll = Engines.withEngine(new RestClient(true), engineFactory);
       var allResponse = rcAll.get(url);
       assertEquals(allResponse, osResponse);
     } catch (RestException e) {
@@ -0,0 +1,136 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+import se.alipsa.simplerest.RestTimeoutException;
+import test.alipsa.simplerest.model.Company;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Duration;
+import java.util.function.Function;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class TimeoutTest {
+
+  private static Server server;
+  private static String serverUrl;
+  private final RestClient restClient;
+
+  /**
+   * /slow/headers waits before responding, /slow/body trickles a json array slowly enough to never
+   * trigger a read timeout, anything else responds at once.
+   */
+  public static class SlowServlet extends HttpServlet {
+    @Override
+    protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      resp.setContentType("application/json");
+      String path = req.getPathInfo();
+      try {
+        if ("/headers".equals(path)) {
+          Thread.sleep(2000);
+        } else if ("/body".equals(path)) {
+          PrintWriter writer = resp.getWriter();
+          writer.print("[");
+          for (int i = 0; i < 30; i++) {
+            writer.print(i == 0 ? "1" : ",1");
+            writer.flush();
+            Thread.sleep(100);
+          }
+          writer.print("]");
+          return;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      resp.getWriter().print("{\"name\":\"Fast\",\"number\":1}");
+    }
+  }
+
+  public TimeoutTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(SlowServlet.class, "/slow/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/slow", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  public void testReadTimeout() throws RestException {
+    restClient.setReadTimeout(Duration.ofMillis(200));
+    long start = System.nanoTime();
+    assertThrows(RestTimeoutException.class, () -> restClient.get(serverUrl + "/headers"));
+    assertThrows(RestTimeoutException.class, () -> restClient.post(serverUrl + "/headers", "{}"));
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1500, "timed out quickly");
+    assertEquals(200, restClient.get(serverUrl + "/fast").getResponseCode());
+  }
+
+  @Test
+  public void testCallTimeout() throws RestException, JsonProcessingException {
+    restClient.setReadTimeout(Duration.ofSeconds(1));
+    restClient.setCallTimeout(Duration.ofMillis(500));
+    long start = System.nanoTime();
+    RestTimeoutException e = assertThrows(RestTimeoutException.class, () -> restClient.get(serverUrl + "/body"));
+    long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis();
+    assertTrue(elapsed >= 400 && elapsed < 1500, "elapsed " + elapsed + " ms, " + e.getMessage());
+    assertThrows(RestTimeoutException.class, () -> restClient.get(serverUrl + "/body", int[].class));
+    assertEquals("Fast", restClient.get(serverUrl + "/fast", Company.class).getName());
+  }
+
+  @Test
+  public void testPerCallTimeouts() throws RestException {
+    RestClient impatient = restClient.withTimeouts(null, null, Duration.ofMillis(300));
+    assertEquals(Duration.ofMillis(300), impatient.getCallTimeout());
+    assertThrows(RestTimeoutException.class, () -> impatient.get(serverUrl + "/headers"));
+    assertEquals(200, impatient.get(serverUrl + "/fast").getResponseCode());
+    // the original client is not affected
+    assertEquals(null, restClient.getCallTimeout());
+    assertEquals(200, restClient.get(serverUrl + "/body").getResponseCode());
+  }
+}
@@ -0,0 +1,207 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.ClientCredentialsTokenProvider;
+import se.alipsa.simplerest.CommonHeaders;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class TokenProviderTest {
+
+  private static final AtomicInteger tokensIssued = new AtomicInteger();
+  private static volatile long expiresIn;
+  private static volatile long tokenDelayMillis;
+  private static volatile String revoked;
+  private static Server server;
+  private static String serverUrl;
+  private final RestClient restClient;
+
+  /** Issues the tokens token-1, token-2 etc. to client:secret */
+  public static class TokenServlet extends HttpServlet {
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      String form = new String(req.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      if (!CommonHeaders.basicAuth("client", "secret").equals(req.getHeader("Authorization"))
+          || !form.startsWith("grant_type=client_credentials")) {
+        resp.sendError(401);
+        return;
+      }
+      try {
+        Thread.sleep(tokenDelayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      resp.setContentType("application/json");
+      resp.getWriter().write("{\"access_token\":\"token-" + tokensIssued.incrementAndGet()
+          + "\",\"token_type\":\"Bearer\",\"expires_in\":" + expiresIn + "}");
+    }
+  }
+
+  /** Responds with the bearer token received, or 401 if there is none or it is revoked */
+  public static class ApiServlet extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      String authorization = req.getHeader("Authorization");
+      if (authorization == null || authorization.equals("Bearer " + revoked)) {
+        resp.sendError(401);
+        return;
+      }
+      resp.setContentType("text/plain");
+      resp.getWriter().write(authorization);
+    }
+  }
+
+  public TokenProviderTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(TokenServlet.class, "/oauth/token");
+    context.addServlet(ApiServlet.class, "/api/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @BeforeEach
+  public void reset() {
+    tokensIssued.set(0);
+    expiresIn = 3600;
+    tokenDelayMillis = 0;
+    revoked = null;
+  }
+
+  private ClientCredentialsTokenProvider provider() {
+    return new ClientCredentialsTokenProvider(serverUrl + "/oauth/token", "client", "secret");
+  }
+
+  @Test
+  public void testCachedToken() throws RestException {
+    ClientCredentialsTokenProvider provider = provider().withScope("orders:read");
+    restClient.setTokenProvider(provider);
+    for (int i = 0; i < 5; i++) {
+      assertEquals("Bearer token-1", restClient.get(serverUrl + "/api/orders").getPayload());
+    }
+    assertEquals(1, provider.getFetchCount());
+
+    assertEquals("Bearer mine", restClient.get(serverUrl + "/api/orders", CommonHeaders.bearerHeader("mine"))
+        .getPayload(), "an explicit Authorization header is kept");
+    assertEquals(1, provider.getFetchCount());
+  }
+
+  @Test
+  public void testSingleFlight() throws Exception {
+    tokenDelayMillis = 300;
+    ClientCredentialsTokenProvider provider = provider();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Callable<String>> calls = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        calls.add(provider::getToken);
+      }
+      for (Future<String> token : executor.invokeAll(calls)) {
+        assertEquals("token-1", token.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, provider.getFetchCount());
+  }
+
+  @Test
+  public void testBackgroundRefresh() throws Exception {
+    expiresIn = 2;
+    // refreshed after half of the two second lifetime
+    ClientCredentialsTokenProvider provider = provider().withRefreshAhead(Duration.ofSeconds(5));
+    assertEquals("token-1", provider.getToken());
+    Thread.sleep(1100);
+    tokenDelayMillis = 300;
+    long start = System.nanoTime();
+    assertEquals("token-1", provider.getToken(), "the valid token is used while refreshing");
+    assertTrue(System.nanoTime() - start < Duration.ofMillis(250).toNanos(), "the call does not wait for the refresh");
+    long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (!"token-2".equals(provider.getToken()) && System.nanoTime() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals("token-2", provider.getToken());
+    assertEquals(2, provider.getFetchCount());
+  }
+
+  @Test
+  public void testRetryOnUnauthorized() throws RestException {
+    ClientCredentialsTokenProvider provider = provider();
+    restClient.setTokenProvider(provider);
+    assertEquals("Bearer token-1", restClient.get(serverUrl + "/api/orders").getPayload());
+    revoked = "token-1";
+    assertEquals("Bearer token-2", restClient.get(serverUrl + "/api/orders").getPayload());
+    assertEquals(2, provider.getFetchCount());
+
+    revoked = "token-2";
+    restClient.setTokenProvider(() -> "token-2");
+    RestException e = assertThrows(RestException.class, () -> restClient.get(serverUrl + "/api/orders"),
+        "a provider returning the same token is not retried");
+    assertTrue(e.getMessage().contains("401"), e.getMessage());
+  }
+
+  @Test
+  public void testTokenEndpointFailure() {
+    restClient.setTokenProvider(new ClientCredentialsTokenProvider(serverUrl + "/oauth/token", "client", "wrong"));
+    RestException e = assertThrows(RestException.class, () -> restClient.get(serverUrl + "/api/orders"));
+    assertTrue(e.getMessage().contains("401"), e.getMessage());
+  }
+}
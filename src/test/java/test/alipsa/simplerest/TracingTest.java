@@ -0,0 +1,195 @@
+package test.alipsa.simplerest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedClass;
+import org.junit.jupiter.params.provider.MethodSource;
+import se.alipsa.simplerest.HttpEngine;
+import se.alipsa.simplerest.Response;
+import se.alipsa.simplerest.RestClient;
+import se.alipsa.simplerest.RestException;
+import se.alipsa.simplerest.SpanData;
+import se.alipsa.simplerest.TraceContext;
+import se.alipsa.simplerest.Tracing;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+@ParameterizedClass
+@MethodSource("test.alipsa.simplerest.Engines#engines")
+public class TracingTest {
+
+  private static final String PARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+  private static Server server;
+  private static String serverUrl;
+  private final RestClient restClient;
+  /** an in memory span exporter */
+  private final List<SpanData> spans = new CopyOnWriteArrayList<>();
+
+  /** Responds with the trace context headers it received */
+  public static class TraceEchoServlet extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+      resp.setContentType("application/json");
+      String traceparent = req.getHeader("traceparent");
+      String tracestate = req.getHeader("tracestate");
+      resp.getWriter().write("{\"traceparent\":" + quote(traceparent) + ",\"tracestate\":" + quote(tracestate) + "}");
+    }
+
+    private static String quote(String value) {
+      return value == null ? "null" : "\"" + value + "\"";
+    }
+  }
+
+  public TracingTest(Function<RestClient, HttpEngine> engineFactory) throws RestException {
+    restClient = Engines.withEngine(new RestClient(), engineFactory);
+  }
+
+  @BeforeAll
+  public static void startJetty() throws Exception {
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setPort(0); // auto-bind to available port
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.addServlet(TraceEchoServlet.class, "/tracing/*");
+    server.setHandler(context);
+
+    server.start();
+
+    String host = connector.getHost();
+    if (host == null) {
+      host = "localhost";
+    }
+    int port = connector.getLocalPort();
+    serverUrl = String.format("http://%s:%d/tracing", host, port);
+  }
+
+  @AfterAll
+  public static void stopJetty() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  @Test
+  public void testClientSpan() throws Exception {
+    restClient.setTracing(new Tracing(spans::add));
+    Map<?, ?> received = restClient.get(serverUrl + "/items/42", Map.class);
+    assertEquals(2, spans.size(), "the request and the deserialization");
+    // the typed get converts the json while reading the body, before the request is done
+    SpanData span = spans.get(1);
+    assertEquals(SpanData.Kind.CLIENT, span.getKind());
+    assertEquals("GET /tracing/items/{id}", span.getName());
+    assertNull(span.getParentSpanId());
+    assertEquals(span.getContext().toTraceparent(), received.get("traceparent"));
+    assertNull(received.get("tracestate"));
+    assertEquals(200, span.getAttributes().get("http.response.status_code"));
+    assertEquals("localhost", span.getAttributes().get("server.address"));
+    assertTrue((Long) span.getAttributes().get("http.response.body.size") > 0);
+    assertTrue(span.getAttributes().containsKey("simplerest.time_to_first_byte_nanos"));
+    assertFalse(span.isError());
+
+    SpanData deserialization = spans.get(0);
+    assertEquals(SpanData.Kind.INTERNAL, deserialization.getKind());
+    assertEquals(span.getContext().getTraceId(), deserialization.getContext().getTraceId());
+    assertEquals(span.getContext().getSpanId(), deserialization.getParentSpanId(), "a child of the CLIENT span");
+    assertEquals("java.util.Map<java.lang.Object,java.lang.Object>", deserialization.getAttributes().get("simplerest.type"));
+  }
+
+  @Test
+  public void testBufferedClientSpan() throws Exception {
+    restClient.setTracing(new Tracing(spans::add));
+    restClient.setCoalesceRequests(true);
+    restClient.get(serverUrl + "/items/7", Map.class);
+    assertEquals(2, spans.size(), "the request and the deserialization");
+    SpanData span = spans.get(0);
+    assertEquals(SpanData.Kind.CLIENT, span.getKind());
+    assertEquals(span.getContext().getSpanId(), spans.get(1).getParentSpanId(), "a child of the CLIENT span");
+  }
+
+  @Test
+  public void testParentFromHeader() throws Exception {
+    restClient.setTracing(new Tracing(spans::add));
+    Response response = restClient.get(serverUrl + "/items/1",
+        Map.of("traceparent", PARENT, "tracestate", "vendor=abc"));
+    Map<?, ?> received = response.getObject(Map.class);
+    SpanData span = spans.get(0);
+    assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", span.getContext().getTraceId());
+    assertEquals("00f067aa0ba902b7", span.getParentSpanId());
+    assertNotEquals("00f067aa0ba902b7", span.getContext().getSpanId());
+    assertEquals(span.getContext().toTraceparent(), received.get("traceparent"));
+    assertEquals("vendor=abc", received.get("tracestate"));
+  }
+
+  @Test
+  public void testParentSupplier() throws Exception {
+    TraceContext parent = TraceContext.parse(PARENT, null);
+    restClient.setTracing(new Tracing(spans::add).withParent(() -> parent));
+    Response response = restClient.get(serverUrl + "/items/1");
+    response.getObject(Map.class);
+    assertEquals(2, spans.size());
+    SpanData span = spans.get(0);
+    assertEquals(parent.getTraceId(), span.getContext().getTraceId());
+    assertEquals(parent.getSpanId(), span.getParentSpanId());
+    SpanData deserialization = spans.get(1);
+    assertEquals("deserialize java.util.Map<java.lang.Object,java.lang.Object>", deserialization.getName());
+    assertEquals(parent.getTraceId(), deserialization.getContext().getTraceId());
+    assertEquals(span.getContext().getSpanId(), deserialization.getParentSpanId(),
+        "converted after the call, still a child of its CLIENT span");
+  }
+
+  @Test
+  public void testNotSampled() throws Exception {
+    restClient.setTracing(new Tracing(spans::add).withSampleRatio(0));
+    Response response = restClient.get(serverUrl + "/items/1");
+    assertNull(response.getObject(Map.class).get("traceparent"));
+
+    String unsampled = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00";
+    restClient.setTracing(new Tracing(spans::add).withParent(() -> TraceContext.parse(unsampled, null)));
+    response = restClient.get(serverUrl + "/items/1");
+    assertEquals(unsampled, response.getObject(Map.class).get("traceparent"), "the parent is propagated");
+    assertTrue(spans.isEmpty());
+
+    restClient.setTracing(null);
+    assertNull(restClient.get(serverUrl + "/items/1").getObject(Map.class).get("traceparent"));
+  }
+
+  @Test
+  public void testTraceContext() {
+    TraceContext context = TraceContext.parse(PARENT, " vendor=abc ");
+    assertTrue(context.isSampled());
+    assertEquals("vendor=abc", context.getTraceState());
+    assertEquals(PARENT, context.toTraceparent());
+    assertEquals(context, TraceContext.of("4bf92f3577b34da6a3ce929d0e0e4736", "00f067aa0ba902b7", true, "vendor=abc"));
+    assertNull(TraceContext.parse("00-00000000000000000000000000000000-00f067aa0ba902b7-01", null));
+    assertNull(TraceContext.parse("ff-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01", null));
+    assertNull(TraceContext.parse("00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01", null));
+    assertNull(TraceContext.parse(PARENT + "-extra", null));
+    assertEquals("4bf92f3577b34da6a3ce929d0e0e4736",
+        TraceContext.parse("01" + PARENT.substring(2) + "-extra", null).getTraceId());
+    assertThrows(IllegalArgumentException.class, () -> TraceContext.of("abc", "00f067aa0ba902b7", true, null));
+  }
+}
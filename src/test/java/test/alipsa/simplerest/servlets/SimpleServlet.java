@@ -1,6 +1,7 @@
 package test.alipsa.simplerest.servlets;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -9,6 +10,7 @@ import se.alipsa.simplerest.MediaType;
 import test.alipsa.simplerest.model.Company;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 
 public class SimpleServlet extends HttpServlet {
@@ -16,6 +18,16 @@ public class SimpleServlet extends HttpServlet {
   @Override
   protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
     //System.out.println("In SimpleServlet.doGet for " + req.getRequestURI());
+    if (req.getRequestURI().endsWith("/companies")) {
+      writeCompanies(Integer.parseInt(req.getParameter("count")), resp);
+      return;
+    }
+    if (req.getRequestURI().endsWith("/empty")) {
+      resp.setStatus(200);
+      resp.setContentType(MediaType.APPLICATION_JSON.getValue());
+      resp.setContentLength(0);
+      return;
+    }
     resp.setStatus(200);
     resp.setContentType(MediaType.APPLICATION_JSON.getValue());
     var writer = resp.getWriter();
@@ -27,8 +39,37 @@ public class SimpleServlet extends HttpServlet {
     writer.close();
   }
 
+  private void writeCompanies(int count, HttpServletResponse resp) throws IOException {
+    resp.setStatus(200);
+    resp.setContentType(MediaType.APPLICATION_JSON.getValue());
+    // flushing after each element would send thousands of tiny chunks
+    ObjectMapper mapper = new ObjectMapper().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    try (var generator = mapper.getFactory().createGenerator(resp.getOutputStream())) {
+      generator.writeStartArray();
+      for (int i = 0; i < count; i++) {
+        mapper.writeValue(generator, new Company("Company " + i, i));
+      }
+      generator.writeEndArray();
+    }
+  }
+
   @Override
   protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+    if (req.getRequestURI().endsWith("/framing")) {
+      // how the body was sent: the content length (-1 if unknown), the transfer encoding and the bytes received
+      long size = req.getInputStream().transferTo(OutputStream.nullOutputStream());
+      resp.setStatus(200);
+      resp.setContentType("text/plain");
+      resp.getWriter().print(req.getContentLengthLong() + ";" + req.getHeader("Transfer-Encoding") + ";" + size);
+      return;
+    }
+    if (req.getRequestURI().endsWith("/upload")) {
+      long size = req.getInputStream().transferTo(OutputStream.nullOutputStream());
+      resp.setStatus(200);
+      resp.setContentType("text/plain");
+      resp.getWriter().print(req.getContentType() + ";" + size);
+      return;
+    }
     //System.out.println("In SimpleServlet.doPost for " + req.getRequestURI());
     resp.setStatus(200);
     resp.setContentType(MediaType.APPLICATION_JSON.getValue());